@@ -0,0 +1,61 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+// users пользователей (история Histories по 20 категориям, у каждого бюджет), сводка Analytics в отдельном пуле
+// из threads потоков - для bench.AnalyticsBenchmark. cold - кошельки сохранены во временный каталог и не загружены:
+// сводка читает их файлы (User.scanView)
+public class AnalyticsFixture implements bench.AnalyticsOps {
+    private static final int CATEGORIES = 20;
+    private final List<User> users = new ArrayList<>();
+    private ForkJoinPool pool;
+    private File dir;
+
+    @Override
+    public void setup(int userCount, int transactions, int threads, boolean cold) throws IOException {
+        Map<String, User> all = new HashMap<>();
+        for (int i = 0; i < userCount; i++) {
+            User u = User.restore("user" + i, "x");
+            Histories.fill(u.getWallet(), transactions, CATEGORIES);
+            u.getWallet().setBudgetCents(Histories.category(i % CATEGORIES), 100_000);
+            all.put(u.getLogin(), u);
+        }
+        if (cold) {
+            dir = Files.createTempDirectory("bench-analytics").toFile();
+            String file = new File(dir, "data.ser").getPath();
+            new StorageService(file).saveAll(all);
+            all = new StorageService(file).loadAll();
+        }
+        users.addAll(all.values());
+        pool = new ForkJoinPool(threads);
+    }
+
+    @Override
+    public long analytics() {
+        Analytics a = Analytics.of(users, pool);
+        return a.getExpenseCents() + a.getOverBudget().size();
+    }
+
+    @Override
+    public void cleanup() {
+        pool.shutdown();
+        if (dir != null) {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                deleteRecursively(c);
+            }
+        }
+        f.delete();
+    }
+}
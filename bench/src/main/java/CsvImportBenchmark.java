@@ -0,0 +1,62 @@
+import java.io.*;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Random;
+
+// скорость импорта CSV: только разбор и разбор с добавлением в кошелек, строк в секунду
+// запуск: java -cp bench/target/benchmarks.jar CsvImportBenchmark [количество строк]
+public class CsvImportBenchmark {
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        File csv = File.createTempFile("bench", ".csv");
+        try {
+            generate(csv, n);
+            long parseBest = Long.MAX_VALUE, importBest = Long.MAX_VALUE;
+            for (int i = 0; i < RUNS; i++) {
+                long t0 = System.nanoTime();
+                try (Reader r = new FileReader(csv)) {
+                    new CsvImporter(r).run(batch -> { });
+                }
+                long t1 = System.nanoTime();
+                AuthService auth = new AuthService(new HashMap<>());
+                auth.register("bench", "bench");
+                auth.login("bench", "bench");
+                FinanceService finance = new FinanceService(auth);
+                try (Reader r = new FileReader(csv)) {
+                    finance.importCsv(r);
+                }
+                long t2 = System.nanoTime();
+                parseBest = Math.min(parseBest, t1 - t0);
+                importBest = Math.min(importBest, t2 - t1);
+            }
+            System.out.printf("строк: %d (%d байт), лучший из %d запусков%n", n, csv.length(), RUNS);
+            System.out.printf("%-22s %10s %14s%n", "", "мс", "строк/с");
+            System.out.printf("%-22s %10d %14.0f%n", "разбор", parseBest / 1_000_000, n * 1e9 / parseBest);
+            System.out.printf("%-22s %10d %14.0f%n", "разбор + кошелек", importBest / 1_000_000, n * 1e9 / importBest);
+        } finally {
+            csv.delete();
+        }
+    }
+
+    // тот же вид, что дает export-csv: у четверти строк есть заметка, время растет
+    private static void generate(File file, int n) throws IOException {
+        Random random = new Random(1);
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+        long minute = 0;
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(file), 1 << 16))) {
+            pw.print("type,category,amount,note,created\n");
+            for (int i = 0; i < n; i++) {
+                minute += random.nextInt(60);
+                boolean income = random.nextInt(5) == 0;
+                pw.print(income ? "INCOME" : "EXPENSE");
+                pw.print(",\"category" + random.nextInt(50) + "\",");
+                pw.print(random.nextInt(1_000_000) / 100.0);
+                pw.print(",\"" + (random.nextInt(4) == 0 ? "note " + i : "") + "\",");
+                pw.print(Transaction.fromMillis(1_577_836_800_000L + minute * 60_000).format(format));
+                pw.print("\n");
+            }
+        }
+    }
+}
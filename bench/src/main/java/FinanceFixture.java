@@ -0,0 +1,63 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
+// FinanceService с двумя пользователями для bench.FinanceServiceBenchmark: команды идут через сессию alice,
+// у которой история заданного размера, переводы - bob
+public class FinanceFixture implements bench.FinanceOps {
+    // расходы пишутся в отдельную категорию с бюджетом (проверка бюджета входит в замер) - ее легко убрать целиком
+    private static final String EXPENSES = "bench-expense";
+
+    private FinanceService finance;
+    private Session alice;
+    private Wallet aliceWallet;
+    private Wallet bobWallet;
+
+    @Override
+    public void history(int transactions, int categories) {
+        AuthService auth = new AuthService(new HashMap<>());
+        auth.register("alice", "secret");
+        auth.register("bob", "secret");
+        alice = auth.openSession("alice", "secret");
+        finance = new FinanceService(auth);
+        aliceWallet = alice.getUser().getWallet();
+        bobWallet = auth.getUsersMap().get("bob").getWallet();
+        Histories.fill(aliceWallet, transactions, categories);
+        aliceWallet.setBudget(Histories.category(0), 1_000_000);
+    }
+
+    @Override
+    public void reset() {
+        aliceWallet.forceDeleteCategory(EXPENSES);
+        aliceWallet.forceDeleteCategory("transfer:bob");
+        aliceWallet.compact();
+        aliceWallet.setBudget(EXPENSES, 1_000_000);
+        bobWallet.forceDeleteCategory("transfer-from:alice");
+        bobWallet.compact();
+    }
+
+    @Override
+    public String addExpense() {
+        return finance.addExpense(alice, EXPENSES, 1.5, "");
+    }
+
+    @Override
+    public String transfer() {
+        return finance.transfer(alice, "bob", 1.5, "");
+    }
+
+    @Override
+    public String summary() {
+        return finance.summary(alice);
+    }
+
+    @Override
+    public String listCategories() {
+        return finance.listCategories(alice);
+    }
+
+    @Override
+    public String exportCsv() throws IOException {
+        return finance.exportCsv(alice, Writer.nullWriter()); // меряется сборка CSV, а не запись на диск
+    }
+}
@@ -0,0 +1,60 @@
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+// память на хранение истории: список объектов Transaction (как кошелек хранил транзакции раньше)
+// против кошелька со столбцами, байт на транзакцию после сборки мусора
+// запуск: java -Xmx2g -cp bench/target/benchmarks.jar HeapFootprintBenchmark [количество транзакций]
+public class HeapFootprintBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        long base = usedHeap();
+        List<Transaction> objects = new ArrayList<>(n);
+        fill(n, objects::add);
+        long objectBytes = usedHeap() - base;
+        int check = objects.size();
+        objects = null;
+
+        base = usedHeap();
+        Wallet wallet = new Wallet();
+        fill(n, wallet::addTransaction);
+        long walletBytes = usedHeap() - base;
+        check += wallet.getTransactions().size();
+
+        System.out.printf("транзакций: %d (%s)%n", n, check == 2 * n ? "ok" : "-");
+        System.out.printf("%-34s %12s %10s%n", "", "МБ", "байт/шт");
+        print("List<Transaction>", objectBytes, n);
+        print("Wallet (столбцы + индексы)", walletBytes, n);
+    }
+
+    // примерно как в реальной истории: 50 категорий, заметка у каждой пятой транзакции
+    private static void fill(int n, Consumer<Transaction> sink) {
+        Random random = new Random(1);
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        String[] categories = new String[50];
+        for (int i = 0; i < categories.length; i++) {
+            categories[i] = "category" + i;
+        }
+        for (int i = 0; i < n; i++) {
+            sink.accept(new Transaction(random.nextInt(5) == 0 ? Transaction.Type.INCOME : Transaction.Type.EXPENSE,
+                    categories[random.nextInt(categories.length)], random.nextInt(100_000) / 100.0,
+                    random.nextInt(5) == 0 ? "note " + random.nextInt(1000) : "", start.plusMinutes(i * 5L)));
+        }
+    }
+
+    private static void print(String name, long bytes, int n) {
+        System.out.printf("%-34s %12.1f %10.1f%n", name, bytes / 1e6, (double) bytes / n);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
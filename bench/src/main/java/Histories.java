@@ -0,0 +1,44 @@
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// история для бенчмарков: n транзакций по categories категориям, по минуте между транзакциями,
+// каждая пятая - доход, заметка у каждой пятой. Одинаковая при одинаковых параметрах
+final class Histories {
+    static final LocalDateTime START = LocalDateTime.of(2020, 1, 1, 0, 0);
+    private static final int BATCH = 10_000;
+
+    private Histories() {
+    }
+
+    static String category(int i) {
+        return "category" + i;
+    }
+
+    static Wallet wallet(int transactions, int categories) {
+        Wallet w = new Wallet();
+        fill(w, transactions, categories);
+        return w;
+    }
+
+    static void fill(Wallet w, int transactions, int categories) {
+        Random random = new Random(transactions * 31L + categories);
+        String[] names = new String[categories];
+        for (int i = 0; i < categories; i++) {
+            names[i] = category(i);
+            w.addCategory(names[i]);
+        }
+        List<Transaction> batch = new ArrayList<>(BATCH);
+        for (int i = 0; i < transactions; i++) {
+            batch.add(Transaction.ofCents(random.nextInt(5) == 0 ? Transaction.Type.INCOME : Transaction.Type.EXPENSE,
+                    names[random.nextInt(categories)], 1 + random.nextInt(100_000),
+                    random.nextInt(5) == 0 ? "note " + random.nextInt(1000) : "", START.plusMinutes(i)));
+            if (batch.size() == BATCH) {
+                w.addTransactions(batch);
+                batch.clear();
+            }
+        }
+        w.addTransactions(batch);
+    }
+}
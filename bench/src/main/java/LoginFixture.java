@@ -0,0 +1,47 @@
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+
+// AuthService с одним пользователем, хеш пароля заданной стоимости, для bench.LoginBenchmark
+public class LoginFixture implements bench.LoginOps {
+    private AuthService auth;
+
+    @Override
+    public void setup(int iterations, int threads) {
+        auth = new AuthService(new HashMap<>());
+        auth.setPasswordCost(iterations);
+        auth.setLoginPool(threads, 1 << 16);
+        auth.register("alice", "secret");
+    }
+
+    // вход в вызывающем потоке, сессия сразу закрывается, чтобы их число не росло
+    @Override
+    public boolean login() {
+        Session s = auth.openSession("alice", "secret");
+        auth.closeSession(s);
+        return s != null;
+    }
+
+    // count входов сразу через пул, ждем все; возвращает число успешных
+    @Override
+    public int loginBurst(int count) {
+        @SuppressWarnings("unchecked")
+        CompletableFuture<Session>[] logins = new CompletableFuture[count];
+        for (int i = 0; i < count; i++) {
+            logins[i] = auth.openSessionAsync("alice", "secret");
+        }
+        int opened = 0;
+        for (CompletableFuture<Session> f : logins) {
+            Session s = f.join();
+            if (s != null) {
+                auth.closeSession(s);
+                opened++;
+            }
+        }
+        return opened;
+    }
+
+    @Override
+    public void cleanup() {
+        auth.setLoginPool(1, 1); // старый пул останавливается
+    }
+}
@@ -0,0 +1,53 @@
+import java.time.LocalDateTime;
+import java.util.Random;
+
+// сводка за месяц по индексу времени против полного прохода по истории, мкс на запрос
+// запуск: java -cp bench/target/benchmarks.jar RangeSummaryBenchmark [количество транзакций]
+public class RangeSummaryBenchmark {
+    private static final int QUERIES = 2_000;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Random random = new Random(1);
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        Wallet w = new Wallet();
+        long minute = 0;
+        for (int i = 0; i < n; i++) {
+            minute += random.nextInt(10); // около 8 лет истории на миллион транзакций
+            w.addTransaction(new Transaction(random.nextInt(5) == 0 ? Transaction.Type.INCOME : Transaction.Type.EXPENSE,
+                    "category" + random.nextInt(50), random.nextInt(100_000) / 100.0, "", start.plusMinutes(minute)));
+        }
+        long months = minute / (60 * 24 * 30);
+
+        double sink = 0;
+        long indexed = Long.MAX_VALUE;
+        long scan = Long.MAX_VALUE;
+        for (int run = 0; run < 3; run++) {
+            long t0 = System.nanoTime();
+            for (int q = 0; q < QUERIES; q++) {
+                LocalDateTime from = start.plusMonths(q % months);
+                sink += w.totalsByCategoryCents(Transaction.Type.EXPENSE, from, from.plusMonths(1)).size();
+            }
+            long t1 = System.nanoTime();
+            for (int q = 0; q < QUERIES / 100; q++) {
+                LocalDateTime from = start.plusMonths(q % months);
+                LocalDateTime to = from.plusMonths(1);
+                long[] sum = new long[1];
+                w.forEachTransaction((type, category, cents, created, note) -> {
+                    LocalDateTime t = Transaction.fromMillis(created);
+                    if (type == Transaction.Type.EXPENSE && !t.isBefore(from) && t.isBefore(to)) {
+                        sum[0] += cents;
+                    }
+                });
+                sink += sum[0];
+            }
+            long t2 = System.nanoTime();
+            indexed = Math.min(indexed, (t1 - t0) / QUERIES);
+            scan = Math.min(scan, (t2 - t1) / (QUERIES / 100));
+        }
+        System.out.printf("транзакций: %d, месяцев: %d, в месяце около %d (%s)%n", n, months, n / Math.max(months, 1), sink > 0 ? "ok" : "-");
+        System.out.printf("%-22s %12s%n", "", "мкс/запрос");
+        System.out.printf("%-22s %12.1f%n", "индекс по времени", indexed / 1000.0);
+        System.out.printf("%-22s %12.1f%n", "полный проход", scan / 1000.0);
+    }
+}
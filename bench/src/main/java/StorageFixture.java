@@ -0,0 +1,57 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+// хранилище во временном каталоге с одним пользователем для bench.StorageServiceBenchmark
+public class StorageFixture implements bench.StorageOps {
+    private File dir;
+    private String file;
+    private StorageService storage;
+    private Map<String, User> users;
+
+    @Override
+    public void history(int transactions, int categories) throws IOException {
+        dir = Files.createTempDirectory("bench-storage").toFile();
+        file = new File(dir, "data.ser").getPath();
+        users = new HashMap<>();
+        User user = new User("alice", "secret");
+        Histories.fill(user.getWallet(), transactions, categories);
+        users.put("alice", user);
+        storage = new StorageService(file);
+        storage.saveAll(users);
+    }
+
+    // saveAll пишет только измененные кошельки
+    @Override
+    public void touch() {
+        users.get("alice").getWallet().addCategory("changed");
+    }
+
+    @Override
+    public void saveAll() {
+        storage.saveAll(users);
+    }
+
+    // как при запуске приложения: новое хранилище читает каталог, кошелек загружается при первом обращении
+    @Override
+    public Wallet loadAll() {
+        return new StorageService(file).loadAll().get("alice").getWallet();
+    }
+
+    @Override
+    public void cleanup() {
+        deleteRecursively(dir);
+    }
+
+    private static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                deleteRecursively(c);
+            }
+        }
+        f.delete();
+    }
+}
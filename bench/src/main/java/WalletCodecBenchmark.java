@@ -0,0 +1,65 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+// сравнение формата WalletCodec с ObjectOutputStream: время записи/чтения и размер файла
+// запуск: java -cp bench/target/benchmarks.jar WalletCodecBenchmark [количество транзакций]
+public class WalletCodecBenchmark {
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Wallet w = generate(n);
+        File codecFile = File.createTempFile("bench", ".wallet");
+        File serFile = File.createTempFile("bench", ".ser");
+        try {
+            long codecSave = Long.MAX_VALUE, codecLoad = Long.MAX_VALUE;
+            long serSave = Long.MAX_VALUE, serLoad = Long.MAX_VALUE;
+            for (int i = 0; i < RUNS; i++) {
+                long t0 = System.nanoTime();
+                try (FileChannel ch = FileChannel.open(codecFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    WalletCodec.write(ch, w, 0);
+                }
+                long t1 = System.nanoTime();
+                try (FileChannel ch = FileChannel.open(codecFile.toPath(), StandardOpenOption.READ)) {
+                    WalletCodec.read(ch);
+                }
+                long t2 = System.nanoTime();
+                try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(serFile)))) {
+                    oos.writeObject(w);
+                }
+                long t3 = System.nanoTime();
+                try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(serFile)))) {
+                    ois.readObject();
+                }
+                long t4 = System.nanoTime();
+                codecSave = Math.min(codecSave, t1 - t0);
+                codecLoad = Math.min(codecLoad, t2 - t1);
+                serSave = Math.min(serSave, t3 - t2);
+                serLoad = Math.min(serLoad, t4 - t3);
+            }
+            System.out.printf("транзакций: %d, лучший из %d запусков%n", n, RUNS);
+            System.out.printf("%-18s %10s %10s %12s%n", "формат", "запись мс", "чтение мс", "размер байт");
+            System.out.printf("%-18s %10d %10d %12d%n", "WalletCodec", codecSave / 1_000_000, codecLoad / 1_000_000, codecFile.length());
+            System.out.printf("%-18s %10d %10d %12d%n", "ObjectOutputStream", serSave / 1_000_000, serLoad / 1_000_000, serFile.length());
+        } finally {
+            codecFile.delete();
+            serFile.delete();
+        }
+    }
+
+    static Wallet generate(int n) {
+        Random random = new Random(1);
+        Wallet w = new Wallet();
+        LocalDateTime time = LocalDateTime.of(2020, 1, 1, 0, 0);
+        for (int i = 0; i < n; i++) {
+            Transaction.Type type = random.nextInt(5) == 0 ? Transaction.Type.INCOME : Transaction.Type.EXPENSE;
+            time = time.plusSeconds(random.nextInt(3600));
+            w.addTransaction(new Transaction(type, "category" + random.nextInt(50), random.nextInt(1_000_000) / 100.0,
+                    random.nextInt(4) == 0 ? "note " + i : "", time));
+        }
+        return w;
+    }
+}
@@ -0,0 +1,59 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// кошелек с историей для bench.WalletBenchmark
+public class WalletFixture implements bench.WalletOps {
+    private static final String ADDED = "bench-added";
+    private static final String VICTIM = "bench-victim";
+
+    private Wallet wallet;
+    private Transaction tx;
+    private int victimRows;
+    private long step;
+    private boolean renamed;
+
+    @Override
+    public void history(int transactions, int categories) {
+        wallet = Histories.wallet(transactions, categories);
+        tx = Transaction.ofCents(Transaction.Type.EXPENSE, ADDED, 100, "", Histories.START.plusMinutes(transactions));
+        victimRows = Math.max(1, transactions / categories);
+        step = categories;
+    }
+
+    // история возвращается к исходному виду; у удаляемой категории столько же строк, сколько у обычной,
+    // и время их разбросано по всей истории
+    @Override
+    public void reset() {
+        wallet.forceDeleteCategory(ADDED);
+        wallet.forceDeleteCategory(VICTIM);
+        wallet.compact();
+        List<Transaction> victim = new ArrayList<>(victimRows);
+        for (int i = 0; i < victimRows; i++) {
+            victim.add(Transaction.ofCents(Transaction.Type.EXPENSE, VICTIM, 100, "", Histories.START.plusMinutes(i * step)));
+        }
+        wallet.addTransactions(victim);
+    }
+
+    @Override
+    public void addTransaction() {
+        wallet.addTransaction(tx);
+    }
+
+    @Override
+    public Map<String, Double> totalsByCategory() {
+        return wallet.totalsByCategory(Transaction.Type.EXPENSE);
+    }
+
+    @Override
+    public boolean renameCategory() {
+        renamed = !renamed;
+        String original = Histories.category(0);
+        return renamed ? wallet.renameCategory(original, "renamed") : wallet.renameCategory("renamed", original);
+    }
+
+    @Override
+    public int forceDeleteCategory() {
+        return wallet.forceDeleteCategory(VICTIM);
+    }
+}
@@ -0,0 +1,43 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// сводка по всем пользователям (Analytics) в пуле fork-join из threads потоков: по отношению времени
+// при 1 и N потоках видно, насколько подсчет масштабируется по ядрам. wallets: loaded - кошельки в памяти,
+// cold - не загружены, суммы читаются из файлов кошельков
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AnalyticsBenchmark {
+    @Param({"100000"})
+    public int users;
+    @Param({"20"})
+    public int transactions;
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+    @Param({"loaded", "cold"})
+    public String wallets;
+
+    private AnalyticsOps ops;
+
+    @Setup(Level.Trial)
+    public void users() throws IOException {
+        ops = Fixtures.create("AnalyticsFixture", AnalyticsOps.class);
+        ops.setup(users, transactions, threads, wallets.equals("cold"));
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() {
+        ops.cleanup();
+    }
+
+    @Benchmark
+    public long analytics() {
+        return ops.analytics();
+    }
+}
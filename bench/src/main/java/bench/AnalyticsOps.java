@@ -0,0 +1,10 @@
+package bench;
+
+import java.io.IOException;
+
+// сводка по всем пользователям для AnalyticsBenchmark, реализация - AnalyticsFixture
+public interface AnalyticsOps {
+    void setup(int users, int transactions, int threads, boolean cold) throws IOException;
+    long analytics();
+    void cleanup();
+}
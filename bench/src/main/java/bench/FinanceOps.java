@@ -0,0 +1,14 @@
+package bench;
+
+import java.io.IOException;
+
+// команды FinanceService для FinanceServiceBenchmark, реализация - FinanceFixture
+public interface FinanceOps {
+    void history(int transactions, int categories);
+    void reset();
+    String addExpense();
+    String transfer();
+    String summary();
+    String listCategories();
+    String exportCsv() throws IOException;
+}
@@ -0,0 +1,65 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// команды FinanceService так, как их вызывает консоль: через сессию пользователя с историей заданного размера.
+// добавление и перевод дописывают транзакции, поэтому меряются пачками по WalletOps.BATCH вызовов,
+// а перед каждым замером добавленное удаляется
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FinanceServiceBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    public int transactions;
+    @Param({"10", "1000", "10000"})
+    public int categories;
+
+    private FinanceOps ops;
+
+    @Setup(Level.Trial)
+    public void history() {
+        ops = Fixtures.create("FinanceFixture", FinanceOps.class);
+        ops.history(transactions, categories);
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        ops.reset();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = WalletOps.BATCH)
+    @Measurement(iterations = 20, batchSize = WalletOps.BATCH)
+    public String addExpense() {
+        return ops.addExpense();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = WalletOps.BATCH)
+    @Measurement(iterations = 20, batchSize = WalletOps.BATCH)
+    public String transfer() {
+        return ops.transfer();
+    }
+
+    @Benchmark
+    public String summary() {
+        return ops.summary();
+    }
+
+    @Benchmark
+    public String listCategories() {
+        return ops.listCategories();
+    }
+
+    @Benchmark
+    public String exportCsv() throws IOException {
+        return ops.exportCsv();
+    }
+}
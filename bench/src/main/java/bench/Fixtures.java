@@ -0,0 +1,18 @@
+package bench;
+
+// классы приложения лежат в пакете по умолчанию: из пакета bench на них нельзя сослаться, а JMH не принимает
+// бенчмарки в пакете по умолчанию. Поэтому работу с приложением делают fixture-классы в пакете по умолчанию
+// (WalletFixture и др.), а бенчмарки вызывают их через интерфейсы этого пакета. Вызов мономорфный,
+// JIT его встраивает; рефлексия - только один раз при создании
+final class Fixtures {
+    private Fixtures() {
+    }
+
+    static <T> T create(String className, Class<T> type) {
+        try {
+            return type.cast(Class.forName(className).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("нет класса " + className, e);
+        }
+    }
+}
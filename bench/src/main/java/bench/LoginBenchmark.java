@@ -0,0 +1,46 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// пропускная способность входа при разной стоимости хеша (итерации PBKDF2): login - одиночный вход в потоке
+// бенчмарка, loginBurst - пачка из BURST входов через пул AuthService (потоков - loginThreads), результат в
+// операциях на вход, т.е. сколько входов в секунду выдерживает пул
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoginBenchmark {
+    private static final int BURST = 64;
+
+    @Param({"10000", "100000", "600000"})
+    public int iterations;
+    @Param({"1", "4"})
+    public int loginThreads;
+
+    private LoginOps ops;
+
+    @Setup(Level.Trial)
+    public void user() {
+        ops = Fixtures.create("LoginFixture", LoginOps.class);
+        ops.setup(iterations, loginThreads);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() {
+        ops.cleanup();
+    }
+
+    @Benchmark
+    public boolean login() {
+        return ops.login();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int loginBurst() {
+        return ops.loginBurst(BURST);
+    }
+}
@@ -0,0 +1,9 @@
+package bench;
+
+// входы для LoginBenchmark, реализация - LoginFixture
+public interface LoginOps {
+    void setup(int iterations, int threads);
+    boolean login();
+    int loginBurst(int count);
+    void cleanup();
+}
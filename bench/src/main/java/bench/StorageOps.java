@@ -0,0 +1,12 @@
+package bench;
+
+import java.io.IOException;
+
+// сохранение и загрузка для StorageServiceBenchmark, реализация - StorageFixture
+public interface StorageOps {
+    void history(int transactions, int categories) throws IOException;
+    void touch();
+    void saveAll();
+    Object loadAll();
+    void cleanup();
+}
@@ -0,0 +1,48 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// сохранение и загрузка хранилища с одним пользователем, у которого история заданного размера;
+// каждый вызов - целая запись или чтение файлов, поэтому одиночные замеры
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StorageServiceBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    public int transactions;
+    @Param({"10", "1000", "10000"})
+    public int categories;
+
+    private StorageOps ops;
+
+    @Setup(Level.Trial)
+    public void history() throws IOException {
+        ops = Fixtures.create("StorageFixture", StorageOps.class);
+        ops.history(transactions, categories);
+    }
+
+    @Setup(Level.Iteration)
+    public void touch() {
+        ops.touch();
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() {
+        ops.cleanup();
+    }
+
+    @Benchmark
+    public void saveAll() {
+        ops.saveAll();
+    }
+
+    @Benchmark
+    public Object loadAll() {
+        return ops.loadAll();
+    }
+}
@@ -0,0 +1,59 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// операции кошелька на истории заданного размера.
+// добавление и удаление меняют историю, поэтому меряются одиночными замерами (SingleShotTime):
+// добавление - пачкой по BATCH вызовов, удаление - одной категории, которую reset() каждый раз создает заново
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class WalletBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    public int transactions;
+    @Param({"10", "1000", "10000"})
+    public int categories;
+
+    private WalletOps ops;
+
+    @Setup(Level.Trial)
+    public void history() {
+        ops = Fixtures.create("WalletFixture", WalletOps.class);
+        ops.history(transactions, categories);
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        ops.reset();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = WalletOps.BATCH)
+    @Measurement(iterations = 20, batchSize = WalletOps.BATCH)
+    public void addTransaction() {
+        ops.addTransaction();
+    }
+
+    @Benchmark
+    public Object totalsByCategory() {
+        return ops.totalsByCategory();
+    }
+
+    @Benchmark
+    public boolean renameCategory() {
+        return ops.renameCategory();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public int forceDeleteCategory() {
+        return ops.forceDeleteCategory();
+    }
+}
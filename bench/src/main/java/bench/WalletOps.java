@@ -0,0 +1,13 @@
+package bench;
+
+// операции кошелька для WalletBenchmark, реализация - WalletFixture
+public interface WalletOps {
+    int BATCH = 10_000; // вызовов в одном замере для операций, которые дописывают историю
+
+    void history(int transactions, int categories);
+    void reset();
+    void addTransaction();
+    Object totalsByCategory();
+    boolean renameCategory();
+    int forceDeleteCategory();
+}
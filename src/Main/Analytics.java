@@ -0,0 +1,191 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// сводка по всем пользователям: доходы и расходы, суммы по категориям, превышенные бюджеты.
+// список пользователей делится пополам задачами fork-join, каждая часть считает свои частичные суммы,
+// части складываются при возврате. Загруженный кошелек уже держит суммы по категориям - O(категорий) на пользователя.
+// незагруженный читается из файла (User.scanView) без загрузки в память: суммы по категориям записаны в блоке META,
+// блоки с транзакциями только читаются для проверки контрольных сумм и не распаковываются - чтение O(размера файла),
+// подсчет O(категорий). Файл, записанный до появления сумм в META, распаковывается целиком до его пересохранения.
+// каждый кошелек читается в согласованном состоянии, вся сводка - нет: изменения во время подсчета
+// попадают для одних пользователей и не попадают для других
+public final class Analytics {
+    private static final int MAX_LEAF = 128; // больше пользователей в одной задаче не бывает
+
+    public static final class OverBudget {
+        private final String login;
+        private final String category;
+        private final long budgetCents;
+        private final long spentCents;
+
+        OverBudget(String login, String category, long budgetCents, long spentCents) {
+            this.login = login;
+            this.category = category;
+            this.budgetCents = budgetCents;
+            this.spentCents = spentCents;
+        }
+
+        public String getLogin() {
+            return login;
+        }
+        public String getCategory() {
+            return category;
+        }
+        public long getBudgetCents() {
+            return budgetCents;
+        }
+        public long getSpentCents() {
+            return spentCents;
+        }
+    }
+
+    private int users;
+    private long incomeCents;
+    private long expenseCents;
+    private CentsMap incomeByCategory = new CentsMap();
+    private CentsMap expenseByCategory = new CentsMap();
+    private List<OverBudget> overBudget = new ArrayList<>();
+
+    private Analytics() {
+    }
+
+    public static Analytics of(Collection<User> users) {
+        return of(users, ForkJoinPool.commonPool());
+    }
+
+    public static Analytics of(Collection<User> users, ForkJoinPool pool) {
+        User[] all = users.toArray(new User[0]);
+        // частей хватает, чтобы занять все потоки пула, даже если пользователей немного
+        int leaf = Math.max(1, Math.min(MAX_LEAF, all.length / (pool.getParallelism() * 4)));
+        Analytics res = pool.invoke(new Part(all, 0, all.length, leaf));
+        res.overBudget.sort(Comparator.comparingLong((OverBudget o) -> o.budgetCents - o.spentCents)
+                .thenComparing(OverBudget::getLogin).thenComparing(OverBudget::getCategory));
+        return res;
+    }
+
+    private static final class Part extends RecursiveTask<Analytics> {
+        private static final long serialVersionUID = 1L;
+        private final User[] users;
+        private final int from;
+        private final int to;
+        private final int leaf;
+
+        Part(User[] users, int from, int to, int leaf) {
+            this.users = users;
+            this.from = from;
+            this.to = to;
+            this.leaf = leaf;
+        }
+
+        @Override
+        protected Analytics compute() {
+            if (to - from <= leaf) {
+                Analytics res = new Analytics();
+                for (int i = from; i < to; i++) {
+                    res.add(users[i]);
+                }
+                return res;
+            }
+            int mid = (from + to) >>> 1;
+            Part left = new Part(users, from, mid, leaf);
+            left.fork();
+            Analytics right = new Part(users, mid, to, leaf).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    private void add(User u) {
+        TransactionSource w = u.scanView();
+        if (w instanceof Wallet) {
+            ((Wallet) w).read(() -> {
+                add(u.getLogin(), w);
+                return null;
+            });
+        } else {
+            add(u.getLogin(), w);
+        }
+    }
+
+    private void add(String login, TransactionSource w) {
+        users++;
+        incomeCents += w.totalCents(Transaction.Type.INCOME);
+        expenseCents += w.totalCents(Transaction.Type.EXPENSE);
+        addAll(incomeByCategory, w.totalsByCategoryCents(Transaction.Type.INCOME));
+        addAll(expenseByCategory, w.totalsByCategoryCents(Transaction.Type.EXPENSE));
+        w.getBudgetsCents().forEach((category, budget) -> {
+            long spent = w.spentCentsInCategory(category);
+            if (spent > budget) {
+                overBudget.add(new OverBudget(login, category, budget, spent));
+            }
+        });
+    }
+
+    // меньшие суммы по категориям переливаются в большие
+    private Analytics merge(Analytics other) {
+        users += other.users;
+        incomeCents += other.incomeCents;
+        expenseCents += other.expenseCents;
+        incomeByCategory = mergeMaps(incomeByCategory, other.incomeByCategory);
+        expenseByCategory = mergeMaps(expenseByCategory, other.expenseByCategory);
+        overBudget.addAll(other.overBudget);
+        return this;
+    }
+
+    private static CentsMap mergeMaps(CentsMap a, CentsMap b) {
+        if (a.size() < b.size()) {
+            CentsMap t = a;
+            a = b;
+            b = t;
+        }
+        addAll(a, b);
+        return a;
+    }
+
+    private static void addAll(CentsMap to, CentsMap from) {
+        for (int i = 0; i < from.slots(); i++) {
+            String key = from.keyAt(i);
+            if (key != null) {
+                to.add(key, from.valueAt(i));
+            }
+        }
+    }
+
+    public int getUsers() {
+        return users;
+    }
+    public long getIncomeCents() {
+        return incomeCents;
+    }
+    public long getExpenseCents() {
+        return expenseCents;
+    }
+    public CentsMap getIncomeByCategory() {
+        return incomeByCategory.copy();
+    }
+    public CentsMap getExpenseByCategory() {
+        return expenseByCategory.copy();
+    }
+    // по убыванию перерасхода
+    public List<OverBudget> getOverBudget() {
+        return Collections.unmodifiableList(overBudget);
+    }
+
+    // n категорий с наибольшей суммой (при равенстве - по имени)
+    public static List<String> top(CentsMap byCategory, int n) {
+        String[] keys = new String[byCategory.size()];
+        int k = 0;
+        for (int i = 0; i < byCategory.slots(); i++) {
+            if (byCategory.keyAt(i) != null) {
+                keys[k++] = byCategory.keyAt(i);
+            }
+        }
+        Arrays.sort(keys, Comparator.comparingLong((String key) -> -byCategory.get(key)).thenComparing(key -> key));
+        return Arrays.asList(keys).subList(0, Math.min(n, keys.length));
+    }
+}
@@ -1,41 +1,243 @@
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 
+// вход выдает сессию (токен -> пользователь), с которой работают методы FinanceService;
+// login/logout/getCurrentUser - одна сессия консоли поверх того же механизма.
+// проверка пароля (PasswordHasher) намеренно дорогая: openSession и login проверяют в вызывающем потоке,
+// асинхронные openSessionAsync/loginAsync - в небольшом пуле, чтобы поток входов не занял все ядра
+// и не задержал команды остальных сессий
 public class AuthService {
+    private static final SecureRandom RANDOM = new SecureRandom();
     private final Map<String, User> users;
-    private User current;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private volatile Session current;
+    private Journal journal; // если задан, регистрации пишутся в журнал
+    private volatile int passwordCost = PasswordHasher.DEFAULT_ITERATIONS;
+    private volatile String dummyHash; // проверяется для неизвестного логина, итераций - как у новых паролей
+    private volatile Set<String> admins = Set.of(); // логины с доступом к отчетам по всем пользователям
+    // пул проверки паролей: потоков - половина ядер, ожидающих входов - не больше maxPendingLogins
+    private ExecutorService verifiers;
+    private Semaphore pendingLogins;
     public AuthService(Map<String, User> users) {
         this.users = users;
     }
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    // число итераций PBKDF2 для новых паролей; хеши дешевле пересчитываются при следующем входе
+    public void setPasswordCost(int iterations) {
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("число итераций должно быть > 0");
+        }
+        this.passwordCost = iterations;
+    }
+    public int getPasswordCost() {
+        return passwordCost;
+    }
+
+    // размер пула асинхронных входов; вызывать до первого входа
+    public synchronized void setLoginPool(int threads, int maxPending) {
+        if (verifiers != null) {
+            verifiers.shutdown();
+        }
+        AtomicInteger n = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "login-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true); // без входов потоки не держим
+        verifiers = pool;
+        pendingLogins = new Semaphore(maxPending);
+    }
     public boolean register(String login, String password) {
         if(login == null || login.trim().isEmpty() || password == null || password.trim().isEmpty()) {
             return false;
         }
-        if(users.containsKey(login)) {
-            return false;
+        if (users.containsKey(login)) {
+            return false; // занятый логин отклоняем без дорогого PBKDF2; гонку двух регистраций решает putIfAbsent ниже
+        }
+        User u = User.restore(login, PasswordHasher.hash(password, passwordCost));
+        if (journal == null) {
+            return users.putIfAbsent(login, u) == null;
+        }
+        Lock lock = journal.mutationLock();
+        lock.lock();
+        try {
+            if (users.putIfAbsent(login, u) != null) {
+                return false;
+            }
+            try {
+                journal.logRegister(u);
+            } catch (RuntimeException e) {
+                users.remove(login, u); // без записи в журнале пользователь пропал бы после сбоя
+                throw e;
+            }
+            return true;
+        } finally {
+            lock.unlock();
         }
-        User u = new User(login, password);
-        users.put(login, u);
-        return true;
     }
-    public boolean login(String login, String password) {
+
+    // null, если логин или пароль неверны
+    public Session openSession(String login, String password) {
+        if (password == null) {
+            return null;
+        }
         User u = users.get(login);
-        if(u == null) {
-            return false;
+        if (u == null) {
+            // та же проверка PBKDF2, что и для существующего логина: по времени ответа не понять, есть ли такой логин
+            PasswordHasher.verify(password, dummyHash());
+            return null;
+        }
+        if (!u.checkPassword(password)) {
+            return null;
+        }
+        String hash = u.getPasswordHash();
+        int cost = passwordCost;
+        if (PasswordHasher.needsUpgrade(hash, cost)) {
+            upgradeHash(u, hash, PasswordHasher.hash(password, cost));
+        }
+        byte[] bytes = new byte[24];
+        RANDOM.nextBytes(bytes);
+        Session s = new Session(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes), u);
+        sessions.put(s.getToken(), s);
+        return s;
+    }
+    // строится заново, только когда поменялось число итераций
+    String dummyHash() {
+        String h = dummyHash;
+        int cost = passwordCost;
+        if (h == null || PasswordHasher.iterations(h) != cost) {
+            h = PasswordHasher.hash("", cost);
+            dummyHash = h;
+        }
+        return h;
+    }
+
+    // проверка в пуле входов; если ожидающих входов уже maxPending - сразу ошибка RejectedExecutionException
+    public CompletableFuture<Session> openSessionAsync(String login, String password) {
+        Semaphore pending;
+        ExecutorService pool;
+        synchronized (this) {
+            if (verifiers == null) {
+                setLoginPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 1024);
+            }
+            pending = pendingLogins;
+            pool = verifiers;
+        }
+        if (!pending.tryAcquire()) {
+            CompletableFuture<Session> busy = new CompletableFuture<>();
+            busy.completeExceptionally(new RejectedExecutionException("слишком много одновременных входов"));
+            return busy;
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return openSession(login, password);
+                } finally {
+                    pending.release();
+                }
+            }, pool);
+        } catch (RejectedExecutionException e) {
+            pending.release(); // пул заменили через setLoginPool
+            throw e;
         }
-        if(u.checkPassword(password)) {
-            current = u;
+    }
+
+    // вход консоли через пул: true - вошли, false - неверный логин или пароль
+    public CompletableFuture<Boolean> loginAsync(String login, String password) {
+        return openSessionAsync(login, password).thenApply(s -> {
+            if (s == null) {
+                return false;
+            }
+            closeSession(current);
+            current = s;
             return true;
+        });
+    }
+
+    // новый хеш ставится, только если хеш не поменяли параллельно (второй вход того же пользователя)
+    private void upgradeHash(User u, String old, String hash) {
+        Lock lock = journal != null ? journal.mutationLock() : null;
+        if (lock != null) {
+            lock.lock();
+        }
+        try {
+            synchronized (u) {
+                if (!u.getPasswordHash().equals(old)) {
+                    return;
+                }
+                if (journal != null) {
+                    journal.logPassword(u.getLogin(), hash);
+                }
+                u.setPasswordHash(hash);
+            }
+        } finally {
+            if (lock != null) {
+                lock.unlock();
+            }
         }
-        return false;
+    }
+
+    public Session getSession(String token) {
+        return token == null ? null : sessions.get(token);
+    }
+    public boolean isActive(Session session) {
+        return session != null && sessions.get(session.getToken()) == session;
+    }
+    public void closeSession(Session session) {
+        if (session != null) {
+            sessions.remove(session.getToken(), session);
+        }
+    }
+    public int activeSessions() {
+        return sessions.size();
+    }
+
+    public boolean login(String login, String password) {
+        Session s = openSession(login, password);
+        if (s == null) {
+            return false;
+        }
+        closeSession(current);
+        current = s;
+        return true;
     }
     public void logout() {
-        current = null; 
+        closeSession(current);
+        current = null;
     }
     public boolean isAuthenticated() {
-        return current != null; 
+        return isActive(current);
+    }
+    public Session getCurrentSession() {
+        return current;
     }
     public User getCurrentUser() {
-        return current; 
+        Session s = current;
+        return s == null ? null : s.getUser();
+    }
+    // администраторы видят сводные отчеты по всем пользователям (FinanceService.analytics)
+    public void setAdmins(Collection<String> logins) {
+        admins = Set.copyOf(logins);
+    }
+    public boolean isAdmin(Session session) {
+        return isActive(session) && admins.contains(session.getUser().getLogin());
     }
     public Map<String, User> getUsersMap() {
         return users; 
@@ -0,0 +1,312 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// файл из независимых блоков: каждый блок сжат Deflate и защищен CRC32C, поэтому поврежденный участок
+// теряет только свои блоки. Кадр блока:
+//   magic, длина до сжатия, длина сжатых данных, CRC32C сжатых данных, CRC32C первых 16 байт кадра; сжатые данные
+// у заголовка кадра своя контрольная сумма: испорченная длина не заставляет читать мусор, а после повреждения
+// чтение ищет следующий magic с проверенным заголовком простым проходом по байтам
+final class BlockFile {
+    static final int BLOCK_MAGIC = 0x46584B42;   // "FXKB"
+    static final int FRAME_SIZE = 4 + 4 + 4 + 4 + 4;
+    static final int BLOCK_SIZE = 1 << 16;        // примерный размер блока до сжатия; одна большая запись может его превысить
+    private static final int MAX_LENGTH = 1 << 30;
+
+    private BlockFile() {
+    }
+
+    // длина сжатых данных кадра в позиции p или -1, если заголовка кадра там нет; нужно FRAME_SIZE байт
+    static int packedLength(ByteBuffer b, int p, CRC32C crc) {
+        if (b.getInt(p) != BLOCK_MAGIC) {
+            return -1;
+        }
+        crc.reset();
+        crc.update(b.duplicate().limit(p + 16).position(p));
+        if ((int) crc.getValue() != b.getInt(p + 16)) {
+            return -1;
+        }
+        int raw = b.getInt(p + 4);
+        int packed = b.getInt(p + 8);
+        return raw < 0 || raw > MAX_LENGTH || packed < 0 || packed > MAX_LENGTH ? -1 : packed;
+    }
+
+    static int rawLength(ByteBuffer b, int p) {
+        return b.getInt(p + 4);
+    }
+
+    // сжатые данные кадра в позиции p совпадают со своей контрольной суммой
+    static boolean checksum(ByteBuffer b, int p, int packed, CRC32C crc) {
+        crc.reset();
+        crc.update(packedData(b, p, packed));
+        return (int) crc.getValue() == b.getInt(p + 12);
+    }
+
+    // сжатые данные целы и распаковываются ровно в rawLength байт; результат в dst
+    static boolean unpack(ByteBuffer b, int p, int packed, byte[] dst, CRC32C crc, Inflater inflater) {
+        if (!checksum(b, p, packed, crc)) {
+            return false;
+        }
+        int raw = rawLength(b, p);
+        inflater.reset();
+        inflater.setInput(packedData(b, p, packed));
+        try {
+            int n = 0;
+            while (n < raw && !inflater.finished()) {
+                int k = inflater.inflate(dst, n, raw - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return false;
+                }
+                n += k;
+            }
+            return n == raw && (inflater.finished() || inflater.inflate(new byte[1]) == 0 && inflater.finished());
+        } catch (DataFormatException e) {
+            return false;
+        }
+    }
+
+    // первый байт блока без распаковки остального (контрольную сумму проверяет вызывающий); -1 - не распаковался
+    static int firstByte(ByteBuffer b, int p, int packed, Inflater inflater) {
+        inflater.reset();
+        inflater.setInput(packedData(b, p, packed));
+        byte[] one = new byte[1];
+        try {
+            return inflater.inflate(one) == 1 ? one[0] : -1;
+        } catch (DataFormatException e) {
+            return -1;
+        }
+    }
+
+    private static ByteBuffer packedData(ByteBuffer b, int p, int packed) {
+        return b.duplicate().limit(p + FRAME_SIZE + packed).position(p + FRAME_SIZE);
+    }
+
+    // запись блоков в канал
+    static final class Writer {
+        private final WritableByteChannel ch;
+        private final Deflater deflater = new Deflater();
+        private final CRC32C crc = new CRC32C();
+        private final ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+        private byte[] packed = new byte[BLOCK_SIZE];
+        private long written;
+
+        Writer(WritableByteChannel ch) {
+            this.ch = ch;
+        }
+
+        void block(Bytes raw) throws IOException {
+            deflater.reset();
+            deflater.setInput(raw.array, 0, raw.size);
+            deflater.finish();
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == packed.length) {
+                    packed = Arrays.copyOf(packed, packed.length * 2);
+                }
+                n += deflater.deflate(packed, n, packed.length - n);
+            }
+            crc.reset();
+            crc.update(packed, 0, n);
+            frame.clear();
+            frame.putInt(BLOCK_MAGIC).putInt(raw.size).putInt(n).putInt((int) crc.getValue());
+            crc.reset();
+            crc.update(frame.array(), 0, 16);
+            frame.putInt((int) crc.getValue());
+            frame.flip();
+            writeFully(frame);
+            writeFully(ByteBuffer.wrap(packed, 0, n));
+        }
+
+        long written() {
+            return written;
+        }
+
+        void close() {
+            deflater.end();
+        }
+
+        private void writeFully(ByteBuffer buf) throws IOException {
+            written += buf.remaining();
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        }
+    }
+
+    // последовательное чтение блоков; поврежденные участки пропускаются и описываются в problems
+    static final class Reader {
+        private final ReadableByteChannel ch;
+        private final CRC32C crc = new CRC32C();
+        private final Inflater inflater = new Inflater();
+        private final List<String> problems = new ArrayList<>();
+        private ByteBuffer buf = ByteBuffer.allocate(2 * BLOCK_SIZE);
+        private byte[] raw = new byte[BLOCK_SIZE];
+        private long offset;            // смещение buf.position() в файле
+        private long damagedFrom = -1;  // начало текущего поврежденного участка
+        private boolean eof;
+
+        // offset - смещение начала блоков в файле, для сообщений
+        Reader(ReadableByteChannel ch, long offset) {
+            this.ch = ch;
+            this.offset = offset;
+            buf.flip();
+        }
+
+        // следующий уцелевший блок (действителен до следующего вызова) или null в конце файла
+        ByteBuffer next() throws IOException {
+            while (fill(FRAME_SIZE)) {
+                int packed = packedLength(buf, buf.position(), crc);
+                if (packed >= 0 && fill(FRAME_SIZE + packed)) {
+                    int p = buf.position();
+                    int rawLength = rawLength(buf, p);
+                    if (raw.length < rawLength) {
+                        raw = new byte[rawLength];
+                    }
+                    if (unpack(buf, p, packed, raw, crc, inflater)) {
+                        endDamage();
+                        skip(FRAME_SIZE + packed);
+                        return ByteBuffer.wrap(raw, 0, rawLength);
+                    }
+                }
+                if (damagedFrom < 0) {
+                    damagedFrom = offset;
+                }
+                skip(1);
+            }
+            if (buf.hasRemaining() && damagedFrom < 0) {
+                damagedFrom = offset; // кусок кадра в конце: файл оборван
+            }
+            skip(buf.remaining());
+            endDamage();
+            inflater.end();
+            return null;
+        }
+
+        List<String> problems() {
+            return problems;
+        }
+
+        private void endDamage() {
+            if (damagedFrom >= 0) {
+                problems.add(String.format("пропущен поврежденный участок: байты %d-%d", damagedFrom, offset - 1));
+                damagedFrom = -1;
+            }
+        }
+
+        private void skip(int n) {
+            buf.position(buf.position() + n);
+            offset += n;
+        }
+
+        // в буфере не меньше n байт; false - файл кончился раньше
+        private boolean fill(int n) throws IOException {
+            if (buf.remaining() >= n) {
+                return true;
+            }
+            if (eof) {
+                return false;
+            }
+            if (buf.capacity() < n) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(n, buf.capacity() * 2));
+                bigger.put(buf);
+                buf = bigger;
+            } else {
+                buf.compact();
+            }
+            while (buf.position() < n) {
+                if (ch.read(buf) < 0) {
+                    eof = true;
+                    break;
+                }
+            }
+            buf.flip();
+            return buf.remaining() >= n;
+        }
+    }
+
+    // содержимое блока до сжатия
+    static final class Bytes {
+        private byte[] array = new byte[BLOCK_SIZE + 1024];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        private void ensure(int n) {
+            if (array.length - size < n) {
+                array = Arrays.copyOf(array, Math.max(array.length * 2, size + n));
+            }
+        }
+
+        void put(int b) {
+            ensure(1);
+            array[size++] = (byte) b;
+        }
+
+        void putVarInt(int v) {
+            putVarLong(v & 0xFFFFFFFFL);
+        }
+
+        void putVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                array[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            array[size++] = (byte) v;
+        }
+
+        void putString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putVarInt(bytes.length);
+            putBytes(bytes, 0, bytes.length);
+        }
+
+        void putBytes(Bytes other) {
+            putBytes(other.array, 0, other.size);
+        }
+
+        private void putBytes(byte[] bytes, int off, int len) {
+            ensure(len);
+            System.arraycopy(bytes, off, array, size, len);
+            size += len;
+        }
+    }
+
+    static int getVarInt(ByteBuffer b) {
+        return (int) getVarLong(b);
+    }
+
+    static long getVarLong(ByteBuffer b) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte x = b.get();
+            v |= (long) (x & 0x7F) << shift;
+            if (x >= 0) {
+                return v;
+            }
+        }
+        throw new IllegalStateException("поврежденное число");
+    }
+
+    static String getString(ByteBuffer b) {
+        int len = getVarInt(b);
+        String s = new String(b.array(), b.arrayOffset() + b.position(), len, StandardCharsets.UTF_8);
+        b.position(b.position() + len);
+        return s;
+    }
+}
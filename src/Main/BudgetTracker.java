@@ -0,0 +1,134 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// бюджеты кошелька вместе с потраченным по каждому: потраченное обновляется при каждом расходе, поэтому остаток
+// и процент использования читаются за O(1), без прохода по словарю категорий и транзакциям.
+// расход засчитывается всем бюджетам с тем же именем без учета регистра (как в Wallet.totalCentsByCategory).
+// пороги оповещений (проценты) задает вызывающий; для каждого бюджета помнится состояние, о котором уже
+// оповестили, поэтому пересечение порога сообщается ровно один раз - до тех пор, пока использование снова
+// не опустится ниже порога (бюджет увеличили) и не пересечет его заново
+// не потокобезопасен: Wallet обращается к нему под своей блокировкой
+final class BudgetTracker {
+
+    // вызывается для пройденного порога; за одну проверку - только для самого высокого из пройденных
+    interface Listener {
+        void crossed(String category, int threshold, long budgetCents, long spentCents);
+    }
+
+    private static final class Budget {
+        long limit;
+        long spent;
+        long notifiedSpent;      // состояние на момент последней проверки
+        long notifiedLimit = -1; // -1 - проверок еще не было, ни об одном пороге не сообщали
+        Budget next;             // другой бюджет с тем же именем без учета регистра
+    }
+
+    private final Map<String, Budget> byName = new HashMap<>();
+    // имя без учета регистра -> цепочка бюджетов; поиск сравнивает строки без учета регистра
+    // (как String.equalsIgnoreCase) и не строит ключей, поэтому на расход в новой категории ничего не запоминается
+    private final Map<String, Budget> byKey = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    boolean has(String category) {
+        return byName.containsKey(category);
+    }
+
+    // потрачено в категории с бюджетом (has)
+    long spent(String category) {
+        return byName.get(category).spent;
+    }
+
+    // новый бюджет или новый лимит; spent - уже потраченное в категории (считает Wallet)
+    void put(String category, long limit, long spent) {
+        Budget b = byName.get(category);
+        if (b == null) {
+            b = new Budget();
+            byName.put(category, b);
+            b.next = byKey.get(category);
+            byKey.put(category, b);
+        }
+        b.limit = limit;
+        b.spent = spent;
+    }
+
+    void remove(String category) {
+        Budget b = byName.remove(category);
+        if (b == null) {
+            return;
+        }
+        Budget head = byKey.get(category);
+        if (head == b) {
+            if (b.next == null) {
+                byKey.remove(category);
+            } else {
+                byKey.put(category, b.next);
+            }
+            return;
+        }
+        for (Budget p = head; p != null; p = p.next) {
+            if (p.next == b) {
+                p.next = b.next;
+                return;
+            }
+        }
+    }
+
+    // бюджет переходит к новому имени вместе с тем, о чем уже оповестили
+    void rename(String from, String to, long spent) {
+        Budget old = byName.get(from);
+        if (old == null) {
+            return;
+        }
+        remove(from);
+        put(to, old.limit, spent);
+        Budget b = byName.get(to);
+        b.notifiedSpent = old.notifiedSpent;
+        b.notifiedLimit = old.notifiedLimit;
+    }
+
+    // расход в категории: O(log числа бюджетов), без выделения памяти
+    void onExpense(String category, long cents) {
+        if (byName.isEmpty()) {
+            return;
+        }
+        for (Budget b = byKey.get(category); b != null; b = b.next) {
+            b.spent += cents;
+        }
+    }
+
+    // проверка одного бюджета после изменения: сообщает самый высокий порог, пройденный с прошлой проверки
+    void check(String category, int[] thresholds, Listener listener) {
+        Budget b = byName.get(category);
+        if (b == null) {
+            return;
+        }
+        int now = highestCrossed(thresholds, b.spent, b.limit);
+        int before = b.notifiedLimit < 0 ? 0 : highestCrossed(thresholds, b.notifiedSpent, b.notifiedLimit);
+        b.notifiedSpent = b.spent;
+        b.notifiedLimit = b.limit;
+        if (now > before) {
+            listener.crossed(category, now, b.limit, b.spent);
+        }
+    }
+
+    // текущее состояние считается уже объявленным: после загрузки и повтора журнала оповещения не повторяются
+    void settle() {
+        for (Budget b : byName.values()) {
+            b.notifiedSpent = b.spent;
+            b.notifiedLimit = b.limit;
+        }
+    }
+
+    // самый высокий пройденный порог, 0 - ни одного; thresholds по возрастанию.
+    // порог 100% и выше - превышение: пройден, только когда потрачено больше бюджета
+    static int highestCrossed(int[] thresholds, long spent, long limit) {
+        for (int i = thresholds.length - 1; i >= 0; i--) {
+            int t = thresholds[i];
+            double used = spent * 100.0;
+            if (t < 100 ? used >= (double) limit * t : used > (double) limit * t) {
+                return t;
+            }
+        }
+        return 0;
+    }
+}
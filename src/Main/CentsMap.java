@@ -0,0 +1,193 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ObjLongConsumer;
+
+// категория -> сумма в копейках без упаковки значений: открытая адресация, ключи и значения в параллельных массивах.
+// добавление к сумме существующей категории ничего не выделяет
+public class CentsMap {
+    private String[] keys;
+    private long[] values;
+    private int size;
+
+    public CentsMap() {
+        this(8);
+    }
+
+    public CentsMap(int expected) {
+        int capacity = 8;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        keys = new String[capacity];
+        values = new long[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(String key) {
+        return keys[slot(key)] != null;
+    }
+    // 0, если категории нет
+    public long get(String key) {
+        return values[slot(key)];
+    }
+    public long get(String key, long missing) {
+        int i = slot(key);
+        return keys[i] != null ? values[i] : missing;
+    }
+
+    public void put(String key, long value) {
+        int i = slot(key);
+        if (keys[i] == null) {
+            insert(i, key, value);
+        } else {
+            values[i] = value;
+        }
+    }
+
+    public void add(String key, long delta) {
+        int i = slot(key);
+        if (keys[i] == null) {
+            insert(i, key, delta);
+        } else {
+            values[i] += delta;
+        }
+    }
+
+    // возвращает удаленное значение (0, если категории не было)
+    public long remove(String key) {
+        int i = slot(key);
+        if (keys[i] == null) {
+            return 0;
+        }
+        long removed = values[i];
+        // сдвигаем следующие записи цепочки на освободившееся место, чтобы поиск не прерывался на дыре
+        int mask = keys.length - 1;
+        int j = i;
+        while (true) {
+            keys[i] = null;
+            values[i] = 0;
+            int home;
+            do {
+                j = (j + 1) & mask;
+                if (keys[j] == null) {
+                    size--;
+                    return removed;
+                }
+                home = hash(keys[j]) & mask;
+            } while (i <= j ? i < home && home <= j : i < home || home <= j);
+            keys[i] = keys[j];
+            values[i] = values[j];
+            i = j;
+        }
+    }
+
+    public void forEach(ObjLongConsumer<String> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                action.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    // обход без лямбды для горячих мест: слоты от 0 до slots(), пустые - с ключом null
+    public int slots() {
+        return keys.length;
+    }
+    public String keyAt(int slot) {
+        return keys[slot];
+    }
+    public long valueAt(int slot) {
+        return values[slot];
+    }
+
+    public CentsMap copy() {
+        CentsMap c = new CentsMap(0);
+        c.keys = keys.clone();
+        c.values = values.clone();
+        c.size = size;
+        return c;
+    }
+
+    // в рублях, для вывода и кода, которому нужен обычный Map
+    public Map<String, Double> toAmounts() {
+        Map<String, Double> res = new HashMap<>();
+        forEach((k, v) -> res.put(k, Money.toAmount(v)));
+        return res;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CentsMap) || ((CentsMap) o).size != size) {
+            return false;
+        }
+        CentsMap other = (CentsMap) o;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null && (!other.containsKey(keys[i]) || other.get(keys[i]) != values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                h += keys[i].hashCode() ^ Long.hashCode(values[i]);
+            }
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return toAmounts().toString();
+    }
+
+    private int slot(String key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != null && !keys[i].equals(key)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void insert(int i, String key, long value) {
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        String[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new String[oldKeys.length * 2];
+        values = new long[keys.length];
+        int mask = keys.length - 1;
+        for (int k = 0; k < oldKeys.length; k++) {
+            if (oldKeys[k] != null) {
+                int i = hash(oldKeys[k]) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[k];
+                values[i] = oldValues[k];
+            }
+        }
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,410 @@
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+// разбор и выполнение одной строки команды; общий для интерактивного режима и сценариев (Main --script).
+// вывод идет в переданный PrintWriter: в консоли он сбрасывается после каждой строки, в сценарии буферизуется
+final class Console {
+    // EXIT_ERROR - выход, но данные не сохранены (сохранение отключено для поврежденного каталога)
+    enum Result { OK, ERROR, EXIT, EXIT_ERROR }
+
+    // команды, по которым stats ведет отдельные метрики; все остальное считается как unknown
+    private static final Set<String> COMMANDS = Set.of("help", "register", "login", "logout", "create-category",
+            "set-budget", "add-income", "add-expense", "transfer", "summary", "transactions", "export-csv", "import-csv",
+            "save", "exit", "rename-category", "delete-category", "force-delete-category", "category-info",
+            "list-categories", "budget-thresholds", "stats", "analytics");
+
+    private final Metrics metrics;
+    private final StorageService storage;
+    private final Map<String, User> users;
+    private final AuthService auth;
+    private final FinanceService finance;
+    private final PrintWriter out;
+    private String error; // сообщение об ошибке последней команды
+
+    Console(Metrics metrics, StorageService storage, Map<String, User> users, AuthService auth, FinanceService finance, PrintWriter out) {
+        this.metrics = metrics;
+        this.storage = storage;
+        this.users = users;
+        this.auth = auth;
+        this.finance = finance;
+        this.out = out;
+    }
+
+    // текст ошибки, если последняя строка вернула ERROR
+    String getError() {
+        return error;
+    }
+
+    Result execute(String line) {
+        error = null;
+        String[] tokens = split(line, 2); // вытаскиваем команду
+        if (tokens.length == 0) {
+            return Result.OK;
+        }
+        String cmd = tokens[0].toLowerCase();
+        String arg = tokens.length>1?tokens[1]:"";
+
+        long started = System.nanoTime(); // замер команды вместе с сохранением и выводом
+        long allocated = metrics.allocatedBytes();
+        Result result = Result.OK;
+        try {
+            switch(cmd){
+                case "help": printHelp(out); break;
+                case "register": { // регистрация
+                    String[] a = split(arg, 0);
+                    if (a.length<2) {  // проверка вводимых команд
+                        fail("Использование: register <login> <password>"); // таким образом подсказываем, как написать если возникла ошибка в команде
+                    } else {
+                        if (auth.register(a[0], a[1])){ // проверка вводимых данных
+                            storage.commit(users);
+                            out.println("Пользователь зарегистрирован.");
+                        } else fail("Ошибка регистрации (возможно пользователь уже существует или неверные данные)."); // уведомление о некорректных данных
+                    }
+                    break;
+                }
+                case "login": { // авторизация по логину и паролю, несколько пользователей
+                    String[] a = split(arg, 0);
+                    if (a.length<2) fail("Использование: login <login> <password>");
+                    else {
+                        if (auth.login(a[0], a[1])){
+                            out.println("Успешно: вошли как " + a[0]);
+                        } else fail("Ошибка: неверный логин/пароль.");
+                    }
+                    break;
+                }
+                case "logout": {
+                    auth.logout();
+                    out.println("Выход.");
+                    break;
+                }
+                case "create-category": { // создание категории для планирования бюджета
+                    print(finance.call(() -> finance.createCategory(arg)));
+                    storage.commit(users);
+                    break;
+                }
+                case "set-budget": { // установление бюджета на категорию
+                    String[] a = split(arg, 0);
+                    if (a.length<2) fail("Использование: set-budget <category> <amount>");
+                    else {
+                        try {
+                            double amt = Double.parseDouble(a[1]);
+                            print(finance.call(() -> finance.setBudget(a[0], amt)));
+                            storage.commit(users);
+                        } catch(NumberFormatException e){ fail("Неверный формат суммы."); }
+                    }
+                    break;
+                }
+                case "budget-thresholds": { // budget-thresholds 50 80 100 - проценты бюджета для оповещений
+                    if (arg.trim().isEmpty()) {
+                        out.println("Пороги оповещений по бюджету: " + finance.thresholdsText());
+                        break;
+                    }
+                    String[] a = split(arg, 0);
+                    int[] percents = new int[a.length];
+                    try {
+                        for (int i = 0; i < a.length; i++) {
+                            percents[i] = Integer.parseInt(a[i].endsWith("%") ? a[i].substring(0, a[i].length() - 1) : a[i]);
+                        }
+                        print(finance.call(() -> finance.setBudgetThresholds(percents)));
+                    } catch (NumberFormatException e) { fail("Использование: budget-thresholds [<процент>...]"); }
+                    break;
+                }
+                case "add-income": { // добавление дохода
+                    String[] a = split(arg, 3);
+                    if (a.length<2) fail("Использование: add-income <category> <amount> ");
+                    else {
+                        try {
+                            double amt = Double.parseDouble(a[1]);
+                            print(finance.call(() -> finance.addIncome(a[0], amt, a.length==3? a[2] : "")));
+                            storage.commit(users);
+                        } catch(NumberFormatException e){ fail("Неверный формат суммы."); }
+                    }
+                    break;
+                }
+                case "add-expense": { // добавление расхода
+                    String[] a = split(arg, 3);
+                    if (a.length<2) fail("Использование: add-expense <category> <amount> ");
+                    else {
+                        try {
+                            double amt = Double.parseDouble(a[1]);
+                            print(finance.call(() -> finance.addExpense(a[0], amt, a.length==3? a[2] : "")));
+                            storage.commit(users);
+                        } catch(NumberFormatException e){ fail("Неверный формат суммы."); }
+                    }
+                    break;
+                }
+                case "transfer": {
+                    String[] a = split(arg, 3);
+                    if (a.length<2) fail("Использование: transfer <toLogin> <amount> ");
+                    else {
+                        try {
+                            double amt = Double.parseDouble(a[1]);
+                            print(finance.call(() -> finance.transfer(a[0], amt, a.length==3? a[2] : "")));
+                            storage.commit(users);
+                        } catch(NumberFormatException e){ fail("Неверный формат суммы."); }
+                    }
+                    break;
+                }
+                case "summary": { // вывод информации - общая сумма доходов и расходов и данные по каждой категории
+                    Map<String, String> o = options(arg, "--from", "--to");
+                    if (o == null) {
+                        fail("Использование: summary [--from yyyy-MM-dd] [--to yyyy-MM-dd]");
+                    } else if (o.isEmpty()) {
+                        print(finance.call(() -> finance.summary()));
+                    } else {
+                        print(finance.call(() -> finance.summary(date(o.get("--from")), date(o.get("--to")))));
+                    }
+                    break;
+                }
+                case "transactions": { // transactions [--limit N] [--after <cursor>] [--reverse] [--from/--to yyyy-MM-dd] - постранично
+                    Map<String, String> o = options(arg, "--limit", "--after", "--from", "--to", "--reverse");
+                    if (o == null) {
+                        fail("Использование: transactions [--limit N] [--after <cursor>] [--reverse] [--from yyyy-MM-dd] [--to yyyy-MM-dd]");
+                        break;
+                    }
+                    try {
+                        int limit = o.containsKey("--limit") ? Integer.parseInt(o.get("--limit")) : 50;
+                        print(finance.call(() -> finance.showTransactions(limit, o.get("--after"), o.containsKey("--reverse"),
+                                date(o.get("--from")), date(o.get("--to")))));
+                    } catch (NumberFormatException e) { fail("Неверный размер страницы."); }
+                    break;
+                }
+                case "export-csv": { // export-csv gzip - сжатый файл
+                    if (!auth.isAuthenticated()) {
+                        fail("Нужна авторизация");
+                        break;
+                    }
+                    boolean gzip = arg.trim().equalsIgnoreCase("gzip");
+                    Path path = Paths.get("data", "export_" + auth.getCurrentUser().getLogin() + (gzip ? ".csv.gz" : ".csv"));
+                    Files.createDirectories(path.getParent());
+                    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                        print(finance.call(() -> finance.exportCsv(ch, gzip)));
+                    }
+                    out.println("Экспортирован CSV в файл " + path);
+                    break;
+                }
+                case "import-csv": { // загрузка истории из CSV в формате export-csv
+                    if (arg.trim().isEmpty()) {
+                        fail("Использование: import-csv <file>");
+                    } else {
+                        String file = arg.trim();
+                        try (InputStream raw = new FileInputStream(file);
+                             Reader reader = new InputStreamReader(file.endsWith(".gz") ? new GZIPInputStream(raw, 1 << 16) : raw, StandardCharsets.UTF_8)) {
+                            print(finance.call(() -> finance.importCsv(reader)));
+                            storage.commit(users);
+                        }
+                    }
+                    break;
+                }
+                case "save": { // просто сохранение по требованию
+                    storage.saveAll(users);
+                    if (storage.getSaveRefusal() != null) {
+                        fail(storage.getSaveRefusal());
+                    } else {
+                        out.println("Данные сохранены.");
+                    }
+                    break;
+                }
+                case "exit": { // окончание работы, выход из постоянного цикла
+                    storage.saveAll(users); // сохранение данных в файл перед выходом
+                    storage.close();
+                    result = Result.EXIT;
+                    if (storage.getSaveRefusal() != null) {
+                        fail(storage.getSaveRefusal());
+                        out.println("Выход без сохранения.");
+                        result = Result.EXIT_ERROR;
+                    } else {
+                        out.println("Сохранено. Выход.");
+                    }
+                    break;
+                }
+                case "rename-category": {
+                    String[] a = split(arg, 2);
+                    if (a.length < 2) {
+                        fail("Использование: rename-category <старое_имя> <новое_имя>");
+                    } else {
+                        print(finance.call(() -> finance.renameCategory(a[0], a[1])));
+                        storage.commit(users);
+                    }
+                    break;
+                }
+                case "delete-category": {
+                    if (arg.trim().isEmpty()) {
+                        fail("Использование: delete-category <имя_категории>");
+                    } else {
+                        print(finance.call(() -> finance.deleteCategory(arg, false)));
+                        storage.commit(users);
+                    }
+                    break;
+                }
+                case "force-delete-category": {
+                    if (arg.trim().isEmpty()) {
+                        fail("Использование: force-delete-category <имя_категории>");
+                    } else {
+                        print(finance.call(() -> finance.deleteCategory(arg, true)));
+                        storage.commit(users);
+                    }
+                    break;
+                }
+                case "category-info": {
+                    if (arg.trim().isEmpty()) {
+                        fail("Использование: category-info <имя_категории>");
+                    } else {
+                        print(finance.call(() -> finance.showCategoryInfo(arg)));
+                    }
+                    break;
+                }
+                case "list-categories": {
+                    print(finance.call(() -> finance.listCategories()));
+                    break;
+                }
+                case "stats": { // stats prometheus <file> - выгрузка метрик в текстовом формате Prometheus
+                    String[] a = split(arg, 0);
+                    if (a.length == 0) {
+                        out.println(metrics.report());
+                    } else if (a.length == 2 && a[0].equalsIgnoreCase("prometheus")) {
+                        Path path = Paths.get(a[1]);
+                        if (path.getParent() != null) {
+                            Files.createDirectories(path.getParent());
+                        }
+                        try (Writer file = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                            metrics.writePrometheus(file);
+                        }
+                        out.println("Метрики выгружены в файл " + path);
+                    } else {
+                        fail("Использование: stats [prometheus <file>]");
+                    }
+                    break;
+                }
+                case "analytics": { // сводка по всем пользователям, только для администраторов
+                    String[] a = split(arg, 0);
+                    try {
+                        if (a.length > 1) {
+                            fail("Использование: analytics [<число строк>]");
+                        } else {
+                            print(finance.call(() -> finance.analytics(a.length == 0 ? 10 : Integer.parseInt(a[0]))));
+                        }
+                    } catch (NumberFormatException e) { fail("Использование: analytics [<число строк>]"); }
+                    break;
+                }
+                default:
+                    fail("Неизвестная команда. help для списка команд.");
+            }
+        } catch(Exception ex){
+            fail("Ошибка: " + ex.getMessage());
+        }
+        metrics.recordCommand(COMMANDS.contains(cmd) ? cmd : "unknown", started, allocated);
+        return result == Result.OK && error != null ? Result.ERROR : result;
+    }
+
+    // ответ FinanceService: отказ сервиса считается ошибкой команды
+    private void print(FinanceService.Reply reply) {
+        if (reply.refused) {
+            fail(reply.text);
+        } else {
+            out.println(reply.text);
+        }
+    }
+
+    private void fail(String message) {
+        out.println(message);
+        error = message;
+    }
+
+    // слова через пробельные символы без регулярного выражения; limit > 0 - не больше limit частей,
+    // последняя - остаток строки как есть (заметка с пробелами). Пустая строка - пустой массив
+    static String[] split(String s, int limit) {
+        List<String> parts = new ArrayList<>();
+        int i = 0;
+        int n = s.length();
+        while (true) {
+            while (i < n && Character.isWhitespace(s.charAt(i))) {
+                i++;
+            }
+            if (i == n) {
+                break;
+            }
+            if (limit > 0 && parts.size() == limit - 1) {
+                int end = n;
+                while (Character.isWhitespace(s.charAt(end - 1))) {
+                    end--;
+                }
+                parts.add(s.substring(i, end));
+                break;
+            }
+            int start = i;
+            while (i < n && !Character.isWhitespace(s.charAt(i))) {
+                i++;
+            }
+            parts.add(s.substring(start, i));
+        }
+        return parts.toArray(new String[0]);
+    }
+
+    // флаги вида --name value; --reverse без значения. null - неизвестный флаг или флаг без значения
+    private static Map<String, String> options(String arg, String... allowed) {
+        Map<String, String> res = new HashMap<>();
+        String[] a = split(arg, 0);
+        for (int i = 0; i < a.length; i++) {
+            if (!Arrays.asList(allowed).contains(a[i])) {
+                return null;
+            }
+            if (a[i].equals("--reverse")) {
+                res.put(a[i], "");
+            } else if (i + 1 < a.length) {
+                res.put(a[i], a[++i]);
+            } else {
+                return null;
+            }
+        }
+        return res;
+    }
+
+    private static LocalDate date(String s) {
+        return s == null ? null : LocalDate.parse(s); // неверная дата - DateTimeParseException, выводится как ошибка команды
+    }
+
+    private static void printHelp(PrintWriter out){
+        out.println("Команды:");
+        out.println("1. register <login> <password>");
+        out.println("2. login <login> <password>");
+        out.println("3. logout");
+        out.println("4. create-category <name> | создание категории");
+        out.println("5. rename-category <old> <new> | переименование категории");
+        out.println("6. delete-category <name> | удаление категории (без транзакций)");
+        out.println("7. force-delete-category <name> | принудительное удаление с транзакциями");
+        out.println("8. category-info <name> | информация о категории");
+        out.println("9. list-categories | список всех категорий");
+        out.println("10. set-budget <category> <amount> | установка бюджета");
+        out.println("11. budget-thresholds [<процент>...] | пороги оповещений по бюджету (по умолчанию 80 100)");
+        out.println("12. add-income <category> <amount> | добавление дохода");
+        out.println("13. add-expense <category> <amount> | добавление расхода");
+        out.println("14. transfer <toLogin> <amount> | перевод другому пользователю");
+        out.println("15. transactions [--limit N] [--after <cursor>] [--reverse] [--from yyyy-MM-dd] [--to yyyy-MM-dd] | просмотр транзакций постранично");
+        out.println("16. summary [--from yyyy-MM-dd] [--to yyyy-MM-dd] | сводка (за период - по датам включительно)");
+        out.println("17. export-csv [gzip] | экспорт в CSV (gzip - сжатый .csv.gz)");
+        out.println("18. import-csv <file> | импорт транзакций из CSV (в том числе .csv.gz)");
+        out.println("19. save | сохранение данных");
+        out.println("20. stats [prometheus <file>] | задержки команд, сохранения и загрузки (или выгрузка для Prometheus)");
+        out.println("21. analytics [N] | сводка по всем пользователям: итоги, топ-N категорий, превышенные бюджеты (для администраторов)");
+        out.println("22. exit | выход");
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.zip.GZIPOutputStream;
+
+// потоковая выгрузка транзакций в CSV (type,category,amount,note,created): строки собираются
+// в переиспользуемый буфер и сбрасываются в Writer блоками, поэтому память не зависит от размера кошелька
+public class CsvExporter {
+    public static final String HEADER = "type,category,amount,note,created\n";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Writer out;
+    private final StringBuilder row = new StringBuilder(BUFFER_SIZE + 1024);
+    private final char[] chunk = new char[BUFFER_SIZE + 1024];
+    private long lastMinute = Long.MIN_VALUE;
+    private final char[] time = new char[16]; // yyyy-MM-dd HH:mm последней выведенной минуты
+    private int rows;
+
+    public CsvExporter(Writer out) {
+        this.out = out;
+    }
+
+    // UTF-8 в канал; с gzip - сжатый поток (.csv.gz). Закрывает переданный канал вместе с собой
+    public static Writer channelWriter(WritableByteChannel ch, boolean gzip) throws IOException {
+        if (gzip) {
+            return new OutputStreamWriter(new GZIPOutputStream(Channels.newOutputStream(ch), BUFFER_SIZE), StandardCharsets.UTF_8);
+        }
+        return Channels.newWriter(ch, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE);
+    }
+
+    // заголовок и все транзакции; Writer сбрасывается, но не закрывается
+    public int write(TransactionSource source) throws IOException {
+        row.append(HEADER);
+        try {
+            source.forEachTransaction((type, category, cents, created, note) -> {
+                row.append(type.name()).append(",\"");
+                appendEscaped(category);
+                row.append("\",");
+                Money.append(row, cents); // 123.45 - точно, без double
+                row.append(",\"");
+                appendEscaped(note);
+                row.append("\",");
+                appendTime(created);
+                row.append('\n');
+                rows++;
+                if (row.length() >= BUFFER_SIZE) {
+                    try {
+                        flushRows();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e); // посетитель не может бросать проверяемые исключения
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        flushRows();
+        out.flush();
+        return rows;
+    }
+
+    // кавычки внутри поля заменяются апострофом прямо при копировании, без промежуточных строк
+    private void appendEscaped(CharSequence s) {
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            row.append(c == '"' ? '\'' : c);
+        }
+    }
+
+    private void appendTime(long millis) {
+        long minute = Math.floorDiv(millis, 60_000);
+        if (minute != lastMinute) {
+            LocalDateTime t = Transaction.fromMillis(millis);
+            if (t.getYear() < 0 || t.getYear() > 9999) {
+                row.append(t.format(Transaction.TIME_FORMAT)); // редкий случай, форматтер сам добавит знак года
+                return;
+            }
+            putDigits(t.getYear(), 0, 4);
+            time[4] = '-';
+            putDigits(t.getMonthValue(), 5, 2);
+            time[7] = '-';
+            putDigits(t.getDayOfMonth(), 8, 2);
+            time[10] = ' ';
+            putDigits(t.getHour(), 11, 2);
+            time[13] = ':';
+            putDigits(t.getMinute(), 14, 2);
+            lastMinute = minute;
+        }
+        row.append(time);
+    }
+
+    private void putDigits(int v, int at, int width) {
+        for (int i = at + width - 1; i >= at; i--) {
+            time[i] = (char) ('0' + v % 10);
+            v /= 10;
+        }
+    }
+
+    private void flushRows() throws IOException {
+        int len = row.length();
+        for (int off = 0; off < len; off += chunk.length) { // строка с очень длинной заметкой больше буфера
+            int n = Math.min(chunk.length, len - off);
+            row.getChars(off, off + n, chunk, 0);
+            out.write(chunk, 0, n);
+        }
+        row.setLength(0);
+    }
+}
@@ -0,0 +1,409 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Consumer;
+
+// потоковый разбор CSV в формате exportCsv: type,category,amount,note,created
+// файл читается блоками в буфер символов, целиком в памяти не держится; поля разбираются прямо в буфере,
+// категории и время переиспользуются между строками, готовые транзакции отдаются пачками
+public class CsvImporter {
+    public static final int BATCH_SIZE = 4096;
+    private static final int BATCH_CHARS = 1 << 20; // пачка с длинными заметками отдается раньше (запись журнала ограничена)
+    private static final int FIELDS = 5;
+    private static final int MAX_ERRORS = 10; // сколько ошибок с номерами строк попадает в отчет
+    private static final long TOO_LARGE = Long.MIN_VALUE; // сумма больше Money.MAX_CENTS
+
+    private final Reader in;
+    private char[] buf = new char[1 << 16];
+    private int pos;
+    private int limit;
+    private boolean eof;
+    private int line;      // номер строки файла, с которой начинается текущая запись
+    private int nextLine = 1;
+
+    // поля текущей записи: границы в buf и признак удвоенных кавычек внутри
+    private final int[] start = new int[FIELDS];
+    private final int[] end = new int[FIELDS];
+    private final boolean[] escaped = new boolean[FIELDS];
+    private int fieldCount;
+
+    // категории без повторного создания строк: открытая адресация по хешу символов из буфера
+    private String[] names = new String[64];
+    private int nameCount;
+    private long lastStamp = -1;
+    private LocalDateTime lastTime;
+
+    private int imported;
+    private int skipped;
+    private final List<String> errors = new ArrayList<>();
+    private final Set<String> expenseCategories = new HashSet<>();
+
+    public CsvImporter(Reader in) {
+        this.in = in;
+    }
+
+    // sink получает пачки до BATCH_SIZE транзакций; список после вызова переиспользуется, хранить его нельзя.
+    // при ошибке чтения уже переданные пачки остаются импортированными
+    public void run(Consumer<List<Transaction>> sink) throws IOException {
+        List<Transaction> batch = new ArrayList<>(BATCH_SIZE);
+        int batchChars = 0;
+        boolean first = true;
+        while (nextRecord()) {
+            if (first) {
+                first = false;
+                if (fieldCount > 0 && fieldEquals(0, "type")) {
+                    continue; // заголовок
+                }
+            }
+            Transaction t = parse();
+            if (t == null) {
+                skipped++;
+                continue;
+            }
+            batch.add(t);
+            batchChars += t.getCategory().length() + t.getNote().length();
+            if (batch.size() == BATCH_SIZE || batchChars >= BATCH_CHARS) {
+                sink.accept(batch);
+                imported += batch.size();
+                batch.clear();
+                batchChars = 0;
+            }
+        }
+        if (!batch.isEmpty()) {
+            sink.accept(batch);
+            imported += batch.size();
+        }
+    }
+
+    public int getImported() {
+        return imported;
+    }
+    public int getSkipped() {
+        return skipped;
+    }
+    public List<String> getErrors() {
+        return errors;
+    }
+    // категории, в которые были расходы - по ним после импорта проверяются бюджеты
+    public Set<String> getExpenseCategories() {
+        return expenseCategories;
+    }
+
+    private Transaction parse() {
+        if (fieldCount < FIELDS) {
+            return error("ожидается 5 полей: type,category,amount,note,created");
+        }
+        Transaction.Type type;
+        if (fieldEquals(0, "INCOME")) {
+            type = Transaction.Type.INCOME;
+        } else if (fieldEquals(0, "EXPENSE")) {
+            type = Transaction.Type.EXPENSE;
+        } else {
+            return error("неизвестный тип операции");
+        }
+        if (start[1] == end[1]) {
+            return error("пустая категория");
+        }
+        long cents = parseCents(start[2], end[2]);
+        if (cents == TOO_LARGE) {
+            return error("сумма слишком большая");
+        }
+        if (cents <= 0) { // в том числе не число
+            return error("сумма должна быть > 0");
+        }
+        LocalDateTime created = parseTime(start[4], end[4]);
+        if (created == null) {
+            return error("время должно быть в формате yyyy-MM-dd HH:mm");
+        }
+        String category = escaped[1] ? unescape(1) : category(start[1], end[1]);
+        String note = escaped[3] ? unescape(3) : start[3] == end[3] ? "" : new String(buf, start[3], end[3] - start[3]);
+        if (type == Transaction.Type.EXPENSE) {
+            expenseCategories.add(category);
+        }
+        return Transaction.ofCents(type, category, cents, note, created);
+    }
+
+    private Transaction error(String message) {
+        if (errors.size() < MAX_ERRORS) {
+            errors.add("строка " + line + ": " + message);
+        }
+        return null;
+    }
+
+    // следующая непустая запись; поля в кавычках могут содержать запятые, переводы строк и "" вместо кавычки
+    private boolean nextRecord() throws IOException {
+        while (true) {
+            int i = parseRecord();
+            if (i >= 0) {
+                if (fieldCount == 1 && start[0] == end[0] && !escaped[0]) {
+                    continue; // пустая строка
+                }
+                return true;
+            }
+            if (eof) {
+                return false;
+            }
+            // запись не поместилась в прочитанную часть: сдвигаем ее в начало буфера, дочитываем и разбираем заново
+            if (pos == 0 && limit == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            } else {
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+                limit -= pos;
+                pos = 0;
+            }
+            int n = in.read(buf, limit, buf.length - limit);
+            if (n < 0) {
+                eof = true;
+            } else {
+                limit += n;
+            }
+        }
+    }
+
+    // разбирает запись с pos; -1, если данные кончились раньше конца записи (и файл еще не дочитан)
+    private int parseRecord() {
+        int i = pos;
+        int lines = 0;
+        fieldCount = 0;
+        if (i >= limit) {
+            return -1;
+        }
+        while (true) {
+            int field = Math.min(fieldCount, FIELDS - 1); // лишние поля в конце строки не нужны
+            boolean esc = false;
+            int s;
+            int e;
+            if (i < limit && buf[i] == '"') {
+                s = ++i;
+                while (true) {
+                    if (i >= limit) {
+                        return eof ? finishQuoted(s, i, esc, field, lines) : -1;
+                    }
+                    char c = buf[i];
+                    if (c == '"') {
+                        if (i + 1 >= limit && !eof) {
+                            return -1; // не знаем, удвоенная ли это кавычка
+                        }
+                        if (i + 1 < limit && buf[i + 1] == '"') {
+                            esc = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    if (c == '\n') {
+                        lines++;
+                    }
+                    i++;
+                }
+                e = i++;
+                // после закрывающей кавычки до разделителя ничего не ждем, лишнее пропускаем
+                while (i < limit && buf[i] != ',' && buf[i] != '\n') {
+                    i++;
+                }
+            } else {
+                s = i;
+                while (i < limit && buf[i] != ',' && buf[i] != '\n') {
+                    i++;
+                }
+                e = i;
+                if (e > s && i < limit && buf[e - 1] == '\r') {
+                    e--;
+                }
+            }
+            if (i >= limit && !eof) {
+                return -1;
+            }
+            if (fieldCount < FIELDS) {
+                start[field] = s;
+                end[field] = e;
+                escaped[field] = esc;
+            }
+            fieldCount++;
+            if (i < limit && buf[i] == ',') {
+                i++;
+                continue;
+            }
+            // конец строки или файла
+            if (i < limit) {
+                i++;
+                lines++;
+            }
+            line = nextLine;
+            nextLine += lines;
+            pos = i;
+            return i;
+        }
+    }
+
+    // последнее поле файла в незакрытых кавычках: берем все до конца
+    private int finishQuoted(int s, int i, boolean esc, int field, int lines) {
+        if (fieldCount < FIELDS) {
+            start[field] = s;
+            end[field] = i;
+            escaped[field] = esc;
+        }
+        fieldCount++;
+        line = nextLine;
+        nextLine += lines;
+        pos = i;
+        return i;
+    }
+
+    private boolean fieldEquals(int field, String value) {
+        int len = end[field] - start[field];
+        if (len != value.length()) {
+            return false;
+        }
+        for (int k = 0; k < len; k++) {
+            if (buf[start[field] + k] != value.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String unescape(int field) {
+        StringBuilder sb = new StringBuilder(end[field] - start[field]);
+        for (int k = start[field]; k < end[field]; k++) {
+            sb.append(buf[k]);
+            if (buf[k] == '"') {
+                k++; // вторая кавычка пары
+            }
+        }
+        return sb.toString();
+    }
+
+    private String category(int s, int e) {
+        int h = 0;
+        for (int k = s; k < e; k++) {
+            h = 31 * h + buf[k];
+        }
+        int mask = names.length - 1;
+        int idx = (h ^ (h >>> 16)) & mask;
+        for (String n = names[idx]; n != null; n = names[idx]) {
+            if (n.hashCode() == h && n.length() == e - s && sameChars(n, s)) {
+                return n;
+            }
+            idx = (idx + 1) & mask;
+        }
+        String n = new String(buf, s, e - s);
+        names[idx] = n;
+        if (++nameCount * 2 > names.length) {
+            rehash();
+        }
+        return n;
+    }
+
+    private boolean sameChars(String n, int s) {
+        for (int k = 0; k < n.length(); k++) {
+            if (n.charAt(k) != buf[s + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        String[] old = names;
+        names = new String[old.length * 2];
+        int mask = names.length - 1;
+        for (String n : old) {
+            if (n != null) {
+                int h = n.hashCode();
+                int idx = (h ^ (h >>> 16)) & mask;
+                while (names[idx] != null) {
+                    idx = (idx + 1) & mask;
+                }
+                names[idx] = n;
+            }
+        }
+    }
+
+    // сумма в копейках; быстрый путь для обычной записи (123.45, 7, -5) сразу в целые копейки,
+    // остальное (1.0E7, больше двух знаков после точки) - через Double.parseDouble с округлением до копейки.
+    // не число - 0
+    private long parseCents(int s, int e) {
+        boolean negative = s < e && buf[s] == '-';
+        long units = 0;
+        int digits = 0;
+        int fraction = -1;
+        for (int k = negative ? s + 1 : s; k < e; k++) {
+            char c = buf[k];
+            if (c >= '0' && c <= '9') {
+                if (fraction >= 2 || ++digits > 15) {
+                    return parseDouble(s, e);
+                }
+                units = units * 10 + (c - '0');
+                if (fraction >= 0) {
+                    fraction++;
+                }
+            } else if (c == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                return parseDouble(s, e);
+            }
+        }
+        if (digits == 0) {
+            return 0;
+        }
+        for (int f = Math.max(fraction, 0); f < 2; f++) {
+            units *= 10;
+        }
+        if (units > Money.MAX_CENTS) {
+            return TOO_LARGE;
+        }
+        return negative ? -units : units;
+    }
+
+    private long parseDouble(int s, int e) {
+        try {
+            double amount = Double.parseDouble(new String(buf, s, e - s).trim());
+            if (Double.isNaN(amount)) {
+                return 0;
+            }
+            return Money.fits(amount) ? Money.toCents(amount) : TOO_LARGE;
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    // yyyy-MM-dd HH:mm; подряд идущие строки часто с одним временем - объект LocalDateTime переиспользуется
+    private LocalDateTime parseTime(int s, int e) {
+        if (e - s != 16 || buf[s + 4] != '-' || buf[s + 7] != '-' || buf[s + 10] != ' ' || buf[s + 13] != ':') {
+            return null;
+        }
+        int year = digits(s, 4);
+        int month = digits(s + 5, 2);
+        int day = digits(s + 8, 2);
+        int hour = digits(s + 11, 2);
+        int minute = digits(s + 14, 2);
+        if ((year | month | day | hour | minute) < 0) {
+            return null;
+        }
+        long stamp = (((year * 100L + month) * 100 + day) * 100 + hour) * 100 + minute;
+        if (stamp != lastStamp) {
+            try {
+                lastTime = LocalDateTime.of(year, month, day, hour, minute);
+            } catch (DateTimeException ex) {
+                return null;
+            }
+            lastStamp = stamp;
+        }
+        return lastTime;
+    }
+
+    private int digits(int s, int n) {
+        int v = 0;
+        for (int k = s; k < s + n; k++) {
+            char c = buf[k];
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+}
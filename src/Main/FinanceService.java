@@ -1,344 +1,812 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
 
 public class FinanceService {
     private final AuthService auth;
     private final Map<String, User> allUsers;
+    private Journal journal; // если задан, каждое изменение кошелька пишется в журнал
+    private volatile int[] budgetThresholds = {80, 100}; // пороги оповещений по бюджету, % по возрастанию
+    private static final int REPORT_CACHE_SIZE = 4096; // готовых отчетов на всех пользователей
+    private final ReportCache reports = new ReportCache(REPORT_CACHE_SIZE);
 
     public FinanceService(AuthService auth) {
         this.auth = auth;
         this.allUsers = auth.getUsersMap();
     }
 
-    // дальше по пользователю будут взаимодействия с кошельком для хранения финансов
-    // Wallet w = auth.getCurrentUser().getWallet(); - получаем кошелек текущего пользователя и дальше с ним работаем
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
 
-    // еще в каждом блоке есть оповещения разных типов
-    // предупреждение и оповещение
-    public String createCategory(String name) { // логика добавления категории
-        if (!auth.isAuthenticated()) {
-            return "Нужна авторизация"; // тут и в подобных местах проверка корректности данных
+    // ответ сервиса вместе с признаком отказа: вызывающему (консоли) не нужно разбирать текст ответа
+    public static final class Reply {
+        public final String text;
+        public final boolean refused;
+
+        Reply(String text, boolean refused) {
+            this.text = text;
+            this.refused = refused;
         }
-        if (name==null || name.trim().isEmpty()) {
-            return "Имя категории пустое";
+    }
+
+    // вызов метода сервиса с ответом-строкой (выгрузка CSV может бросить IOException)
+    public interface Request {
+        String get() throws IOException;
+    }
+
+    // признак отказа текущего вызова call() в этом потоке; вне call() - null
+    private static final ThreadLocal<boolean[]> refusal = new ThreadLocal<>();
+
+    // вызов любого метода сервиса с ответом-строкой: отказы (нет авторизации, неверные данные и т.п.)
+    // отмечаются в самом методе через refuse, текст ответа остается прежним
+    public Reply call(Request request) throws IOException {
+        boolean[] outer = refusal.get();
+        boolean[] refused = new boolean[1];
+        refusal.set(refused);
+        try {
+            String text = request.get();
+            return new Reply(text, refused[0]);
+        } finally {
+            if (outer == null) {
+                refusal.remove();
+            } else {
+                refusal.set(outer);
+            }
         }
-        Wallet w = auth.getCurrentUser().getWallet(); // взаимодействуем с кошельком по конкретному пользователю
-        w.addCategory(name);
-        return "Категория создана: " + name;
     }
 
-    public String setBudget(String category, double amount) { // логика добавления бюджета по категории
-        if (!auth.isAuthenticated()) {
-            return "Нужна авторизация";
+    private static String refuse(String message) {
+        boolean[] refused = refusal.get();
+        if (refused != null) {
+            refused[0] = true;
         }
-        if (amount < 0) {
-            return "Бюджет не может быть отрицательным";
+        return message;
+    }
+
+    // пороги в процентах бюджета; 100 и выше - превышение бюджета. О каждом пересечении порога сообщается один раз
+    public String setBudgetThresholds(int... percents) {
+        if (percents.length == 0) {
+            return refuse("Нужен хотя бы один порог");
         }
-        Wallet w = auth.getCurrentUser().getWallet();
-        w.setBudget(category, amount);
-        return String.format("Установлен бюджет %s = %.2f", category, amount);
+        int[] sorted = percents.clone();
+        Arrays.sort(sorted);
+        if (sorted[0] <= 0) {
+            return refuse("Порог должен быть > 0");
+        }
+        budgetThresholds = sorted;
+        return "Пороги оповещений по бюджету: " + thresholdsText();
+    }
+    public int[] getBudgetThresholds() {
+        return budgetThresholds.clone();
+    }
+    // предел числа готовых отчетов (summary, list-categories, category-info); 0 - строить каждый раз
+    public void setReportCacheSize(int size) {
+        reports.setCapacity(size);
+    }
+    ReportCache reportCache() {
+        return reports;
+    }
+    public String thresholdsText() {
+        StringJoiner sj = new StringJoiner(", ");
+        for (int t : budgetThresholds) {
+            sj.add(t + "%");
+        }
+        return sj.toString();
     }
 
-    public String addIncome(String category, double amount, String note) { // логика добавления дохода
-        if (!auth.isAuthenticated()) {
-            return "Нужна авторизация";
+    // изменение кошелька и его запись в журнал идут под блокировкой кошелька, чтобы порядок записей в журнале
+    // совпадал с порядком изменений, и под разделяемой блокировкой журнала, чтобы не разорваться контрольной точкой
+    private <T> T mutate(Wallet w, Supplier<T> change) {
+        if (journal == null) {
+            return w.update(change);
         }
-        if (amount <= 0) {
-            return "Сумма должна быть > 0";
+        Lock lock = journal.mutationLock();
+        lock.lock();
+        try {
+            return w.update(change);
+        } finally {
+            lock.unlock();
         }
-        Wallet w = auth.getCurrentUser().getWallet();
-        Transaction tx = new Transaction(Transaction.Type.INCOME, category, amount, note);
-        w.addTransaction(tx);
-        return "Доход добавлен: " + tx;
     }
 
-    public String addExpense(String category, double amount, String note) {
-        if (!auth.isAuthenticated()) {
-            return "Нужна авторизация";
+    // то же для нескольких кошельков сразу (перевод): изменения во всех кошельках становятся видны вместе
+    private <T> T mutate(List<User> users, Supplier<T> change) {
+        if (journal == null) {
+            return withWallets(users, true, change);
+        }
+        Lock lock = journal.mutationLock();
+        lock.lock();
+        try {
+            return withWallets(users, true, change);
+        } finally {
+            lock.unlock();
         }
-        if (amount <= 0) {
-            return "Сумма должна быть > 0";
+    }
+
+    // блокировки нескольких кошельков всегда берутся в порядке логинов, поэтому встречные переводы
+    // A->B и B->A не могут ждать друг друга по кругу
+    private static <T> T withWallets(List<User> users, boolean write, Supplier<T> action) {
+        List<User> ordered = new ArrayList<>(users);
+        ordered.sort(Comparator.comparing(User::getLogin));
+        List<Lock> held = new ArrayList<>(ordered.size());
+        try {
+            for (User u : ordered) {
+                Wallet w = u.getWallet();
+                Lock lock = write ? w.writeLock() : w.readLock();
+                lock.lock();
+                held.add(lock);
+            }
+            return action.get();
+        } finally {
+            for (int i = held.size() - 1; i >= 0; i--) {
+                held.get(i).unlock();
+            }
         }
-        Wallet w = auth.getCurrentUser().getWallet();
-        if (!w.hasCategory(category)) {
-            return "Категория не найдена. Создайте её или используйте существующую.";
+    }
+
+    // дальше по пользователю будут взаимодействия с кошельком для хранения финансов
+    // методы без сессии работают с сессией консоли (auth.login), методы с сессией - с кошельком ее пользователя
+
+    // еще в каждом блоке есть оповещения разных типов
+    // предупреждение и оповещение
+    public String createCategory(String name) {
+        return createCategory(auth.getCurrentSession(), name);
+    }
+    public String createCategory(Session session, String name) { // логика добавления категории
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация"); // тут и в подобных местах проверка корректности данных
         }
-        Transaction tx = new Transaction(Transaction.Type.EXPENSE, category, amount, note);
-        w.addTransaction(tx);
-        StringBuilder sb = new StringBuilder("Расход добавлен: " + tx);
-        Double budget = w.getBudget(category);
-        if (budget != null) {
-            double spent = w.spentInCategory(category);
-            double remaining = budget - spent;
-            if (remaining < 0) {
-                sb.append(String.format("\nБюджет по категории '%s' превышен на %.2f", category, -remaining));
-            } else if (remaining <= 0.2 * budget) { // предусмотрено расширенное оповещение
-                sb.append(String.format("\nПредупреждение: вы использовали >=80%% бюджета категории '%s' (остаток %.2f).", category, remaining));
+        if (name==null || name.trim().isEmpty()) {
+            return refuse("Имя категории пустое");
+        }
+        User user = session.getUser();
+        Wallet w = user.getWallet(); // взаимодействуем с кошельком по конкретному пользователю
+        return mutate(w, () -> {
+            if (journal != null) {
+                journal.logCategory(user.getLogin(), name);
             }
+            w.addCategory(name);
+            return "Категория создана: " + name;
+        });
+    }
+
+    public String setBudget(String category, double amount) {
+        return setBudget(auth.getCurrentSession(), category, amount);
+    }
+    public String setBudget(Session session, String category, double amount) { // логика добавления бюджета по категории
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация");
         }
-        if (w.totalExpense() > w.totalIncome()) {
+        if (amount < 0) {
+            return refuse("Бюджет не может быть отрицательным");
+        }
+        if (!Money.fits(amount)) {
+            return refuse("Неверная сумма");
+        }
+        long cents = Money.toCents(amount); // дальше только копейки
+        User user = session.getUser();
+        Wallet w = user.getWallet();
+        return mutate(w, () -> {
+            if (journal != null) {
+                journal.logBudget(user.getLogin(), category, cents);
+            }
+            w.setBudgetCents(category, cents);
+            StringBuilder sb = new StringBuilder(String.format("Установлен бюджет %s = %.2f", category, Money.toAmount(cents)));
+            appendBudgetAlert(sb, w, category); // бюджет меньше уже потраченного - порог пройден сразу
+            return sb.toString();
+        });
+    }
+
+    public String addIncome(String category, double amount, String note) {
+        return addIncome(auth.getCurrentSession(), category, amount, note);
+    }
+    public String addIncome(Session session, String category, double amount, String note) { // логика добавления дохода
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация");
+        }
+        if (!Money.fits(amount)) {
+            return refuse("Неверная сумма");
+        }
+        long cents = Money.toCents(amount);
+        if (cents <= 0) {
+            return refuse("Сумма должна быть > 0");
+        }
+        User user = session.getUser();
+        Wallet w = user.getWallet();
+        Transaction tx = Transaction.ofCents(Transaction.Type.INCOME, category, cents, note, LocalDateTime.now());
+        return mutate(w, () -> {
+            if (journal != null) {
+                journal.logTransaction(user.getLogin(), tx);
+            }
+            w.addTransaction(tx);
+            return "Доход добавлен: " + tx;
+        });
+    }
+
+    public String addExpense(String category, double amount, String note) {
+        return addExpense(auth.getCurrentSession(), category, amount, note);
+    }
+    public String addExpense(Session session, String category, double amount, String note) {
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация");
+        }
+        if (!Money.fits(amount)) {
+            return refuse("Неверная сумма");
+        }
+        long cents = Money.toCents(amount);
+        if (cents <= 0) {
+            return refuse("Сумма должна быть > 0");
+        }
+        User user = session.getUser();
+        Wallet w = user.getWallet();
+        Transaction tx = Transaction.ofCents(Transaction.Type.EXPENSE, category, cents, note, LocalDateTime.now());
+        return mutate(w, () -> {
+            if (!w.hasCategory(category)) {
+                return refuse("Категория не найдена. Создайте её или используйте существующую.");
+            }
+            if (journal != null) {
+                journal.logTransaction(user.getLogin(), tx);
+            }
+            w.addTransaction(tx);
+            return expenseReport(w, tx);
+        });
+    }
+
+    private String expenseReport(Wallet w, Transaction tx) {
+        StringBuilder sb = new StringBuilder("Расход добавлен: " + tx);
+        appendBudgetAlert(sb, w, tx.getCategory());
+        if (overspent(w)) {
             sb.append("\nОповещение: общие расходы превысили доходы.");
         }
         return sb.toString();
     }
 
+    // остаток бюджета кошелек ведет сам; сообщение появляется только при пересечении порога, под блокировкой записи
+    private void appendBudgetAlert(StringBuilder sb, Wallet w, String category) {
+        w.checkBudget(category, budgetThresholds, (c, threshold, budget, spent) -> {
+            if (threshold >= 100) {
+                sb.append(String.format("\nБюджет по категории '%s' превышен на %.2f", c, Money.toAmount(spent - budget)));
+            } else {
+                sb.append(String.format("\nПредупреждение: вы использовали >=%d%% бюджета категории '%s' (остаток %.2f).",
+                        threshold, c, Money.toAmount(budget - spent)));
+            }
+        });
+    }
+
+    private static boolean overspent(TransactionSource w) {
+        return w.totalCents(Transaction.Type.EXPENSE) > w.totalCents(Transaction.Type.INCOME);
+    }
+
+    public String importCsv(Reader in) {
+        return importCsv(auth.getCurrentSession(), in);
+    }
+    // импорт в формате exportCsv: строки разбираются потоком и добавляются в кошелек пачками,
+    // недостающие категории создаются, бюджеты проверяются один раз после импорта
+    public String importCsv(Session session, Reader in) {
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация");
+        }
+        User user = session.getUser();
+        Wallet w = user.getWallet();
+        CsvImporter importer = new CsvImporter(in);
+        String failure = null;
+        try {
+            importer.run(batch -> mutate(w, () -> {
+                if (journal != null) {
+                    journal.logTransactions(user.getLogin(), batch);
+                }
+                w.addTransactions(batch);
+                return null;
+            }));
+        } catch (IOException e) {
+            failure = "Ошибка чтения файла: " + e.getMessage();
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Импортировано транзакций: %d, пропущено строк: %d", importer.getImported(), importer.getSkipped()));
+        for (String error : importer.getErrors()) {
+            sb.append("\n  ").append(error);
+        }
+        if (failure != null) {
+            sb.append("\n").append(failure);
+        }
+        w.update(() -> {
+            for (String category : importer.getExpenseCategories()) {
+                appendBudgetAlert(sb, w, category);
+            }
+            if (importer.getImported() > 0 && overspent(w)) {
+                sb.append("\nОповещение: общие расходы превысили доходы.");
+            }
+            return null;
+        });
+        return failure != null ? refuse(sb.toString()) : sb.toString();
+    }
+
     public String transfer(String toLogin, double amount, String note) {
-        if (!auth.isAuthenticated()) {
-            return "Нужна авторизация";
+        return transfer(auth.getCurrentSession(), toLogin, amount, note);
+    }
+    public String transfer(Session session, String toLogin, double amount, String note) {
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация");
+        }
+        if (!Money.fits(amount)) {
+            return refuse("Неверная сумма");
         }
-        if (amount <= 0) {
-            return "Сумма должна быть > 0";
+        long cents = Money.toCents(amount);
+        if (cents <= 0) {
+            return refuse("Сумма должна быть > 0");
         }
-        String fromLogin = auth.getCurrentUser().getLogin();
+        String fromLogin = session.getUser().getLogin();
         if (fromLogin.equals(toLogin)) {
-            return "Нельзя переводить самому себе";
+            return refuse("Нельзя переводить самому себе");
         }
         User to = allUsers.get(toLogin);
         if (to == null) {
-            return "Получатель не найден";
+            return refuse("Получатель не найден");
         }
-        Wallet wFrom = auth.getCurrentUser().getWallet();
+        Wallet wFrom = session.getUser().getWallet();
         Wallet wTo = to.getWallet();
         // фиксируем расход у отправителя и доход у получателя
-        Transaction txOut = new Transaction(Transaction.Type.EXPENSE, "transfer:" + toLogin, amount, "transfer to " + toLogin + (note==null?"":"; "+note));
-        Transaction txIn = new Transaction(Transaction.Type.INCOME, "transfer-from:" + fromLogin, amount, "transfer from " + fromLogin + (note==null?"":"; "+note));
-        wFrom.addTransaction(txOut);
-        wTo.addTransaction(txIn);
-        StringBuilder sb = new StringBuilder();
-        sb.append(String.format("Перевод выполнен: %s -> %s : %.2f", fromLogin, toLogin, amount));
-        String category = "transfer:" + toLogin;
-        Double budget = wFrom.getBudget(category);
-        if (budget != null) {
-            double rem = budget - wFrom.spentInCategory(category);
-            if (rem < 0) sb.append(String.format("\nВнимание! Бюджет по категории '%s' превышен на %.2f", category, -rem));
+        LocalDateTime now = LocalDateTime.now();
+        Transaction txOut = Transaction.ofCents(Transaction.Type.EXPENSE, "transfer:" + toLogin, cents, "transfer to " + toLogin + (note==null?"":"; "+note), now);
+        Transaction txIn = Transaction.ofCents(Transaction.Type.INCOME, "transfer-from:" + fromLogin, cents, "transfer from " + fromLogin + (note==null?"":"; "+note), now);
+        // обе части под блокировками обоих кошельков: никто не увидит расход без дохода
+        return mutate(List.of(session.getUser(), to), () -> {
+            if (journal != null) {
+                journal.logTransfer(fromLogin, txOut, toLogin, txIn);
+            }
+            wFrom.addTransaction(txOut);
+            wTo.addTransaction(txIn);
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Перевод выполнен: %s -> %s : %.2f", fromLogin, toLogin, Money.toAmount(cents)));
+            appendBudgetAlert(sb, wFrom, "transfer:" + toLogin);
+            if (overspent(wFrom)) {
+                sb.append("\nОповещение: общие расходы превысили доходы у отправителя.");
+            }
+            return sb.toString();
+        });
+    }
+
+    // сводка по всем пользователям (Analytics), только для администраторов (AuthService.setAdmins);
+    // top - сколько категорий и превышенных бюджетов показать
+    public String analytics(int top) {
+        return analytics(auth.getCurrentSession(), top);
+    }
+    public String analytics(Session session, int top) {
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация");
+        }
+        if (!auth.isAdmin(session)) {
+            return refuse("Недостаточно прав: сводка по всем пользователям доступна администраторам");
         }
-        if (wFrom.totalExpense() > wFrom.totalIncome()) {
-            sb.append("\nОповещение: общие расходы превысили доходы у отправителя.");
+        if (top <= 0) {
+            return refuse("Число строк должно быть > 0");
+        }
+        Analytics a = Analytics.of(allUsers.values());
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Пользователей: %d\n", a.getUsers()));
+        sb.append(String.format("Общий доход: %.2f\n", Money.toAmount(a.getIncomeCents())));
+        sb.append(String.format("Общие расходы: %.2f\n", Money.toAmount(a.getExpenseCents())));
+        appendTop(sb, "Категории расходов", a.getExpenseByCategory(), top);
+        appendTop(sb, "Категории доходов", a.getIncomeByCategory(), top);
+        List<Analytics.OverBudget> over = a.getOverBudget();
+        sb.append(String.format("Превышенных бюджетов: %d\n", over.size()));
+        for (Analytics.OverBudget o : over.subList(0, Math.min(top, over.size()))) {
+            sb.append(String.format("  %s / %s: бюджет %.2f, потрачено %.2f (перерасход %.2f)\n", o.getLogin(), o.getCategory(),
+                    Money.toAmount(o.getBudgetCents()), Money.toAmount(o.getSpentCents()), Money.toAmount(o.getSpentCents() - o.getBudgetCents())));
         }
         return sb.toString();
     }
+    private static void appendTop(StringBuilder sb, String title, CentsMap byCategory, int top) {
+        if (byCategory.isEmpty()) {
+            return;
+        }
+        sb.append(String.format("%s (топ %d из %d):\n", title, Math.min(top, byCategory.size()), byCategory.size()));
+        for (String category : Analytics.top(byCategory, top)) {
+            sb.append(String.format("  %s: %.2f\n", category, Money.toAmount(byCategory.get(category))));
+        }
+    }
+
+    // сумма остатков (доходы - расходы) всех пользователей по одному согласованному состоянию:
+    // перевод виден либо целиком, либо никак. Загружает кошельки всех пользователей
+    public double totalBalance() {
+        List<User> users = new ArrayList<>(allUsers.values());
+        return withWallets(users, false, () -> {
+            long sum = 0;
+            for (User u : users) {
+                Wallet w = u.getWallet();
+                sum += w.totalCents(Transaction.Type.INCOME) - w.totalCents(Transaction.Type.EXPENSE);
+            }
+            return Money.toAmount(sum);
+        });
+    }
 
     public String summary() {
-        if (!auth.isAuthenticated()) {
-            return "Нужна авторизация";
+        return summary(auth.getCurrentSession());
+    }
+    public String summary(Session session) {
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация");
+        }
+        User user = session.getUser();
+        TransactionSource w = user.readView(); // только чтение: кошелек не загружаем в память целиком
+        return reports.get(user.getLogin(), "summary", "", w, () -> {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Пользователь: %s\n", user.getLogin()));
+            sb.append(String.format("Общий доход: %.2f\n", Money.toAmount(w.totalCents(Transaction.Type.INCOME))));
+            CentsMap incomes = w.totalsByCategoryCents(Transaction.Type.INCOME);
+            if (!incomes.isEmpty()) {
+                sb.append("Доходы по категориям:\n");
+                incomes.forEach((k,v)-> sb.append(String.format("  %s: %.2f\n", k, Money.toAmount(v))));
+            }
+            sb.append(String.format("Общие расходы: %.2f\n", Money.toAmount(w.totalCents(Transaction.Type.EXPENSE))));
+            CentsMap expenses = w.totalsByCategoryCents(Transaction.Type.EXPENSE);
+            if (!expenses.isEmpty()) {
+                sb.append("Расходы по категориям:\n");
+                expenses.forEach((k,v)-> sb.append(String.format("  %s: %.2f\n", k, Money.toAmount(v))));
+            }
+            sb.append("Бюджеты по категориям и остатки:\n");
+            w.getBudgetsCents().forEach((cat, bud)-> {
+                long remaining = bud - w.spentCentsInCategory(cat);
+                sb.append(String.format("  %s: %,.2f, Оставшийся бюджет: %,.2f\n", cat, Money.toAmount(bud), Money.toAmount(remaining)));
+            });
+            return sb.toString();
+        });
+    }
+
+    // сводка за период: даты включительно, null - без границы. Считается по индексу времени загруженного кошелька,
+    // проходятся только транзакции периода
+    public String summary(LocalDate from, LocalDate to) {
+        return summary(auth.getCurrentSession(), from, to);
+    }
+    public String summary(Session session, LocalDate from, LocalDate to) {
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация");
+        }
+        User user = session.getUser();
+        Wallet w = user.getWallet();
+        return reports.get(user.getLogin(), "summary", from + ".." + to, w, () -> {
+            LocalDateTime start = startOf(from);
+            LocalDateTime end = startOfNextDay(to);
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Пользователь: %s\n", user.getLogin()));
+            sb.append(String.format("Период: %s - %s\n", from == null ? "начало" : from, to == null ? "сейчас" : to));
+            sb.append(String.format("Транзакций за период: %d\n", w.countBetween(start, end)));
+            CentsMap incomes = w.totalsByCategoryCents(Transaction.Type.INCOME, start, end);
+            sb.append(String.format("Доход за период: %.2f\n", Money.toAmount(sum(incomes))));
+            if (!incomes.isEmpty()) {
+                sb.append("Доходы по категориям:\n");
+                incomes.forEach((k,v)-> sb.append(String.format("  %s: %.2f\n", k, Money.toAmount(v))));
+            }
+            CentsMap expenses = w.totalsByCategoryCents(Transaction.Type.EXPENSE, start, end);
+            sb.append(String.format("Расходы за период: %.2f\n", Money.toAmount(sum(expenses))));
+            if (!expenses.isEmpty()) {
+                sb.append("Расходы по категориям:\n");
+                expenses.forEach((k,v)-> sb.append(String.format("  %s: %.2f\n", k, Money.toAmount(v))));
+            }
+            return sb.toString();
+        });
+    }
+
+    private static long sum(CentsMap byCategory) {
+        long sum = 0;
+        for (int i = 0; i < byCategory.slots(); i++) {
+            sum += byCategory.valueAt(i); // у пустых слотов 0
+        }
+        return sum;
+    }
+    private static LocalDateTime startOf(LocalDate day) {
+        return day == null ? null : day.atStartOfDay();
+    }
+    private static LocalDateTime startOfNextDay(LocalDate day) {
+        return day == null ? null : day.plusDays(1).atStartOfDay();
+    }
+
+    public String showTransactions() {
+        return showTransactions(auth.getCurrentSession());
+    }
+    public String showTransactions(Session session) {
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация");
         }
-        Wallet w = auth.getCurrentUser().getWallet();
+        TransactionSource w = session.getUser().readView();
         StringBuilder sb = new StringBuilder();
-        sb.append(String.format("Пользователь: %s\n", auth.getCurrentUser().getLogin()));
-        sb.append(String.format("Общий доход: %.2f\n", w.totalIncome()));
-        Map<String, Double> incomes = w.totalsByCategory(Transaction.Type.INCOME);
-        if (!incomes.isEmpty()) {
-            sb.append("Доходы по категориям:\n");
-            incomes.forEach((k,v)-> sb.append(String.format("  %s: %.2f\n", k, v)));
-        }
-        sb.append(String.format("Общие расходы: %.2f\n", w.totalExpense()));
-        Map<String, Double> expenses = w.totalsByCategory(Transaction.Type.EXPENSE);
-        if (!expenses.isEmpty()) {
-            sb.append("Расходы по категориям:\n");
-            expenses.forEach((k,v)-> sb.append(String.format("  %s: %.2f\n", k, v)));
-        }
-        sb.append("Бюджеты по категориям и остатки:\n");
-        w.getBudgets().forEach((cat, bud)-> {
-            double spent = w.spentInCategory(cat);
-            double remaining = bud - spent;
-            sb.append(String.format("  %s: %,.2f, Оставшийся бюджет: %,.2f\n", cat, bud, remaining));
-        });
+        sb.append("Транзакции:\n");
+        w.forEachTransaction((type, category, cents, created, note) ->
+                sb.append("  ").append(Transaction.format(type, category, cents, created, note)).append("\n"));
         return sb.toString();
     }
 
-    public String showTransactions() {
-        if (!auth.isAuthenticated()) {
-            return "Нужна авторизация";
+    // одна страница транзакций: after - курсор из предыдущего ответа (null - с начала), reverse - от новых к старым
+    public String showTransactions(int limit, String after, boolean reverse) {
+        return showTransactions(auth.getCurrentSession(), limit, after, reverse);
+    }
+    public String showTransactions(Session session, int limit, String after, boolean reverse) {
+        return showTransactions(session, limit, after, reverse, null, null);
+    }
+    // с границами дат (включительно, null - без границы) транзакции идут по времени создания, иначе - в порядке добавления
+    public String showTransactions(int limit, String after, boolean reverse, LocalDate from, LocalDate to) {
+        return showTransactions(auth.getCurrentSession(), limit, after, reverse, from, to);
+    }
+    public String showTransactions(Session session, int limit, String after, boolean reverse, LocalDate from, LocalDate to) {
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация");
+        }
+        if (limit <= 0) {
+            return refuse("Размер страницы должен быть > 0");
+        }
+        Wallet w = session.getUser().getWallet();
+        Wallet.Page page;
+        try {
+            page = from == null && to == null ? w.page(after, limit, reverse)
+                    : w.pageBetween(startOf(from), startOfNextDay(to), after, limit, reverse);
+        } catch (IllegalArgumentException e) {
+            return refuse("Ошибка: " + e.getMessage());
         }
-        Wallet w = auth.getCurrentUser().getWallet();
         StringBuilder sb = new StringBuilder();
         sb.append("Транзакции:\n");
-        for(Transaction t: w.getTransactions()) {
+        for (Transaction t : page.getItems()) {
             sb.append("  ").append(t).append("\n");
         }
+        if (page.getNextCursor() == null) {
+            sb.append("Конец списка.");
+        } else {
+            sb.append("Следующая страница: transactions --limit ").append(limit)
+                    .append(" --after ").append(page.getNextCursor())
+                    .append(from != null ? " --from " + from : "")
+                    .append(to != null ? " --to " + to : "")
+                    .append(reverse ? " --reverse" : "");
+        }
         return sb.toString();
     }
 
     public String exportCsv() {
-        if (!auth.isAuthenticated()) {
-            return "Нужна авторизация";
+        return exportCsv(auth.getCurrentSession());
+    }
+    public String exportCsv(Session session) {
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация");
         }
-        Wallet w = auth.getCurrentUser().getWallet();
-        StringBuilder sb = new StringBuilder();
-        sb.append("type,category,amount,note,created\n");
-        for(Transaction t: w.getTransactions()) {
-            sb.append(t.getType()).append(",")
-                    .append("\"").append(t.getCategory().replace("\"","'")).append("\",")
-                    .append(t.getAmount()).append(",")
-                    .append("\"").append(t.getNote().replace("\"","'")).append("\",")
-                    .append(t.getCreatedStr())
-                    .append("\n");
+        StringWriter out = new StringWriter();
+        try {
+            new CsvExporter(out).write(exportSource(session.getUser()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringWriter не бросает IOException
+        }
+        return out.toString();
+    }
+
+    // потоковая выгрузка без сборки всего CSV в памяти; Writer не закрывается
+    public String exportCsv(Session session, Writer out) throws IOException {
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация");
+        }
+        int rows = new CsvExporter(out).write(exportSource(session.getUser()));
+        return "Экспортировано транзакций: " + rows;
+    }
+
+    // выгрузка идет из снимка кошелька (O(категорий) под блокировкой чтения), а не из самого кошелька:
+    // медленный получатель или сжатие gzip не держат блокировку, и изменения кошелька не ждут конца выгрузки
+    private static TransactionSource exportSource(User user) {
+        TransactionSource source = user.readView();
+        return source instanceof Wallet ? ((Wallet) source).snapshot() : source;
+    }
+
+    public String exportCsv(WritableByteChannel ch, boolean gzip) throws IOException {
+        return exportCsv(auth.getCurrentSession(), ch, gzip);
+    }
+    // в канал в UTF-8, с gzip - сжатым; канал закрывается после выгрузки (нужно, чтобы дописать конец gzip)
+    public String exportCsv(Session session, WritableByteChannel ch, boolean gzip) throws IOException {
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация");
+        }
+        try (Writer out = CsvExporter.channelWriter(ch, gzip)) {
+            return exportCsv(session, out);
         }
-        return sb.toString();
     }
 
     public String renameCategory(String oldCategory, String newCategory) {
-        if (!auth.isAuthenticated()) {
-            return "Нужна авторизация";
+        return renameCategory(auth.getCurrentSession(), oldCategory, newCategory);
+    }
+    public String renameCategory(Session session, String oldCategory, String newCategory) {
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация");
         }
 
         if (oldCategory == null || newCategory == null || oldCategory.trim().isEmpty() || newCategory.trim().isEmpty()) {
-            return "Имена категорий не могут быть пустыми";
+            return refuse("Имена категорий не могут быть пустыми");
         }
 
         if (oldCategory.equals(newCategory)) {
-            return "Новое имя категории совпадает со старым";
+            return refuse("Новое имя категории совпадает со старым");
         }
 
-        Wallet w = auth.getCurrentUser().getWallet();
-
-        if (!w.hasCategory(oldCategory)) {
-            return "Категория \"" + oldCategory + "\" не найдена";
-        }
+        User user = session.getUser();
+        Wallet w = user.getWallet();
+        return mutate(w, () -> {
+            if (!w.hasCategory(oldCategory)) {
+                return refuse("Категория \"" + oldCategory + "\" не найдена");
+            }
 
-        if (w.hasCategory(newCategory)) {
-            return "Категория \"" + newCategory + "\" уже существует";
-        }
+            if (w.hasCategory(newCategory)) {
+                return refuse("Категория \"" + newCategory + "\" уже существует");
+            }
 
-        if (w.renameCategory(oldCategory, newCategory)) {
-            return String.format("Категория успешно переименована: \"%s\" → \"%s\"", oldCategory, newCategory);
-        } else {
-            return "Не удалось переименовать категорию";
-        }
+            // проверки выше - те же, что в Wallet.renameCategory: записанное в журнал переименование выполнится
+            if (journal != null) {
+                journal.logRenameCategory(user.getLogin(), oldCategory, newCategory);
+            }
+            if (w.renameCategory(oldCategory, newCategory)) {
+                return String.format("Категория успешно переименована: \"%s\" → \"%s\"", oldCategory, newCategory);
+            } else {
+                return refuse("Не удалось переименовать категорию");
+            }
+        });
     }
 
     public String deleteCategory(String category, boolean force) {
-        if (!auth.isAuthenticated()) {
-            return "Нужна авторизация";
+        return deleteCategory(auth.getCurrentSession(), category, force);
+    }
+    public String deleteCategory(Session session, String category, boolean force) {
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация");
         }
 
         if (category == null || category.trim().isEmpty()) {
-            return "Имя категории не может быть пустым";
+            return refuse("Имя категории не может быть пустым");
         }
 
-        Wallet w = auth.getCurrentUser().getWallet();
-
-        if (!w.hasCategory(category)) {
-            return "Категория \"" + category + "\" не найдена";
-        }
+        User user = session.getUser();
+        Wallet w = user.getWallet();
+        return mutate(w, () -> {
+            if (!w.hasCategory(category)) {
+                return refuse("Категория \"" + category + "\" не найдена");
+            }
 
-        if (force) {
-            // Принудительное удаление с транзакциями
-            int removedTransactions = w.forceDeleteCategory(category);
-            if (removedTransactions >= 0) {
-                String message = String.format("Категория \"%s\" удалена. ", category);
-                if (removedTransactions > 0) {
-                    message += String.format("Также удалено %d транзакций.", removedTransactions);
+            if (force) {
+                // Принудительное удаление с транзакциями; категория есть - удаление выполнится
+                if (journal != null) {
+                    journal.logDeleteCategory(user.getLogin(), category, true);
+                }
+                int removedTransactions = w.forceDeleteCategory(category);
+                if (removedTransactions >= 0) {
+                    String message = String.format("Категория \"%s\" удалена. ", category);
+                    if (removedTransactions > 0) {
+                        message += String.format("Также удалено %d транзакций.", removedTransactions);
+                    } else {
+                        message += "Связанные транзакции отсутствовали.";
+                    }
+                    return message;
                 } else {
-                    message += "Связанные транзакции отсутствовали.";
+                    return refuse("Не удалось удалить категорию");
                 }
-                return message;
             } else {
-                return "Не удалось удалить категорию";
-            }
-        } else {
-            // Обычное удаление (без транзакций)
-            if (w.deleteCategory(category)) {
-                return String.format("Категория \"%s\" удалена", category);
-            } else {
-                // Проверяем, есть ли транзакции
-                List<Transaction> transactions = w.getTransactionsByCategory(category);
-                if (!transactions.isEmpty()) {
-                    return String.format("Не удалось удалить категорию \"%s\". " + "С ней связаны %d транзакций. " + "Используйте force-delete-category для принудительного удаления.",
-                                        category, transactions.size());
+                // Обычное удаление (без транзакций); в журнал - только удаление, которое выполнится
+                if (journal != null && w.countByCategory(category) == 0) {
+                    journal.logDeleteCategory(user.getLogin(), category, false);
+                }
+                if (w.deleteCategory(category)) {
+                    return String.format("Категория \"%s\" удалена", category);
                 } else {
-                    return "Не удалось удалить категорию";
+                    // Проверяем, есть ли транзакции
+                    int transactionCount = w.countByCategory(category);
+                    if (transactionCount > 0) {
+                        return refuse(String.format("Не удалось удалить категорию \"%s\". " + "С ней связаны %d транзакций. " + "Используйте force-delete-category для принудительного удаления.",
+                                            category, transactionCount));
+                    } else {
+                        return refuse("Не удалось удалить категорию");
+                    }
                 }
             }
-        }
+        });
     }
-
     public String showCategoryInfo(String category) {
-        if (!auth.isAuthenticated()) {
-            return "Нужна авторизация";
+        return showCategoryInfo(auth.getCurrentSession(), category);
+    }
+    public String showCategoryInfo(Session session, String category) {
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация");
         }
 
         if (category == null || category.trim().isEmpty()) {
-            return "Имя категории не может быть пустым";
+            return refuse("Имя категории не может быть пустым");
         }
 
-        Wallet w = auth.getCurrentUser().getWallet();
-
-        if (!w.hasCategory(category)) {
-            return "Категория \"" + category + "\" не найдена";
-        }
+        Wallet w = session.getUser().getWallet();
+        // отчет по одному состоянию кошелька, даже если его параллельно меняет другая сессия
+        return reports.get(session.getUser().getLogin(), "category-info", category, w, () -> w.read(() -> {
+            if (!w.hasCategory(category)) {
+                return refuse("Категория \"" + category + "\" не найдена");
+            }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append(String.format("Информация о категории: \"%s\"\n", category));
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Информация о категории: \"%s\"\n", category));
 
-        // Бюджет
-        Double budget = w.getBudget(category);
-        if (budget != null) {
-            sb.append(String.format("  Бюджет: %.2f\n", budget));
+            // Бюджет
+            long budget = w.getBudgetCents(category);
+            if (budget >= 0) {
+                sb.append(String.format("  Бюджет: %.2f\n", Money.toAmount(budget)));
 
-            double spent = w.spentInCategory(category);
-            sb.append(String.format("  Потрачено: %.2f\n", spent));
+                long spent = w.spentCentsInCategory(category);
+                sb.append(String.format("  Потрачено: %.2f\n", Money.toAmount(spent)));
 
-            double remaining = budget - spent;
-            sb.append(String.format("  Остаток: %.2f (%.1f%%)\n", remaining, (spent / budget) * 100));
-        } else {
-            sb.append("  Бюджет: не установлен\n");
-        }
+                long remaining = budget - spent;
+                sb.append(String.format("  Остаток: %.2f (%.1f%%)\n", Money.toAmount(remaining), ((double) spent / budget) * 100));
+            } else {
+                sb.append("  Бюджет: не установлен\n");
+            }
 
-        // Транзакции
-        List<Transaction> transactions = w.getTransactionsByCategory(category);
-        sb.append(String.format("  Количество транзакций: %d\n", transactions.size()));
+            // Транзакции
+            List<Transaction> transactions = w.getTransactionsByCategory(category);
+            sb.append(String.format("  Количество транзакций: %d\n", transactions.size()));
 
-        if (!transactions.isEmpty()) {
-            sb.append("  Последние транзакции:\n");
-            int count = Math.min(transactions.size(), 5);
-            for (int i = 0; i < count; i++) {
-                Transaction t = transactions.get(transactions.size() - 1 - i); // Сначала новые
-                sb.append(String.format("    %s\n", t));
+            if (!transactions.isEmpty()) {
+                sb.append("  Последние транзакции:\n");
+                int count = Math.min(transactions.size(), 5);
+                for (int i = 0; i < count; i++) {
+                    Transaction t = transactions.get(transactions.size() - 1 - i); // Сначала новые
+                    sb.append(String.format("    %s\n", t));
+                }
             }
-        }
 
-        return sb.toString();
+            return sb.toString();
+        }));
     }
 
     public String listCategories() {
-        if (!auth.isAuthenticated()) {
-            return "Нужна авторизация";
+        return listCategories(auth.getCurrentSession());
+    }
+    public String listCategories(Session session) {
+        if (!auth.isActive(session)) {
+            return refuse("Нужна авторизация");
         }
 
-        Wallet w = auth.getCurrentUser().getWallet();
-        Set<String> categories = w.getCategories();
+        Wallet w = session.getUser().getWallet();
+        int[] thresholds = budgetThresholds; // пороги - часть ключа: после их смены отчет строится заново
+        return reports.get(session.getUser().getLogin(), "list-categories", Arrays.toString(thresholds), w, () -> w.read(() -> {
+            Set<String> categories = w.getCategories();
 
-        if (categories.isEmpty()) {
-            return "Категории не созданы. Используйте create-category <name>";
-        }
+            if (categories.isEmpty()) {
+                return "Категории не созданы. Используйте create-category <name>";
+            }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("Категории:\n");
-
-        for (String category : categories) {
-            sb.append(String.format("  %s", category));
-
-            Double budget = w.getBudget(category);
-            if (budget != null) {
-                double spent = w.spentInCategory(category);
-                double remaining = budget - spent;
-                sb.append(String.format(" | Бюджет: %.2f, Потрачено: %.2f, Остаток: %.2f", budget, spent, remaining));
-
-                // Индикатор использования
-                double percentage = (spent / budget) * 100;
-                if (percentage >= 100) {
-                    sb.append(" [ПРЕВЫШЕНИЕ]");
-                } else if (percentage >= 80) {
-                    sb.append(" [>80%]");
+            StringBuilder sb = new StringBuilder();
+            sb.append("Категории:\n");
+
+            for (String category : categories) {
+                sb.append(String.format("  %s", category));
+
+                long budget = w.getBudgetCents(category);
+                if (budget >= 0) {
+                    long spent = w.spentCentsInCategory(category);
+                    long remaining = budget - spent;
+                    sb.append(String.format(" | Бюджет: %.2f, Потрачено: %.2f, Остаток: %.2f",
+                            Money.toAmount(budget), Money.toAmount(spent), Money.toAmount(remaining)));
+
+                    // Индикатор использования - самый высокий пройденный порог
+                    int level = w.budgetLevel(category, thresholds);
+                    if (level >= 100) {
+                        sb.append(" [ПРЕВЫШЕНИЕ]");
+                    } else if (level > 0) {
+                        sb.append(String.format(" [>%d%%]", level));
+                    }
                 }
-            }
 
-            int transactionCount = w.getTransactionsByCategory(category).size();
-            sb.append(String.format(" | Транзакций: %d", transactionCount));
+                int transactionCount = w.countByCategory(category);
+                sb.append(String.format(" | Транзакций: %d", transactionCount));
 
-            sb.append("\n");
-        }
+                sb.append("\n");
+            }
 
-        return sb.toString();
+            return sb.toString();
+        }));
     }
 }
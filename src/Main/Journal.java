@@ -0,0 +1,519 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+// журнал изменений (write-ahead log): каждая операция дописывается в конец файла компактной записью,
+// при загрузке журнал проигрывается поверх снимка. Вызов log* возвращается только после fsync своей записи;
+// fsync общий (group commit): первый ждущий поток сбрасывает на диск все, что дописано к этому моменту,
+// остальные ждут его и подтверждаются той же пачкой, а записи, пришедшие во время fsync, уходят следующей
+public class Journal implements Closeable {
+    private static final byte REGISTER = 1;
+    private static final byte CATEGORY = 2;
+    private static final byte BUDGET = 3;
+    private static final byte TRANSACTION = 4;
+    private static final byte TRANSFER = 5;
+    private static final byte RENAME_CATEGORY = 6;
+    private static final byte DELETE_CATEGORY = 7;
+    private static final byte TRANSACTIONS = 8; // пачка транзакций одного пользователя (импорт)
+    private static final byte PASSWORD = 9;     // новый хеш пароля после входа
+    // флаг в типе записи: суммы в копейках (long); записи без него - из старых версий, с суммами double
+    private static final int CENTS = 0x40;
+    // флаг в типе записи: строки - длина (int) и байты UTF-8; без него - writeUTF, не длиннее 64 КБ
+    private static final int UTF8 = 0x20;
+    private static final int MAX_RECORD = 1 << 24; // длиннее запись не пишется и при чтении считается мусором
+
+    private final File file;
+
+    // запись собирается в буфер, чтобы посчитать длину и контрольную сумму
+    private final ByteArrayOutputStream recordBuf = new ByteArrayOutputStream(256);
+    private final DataOutputStream record = new DataOutputStream(recordBuf);
+    private final CRC32 crc = new CRC32();
+
+    // изменение кошелька вместе с его записью в журнал (разделяемо) против контрольной точки (монопольно):
+    // снимок не должен захватить изменение, запись которого попадет в журнал уже после очистки
+    private final ReentrantReadWriteLock barrier = new ReentrantReadWriteLock();
+
+    private FileOutputStream fos;
+    private DataOutputStream out;
+    private long validLength = -1; // длина целой части файла, известна после проигрывания
+    private long lastLsn;          // номер последней записи
+    private long durableLsn;       // записи до этого номера включительно уже на диске
+    private boolean syncing;       // идет fsync вне блокировки журнала, остальные ждут его
+    private int sinceCheckpoint;   // записей с последнего снимка
+
+    public Journal(File file) {
+        this.file = file;
+    }
+
+    private interface Record {
+        void write() throws IOException;
+    }
+
+    // проигрывает записи с номером больше afterLsn; битый или недописанный хвост отбрасывается
+    public synchronized void replay(Map<String, User> users, long afterLsn) throws IOException {
+        commit();
+        lastLsn = Math.max(lastLsn, afterLsn);
+        validLength = 0;
+        sinceCheckpoint = 0;
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] payload = new byte[256];
+            while (true) {
+                int len;
+                int checksum;
+                try {
+                    len = in.readInt();
+                    checksum = in.readInt();
+                    if (len <= 0 || len > MAX_RECORD) {
+                        break;
+                    }
+                    if (payload.length < len) {
+                        payload = new byte[len];
+                    }
+                    in.readFully(payload, 0, len);
+                } catch (EOFException e) {
+                    break; // запись оборвалась на середине
+                }
+                crc.reset();
+                crc.update(payload, 0, len);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                validLength += 8 + len;
+                DataInputStream rec = new DataInputStream(new ByteArrayInputStream(payload, 0, len));
+                long lsn = rec.readLong();
+                if (lsn > afterLsn) {
+                    if (users != null) {
+                        apply(users, rec, lsn);
+                    }
+                    sinceCheckpoint++;
+                }
+                lastLsn = Math.max(lastLsn, lsn);
+            }
+        }
+        durableLsn = lastLsn;
+        if (users != null) {
+            for (User u : users.values()) {
+                if (u.isWalletLoaded()) {
+                    u.getWallet().settleBudgets(); // оповещения по повторенным записям уже выдавались до сбоя
+                }
+            }
+        }
+    }
+
+    // записи, которые уже есть в сохраненном файле кошелька, пропускаются
+    private void apply(Map<String, User> users, DataInputStream rec, long lsn) throws IOException {
+        byte op = rec.readByte();
+        boolean cents = (op & CENTS) != 0;
+        boolean utf8 = (op & UTF8) != 0;
+        op &= ~(CENTS | UTF8);
+        String login = readString(rec, utf8);
+        if (op == REGISTER) {
+            users.putIfAbsent(login, User.restore(login, readString(rec, utf8)));
+            return;
+        }
+        User u = users.get(login);
+        if (u == null) {
+            return; // пользователь не найден - запись пропускаем
+        }
+        if (op == PASSWORD) {
+            u.setPasswordHash(readString(rec, utf8)); // кошелек не нужен, поэтому до getWallet
+            return;
+        }
+        Wallet w = u.getWallet();
+        boolean applied = lsn <= w.getPersistedLsn();
+        if (applied && op != TRANSFER) {
+            return;
+        }
+        switch (op) {
+            case CATEGORY:
+                w.addCategory(readString(rec, utf8));
+                break;
+            case BUDGET:
+                w.setBudgetCents(readString(rec, utf8), readAmount(rec, cents));
+                break;
+            case TRANSACTION:
+                w.addTransaction(readTransaction(rec, cents, utf8));
+                break;
+            case TRANSACTIONS: {
+                int count = rec.readInt();
+                List<Transaction> batch = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    batch.add(readTransaction(rec, cents, utf8));
+                }
+                w.addTransactions(batch);
+                break;
+            }
+            case TRANSFER: {
+                Transaction txOut = readTransaction(rec, cents, utf8);
+                User to = users.get(readString(rec, utf8));
+                Transaction txIn = readTransaction(rec, cents, utf8);
+                if (!applied) {
+                    w.addTransaction(txOut);
+                }
+                if (to != null && lsn > to.getWallet().getPersistedLsn()) {
+                    to.getWallet().addTransaction(txIn);
+                }
+                break;
+            }
+            case RENAME_CATEGORY:
+                w.renameCategory(readString(rec, utf8), readString(rec, utf8));
+                break;
+            case DELETE_CATEGORY: {
+                String category = readString(rec, utf8);
+                if (rec.readBoolean()) {
+                    w.forceDeleteCategory(category);
+                } else {
+                    w.deleteCategory(category);
+                }
+                break;
+            }
+            default:
+                throw new IOException("Неизвестный тип записи журнала: " + op);
+        }
+    }
+
+    // log*: запись делается до изменения в памяти; ошибка записи - UncheckedIOException, изменение тогда не применяют
+    public Lock mutationLock() {
+        return barrier.readLock();
+    }
+
+    public Lock checkpointLock() {
+        return barrier.writeLock();
+    }
+
+    public void logRegister(User u) {
+        sync(append(() -> {
+            begin(REGISTER, u.getLogin());
+            writeString(u.getPasswordHash());
+        }));
+    }
+
+    public void logPassword(String login, String passwordHash) {
+        sync(append(() -> {
+            begin(PASSWORD, login);
+            writeString(passwordHash);
+        }));
+    }
+
+    public void logCategory(String login, String category) {
+        sync(append(() -> {
+            begin(CATEGORY, login);
+            writeString(category);
+        }));
+    }
+
+    public void logBudget(String login, String category, long cents) {
+        sync(append(() -> {
+            begin(BUDGET, login);
+            writeString(category);
+            record.writeLong(cents);
+        }));
+    }
+
+    public void logTransaction(String login, Transaction tx) {
+        sync(append(() -> {
+            begin(TRANSACTION, login);
+            writeTransaction(tx);
+        }));
+    }
+
+    // вся пачка одной записью: при восстановлении применяется целиком или не применяется
+    public void logTransactions(String login, List<Transaction> batch) {
+        sync(append(() -> {
+            begin(TRANSACTIONS, login);
+            record.writeInt(batch.size());
+            for (Transaction tx : batch) {
+                writeTransaction(tx);
+            }
+        }));
+    }
+
+    // обе части перевода в одной записи, чтобы при восстановлении не получить расход без дохода
+    public void logTransfer(String fromLogin, Transaction txOut, String toLogin, Transaction txIn) {
+        sync(append(() -> {
+            begin(TRANSFER, fromLogin);
+            writeTransaction(txOut);
+            writeString(toLogin);
+            writeTransaction(txIn);
+        }));
+    }
+
+    public void logRenameCategory(String login, String oldCategory, String newCategory) {
+        sync(append(() -> {
+            begin(RENAME_CATEGORY, login);
+            writeString(oldCategory);
+            writeString(newCategory);
+        }));
+    }
+
+    public void logDeleteCategory(String login, String category, boolean force) {
+        sync(append(() -> {
+            begin(DELETE_CATEGORY, login);
+            writeString(category);
+            record.writeBoolean(force);
+        }));
+    }
+
+    // сбрасывает на диск все дописанное; ошибка - UncheckedIOException
+    public synchronized void commit() {
+        if (out == null || durableLsn == lastLsn) {
+            return;
+        }
+        try {
+            out.flush();
+            fos.getChannel().force(false);
+            durableLsn = lastLsn;
+        } catch (IOException e) {
+            throw fail(e);
+        }
+    }
+
+    // запись в буфер под блокировкой журнала; возвращает номер записи
+    private synchronized long append(Record body) {
+        try {
+            body.write();
+            return end();
+        } catch (IOException e) {
+            throw fail(e);
+        }
+    }
+
+    // ждет, пока запись lsn окажется на диске; fsync делает первый ждущий, без блокировки журнала,
+    // чтобы другие потоки тем временем дописывали следующую пачку
+    private void sync(long lsn) {
+        FileChannel ch;
+        long upTo;
+        synchronized (this) {
+            boolean interrupted = false;
+            while (syncing && durableLsn < lsn) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true; // запись уже в буфере: дожидаемся ее, прерывание сообщаем потом
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (durableLsn >= lsn) {
+                return;
+            }
+            if (out == null) {
+                throw new UncheckedIOException(new IOException("Ошибка записи журнала: запись не попала на диск"));
+            }
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw fail(e);
+            }
+            syncing = true;
+            upTo = lastLsn;
+            ch = fos.getChannel();
+        }
+        IOException error = null;
+        try {
+            ch.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            syncing = false;
+            notifyAll();
+            if (error == null) {
+                durableLsn = Math.max(durableLsn, upTo);
+            } else if (durableLsn < lsn) { // если журнал тем временем закрыли, close уже сбросил записи сам
+                throw fail(error);
+            }
+        }
+    }
+
+    // при закрытии: ошибку только выводим
+    private void commitQuietly() {
+        try {
+            commit();
+        } catch (UncheckedIOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    // вызывается после записи снимка: все записи уже в снимке, журнал начинается заново
+    public synchronized void reset() throws IOException {
+        commit();
+        open();
+        fos.getChannel().truncate(0);
+        validLength = 0;
+        sinceCheckpoint = 0;
+    }
+
+    // снимок записан в фоне и содержит записи до lsn включительно; записи, сделанные во время записи снимка,
+    // переносятся в новый файл журнала, который атомарно подменяет старый. Сбой до подмены оставляет старый журнал
+    // целиком - при загрузке лишние записи пропускаются по номеру
+    public synchronized void dropUpTo(long lsn) throws IOException {
+        if (lsn >= lastLsn) {
+            reset();
+            return;
+        }
+        commit();
+        long end = file.length(); // после commit в файле только целые записи
+        long keepFrom = -1;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            long offset = 0;
+            while (offset < end) {
+                int len = in.readInt();
+                in.readInt(); // контрольная сумма
+                long recLsn = in.readLong();
+                if (recLsn > lsn) {
+                    keepFrom = offset;
+                    break;
+                }
+                if (in.skipBytes(len - 8) != len - 8) {
+                    throw new EOFException("журнал оборван");
+                }
+                offset += 8 + len;
+            }
+        }
+        if (keepFrom < 0) {
+            reset();
+            return;
+        }
+        close();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel src = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long count = end - keepFrom;
+            for (long done = 0; done < count; ) {
+                done += src.transferTo(keepFrom + done, count - done, dst);
+            }
+            dst.force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        validLength = end - keepFrom;
+        sinceCheckpoint = (int) (lastLsn - lsn);
+    }
+
+    public synchronized long getLastLsn() {
+        return lastLsn;
+    }
+
+    public synchronized int getRecordsSinceCheckpoint() {
+        return sinceCheckpoint;
+    }
+
+    @Override
+    public synchronized void close() {
+        commitQuietly();
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.err.println("Ошибка записи журнала: " + e.getMessage());
+            }
+            out = null;
+            fos = null;
+        }
+    }
+
+    private void open() throws IOException {
+        if (out != null) {
+            return;
+        }
+        if (validLength < 0) {
+            // журнал еще не читали или запись в него сорвалась - только ищем конец целых записей
+            int since = sinceCheckpoint;
+            replay(null, lastLsn);
+            sinceCheckpoint = since;
+        }
+        fos = new FileOutputStream(file, true);
+        if (fos.getChannel().size() > validLength) {
+            fos.getChannel().truncate(validLength); // отрезаем недописанный хвост
+        }
+        out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+    }
+
+    private void begin(byte op, String login) throws IOException {
+        open();
+        recordBuf.reset();
+        record.writeLong(lastLsn + 1);
+        record.writeByte(op | CENTS | UTF8);
+        writeString(login);
+    }
+
+    private long end() throws IOException {
+        if (recordBuf.size() > MAX_RECORD) {
+            throw new IOException("запись журнала длиннее " + MAX_RECORD + " байт"); // в файл еще ничего не попало
+        }
+        crc.reset();
+        crc.update(recordBuf.toByteArray(), 0, recordBuf.size());
+        out.writeInt(recordBuf.size());
+        out.writeInt((int) crc.getValue());
+        recordBuf.writeTo(out);
+        sinceCheckpoint++;
+        return ++lastLsn;
+    }
+
+    private void writeTransaction(Transaction tx) throws IOException {
+        record.writeByte(tx.getType().ordinal());
+        writeString(tx.getCategory());
+        record.writeLong(tx.getCents());
+        writeString(tx.getNote());
+        record.writeLong(tx.getCreatedMillis());
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        record.writeInt(bytes.length);
+        record.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, boolean utf8) throws IOException {
+        if (!utf8) {
+            return in.readUTF();
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Transaction readTransaction(DataInputStream in, boolean cents, boolean utf8) throws IOException {
+        Transaction.Type type = Transaction.Type.values()[in.readByte()];
+        String category = readString(in, utf8);
+        long amount = readAmount(in, cents);
+        String note = readString(in, utf8);
+        return Transaction.ofCents(type, category, amount, note, Transaction.fromMillis(in.readLong()));
+    }
+
+    private static long readAmount(DataInputStream in, boolean cents) throws IOException {
+        return cents ? in.readLong() : Money.toCents(in.readDouble());
+    }
+
+    // в файле мог остаться кусок записи: поток закрывается, при следующей записи журнал дочитывается
+    // до конца целых записей и обрезается (open)
+    private UncheckedIOException fail(IOException e) {
+        if (out != null) {
+            try {
+                out.flush(); // целые записи до сорвавшейся все же стараемся сохранить
+                fos.getChannel().force(false);
+                durableLsn = lastLsn; // номер сорвавшейся записи не выдан
+                out.close();
+            } catch (IOException ignored) {
+                // файл все равно обрежется по целым записям
+            }
+            out = null;
+            fos = null;
+        }
+        validLength = -1;
+        return new UncheckedIOException("Ошибка записи журнала: " + e.getMessage(), e);
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// гистограмма задержек в наносекундах в духе HdrHistogram: на каждую степень двойки 32 корзины одинаковой ширины,
+// поэтому относительная погрешность перцентилей не больше 1/32 (~3%) на всем диапазоне от наносекунд до минут.
+// запись - один индекс по старшему биту и одно атомарное увеличение, без блокировок и без создания объектов
+final class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final long MAX_VALUE = (1L << 40) - 1; // ~18 минут; больше - считается как этот предел
+
+    private final AtomicLongArray buckets = new AtomicLongArray(index(MAX_VALUE) + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        long v = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        buckets.incrementAndGet(index(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        if (v > max.get()) {
+            max.accumulateAndGet(v, Math::max);
+        }
+    }
+
+    long count() {
+        return count.get();
+    }
+    long sum() {
+        return sum.get();
+    }
+    long max() {
+        return max.get();
+    }
+
+    // верхняя граница корзины, в которую попал перцентиль p (0-100), но не больше точного максимума
+    long percentile(double p) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(highest(i), max.get());
+            }
+        }
+        return max.get(); // запись шла параллельно с чтением
+    }
+
+    // значения до 2*SUB_COUNT лежат по одному в корзине, дальше ширина корзины удваивается на каждой степени двойки
+    static int index(long v) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(v) - SUB_BITS);
+        return (shift << SUB_BITS) + (int) (v >>> shift);
+    }
+
+    static long highest(int index) {
+        int shift = Math.max(0, (index >>> SUB_BITS) - 1);
+        long sub = index - ((long) shift << SUB_BITS);
+        return ((sub + 1) << shift) - 1;
+    }
+}
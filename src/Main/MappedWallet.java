@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+import java.util.zip.Inflater;
+
+// файл кошелька (формат WalletCodec), отображенный в память только для чтения: блоки с транзакциями
+// распаковываются по одному в переиспользуемый буфер прямо при обходе, объекты Transaction не создаются.
+// read - тот же разбор поверх файла, прочитанного в кучу, без отображения
+public class MappedWallet implements TransactionSource {
+    private static final Transaction.Type[] TYPES = Transaction.Type.values();
+
+    private final ByteBuffer data;
+    private final int[] blocks;  // смещения кадров с транзакциями
+    private final int maxRaw;    // самый большой блок после распаковки
+    private final CentsMap budgets;
+    private final int count;
+    private volatile CentsMap[] sums; // [тип]: категория -> сумма в копейках, из META или при первом обращении
+
+    private MappedWallet(ByteBuffer data, WalletCodec.Layout layout) {
+        this.data = data;
+        this.blocks = layout.blocks;
+        this.maxRaw = layout.maxRaw;
+        this.count = layout.count;
+        this.budgets = layout.meta.budgets;
+        this.sums = layout.meta.sums; // суммы по категориям записаны в файл - блоки с транзакциями для них не нужны
+    }
+
+    // null, если файл другой версии, слишком большой для одного отображения или поврежден: тогда кошелек
+    // загружается обычным способом, который пропустит поврежденные блоки и сообщит о них.
+    // при открытии проверяются контрольные суммы всех блоков, распаковывается только блок с бюджетами
+    public static MappedWallet open(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < WalletCodec.HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            return parse(ch.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    // для обхода многих файлов подряд (Analytics): отображение освобождается только сборщиком мусора,
+    // и у тысяч непрочитанных еще объектов отображений стало бы больше, чем разрешает система
+    // (vm.max_map_count). Прочитанный файл уходит вместе с объектом как обычная память
+    public static MappedWallet read(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < WalletCodec.HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer data = ByteBuffer.allocate((int) size);
+            while (data.hasRemaining()) {
+                if (ch.read(data) < 0) {
+                    return null; // файл укоротили во время чтения
+                }
+            }
+            return parse(data);
+        }
+    }
+
+    private static MappedWallet parse(ByteBuffer data) {
+        WalletCodec.Layout layout = WalletCodec.layout(data);
+        return layout == null ? null : new MappedWallet(data, layout);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public void forEachTransaction(TransactionVisitor visitor) {
+        CRC32C crc = new CRC32C();
+        Inflater inflater = new Inflater();
+        byte[] raw = new byte[maxRaw];
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        CharBuffer note = CharBuffer.allocate(256);
+        try {
+            for (int p : blocks) {
+                int packed = BlockFile.packedLength(data, p, crc);
+                // контрольные суммы проверены при открытии, файл не меняется: не распаковался - ошибка программы
+                if (packed < 0 || !BlockFile.unpack(data, p, packed, raw, crc, inflater)) {
+                    throw new IllegalStateException("блок файла кошелька не распаковался");
+                }
+                ByteBuffer b = ByteBuffer.wrap(raw, 1, BlockFile.rawLength(data, p) - 1);
+                ByteBuffer noteBytes = b.duplicate();
+                String[] dictionary = WalletCodec.readDictionary(b);
+                int n = BlockFile.getVarInt(b);
+                long millis = 0;
+                for (int i = 0; i < n; i++) {
+                    Transaction.Type type = TYPES[b.get()];
+                    String category = dictionary[BlockFile.getVarInt(b)];
+                    long cents = WalletCodec.unZigZag(BlockFile.getVarLong(b));
+                    millis += WalletCodec.unZigZag(BlockFile.getVarLong(b));
+                    int len = BlockFile.getVarInt(b);
+                    if (len == 0) {
+                        visitor.visit(type, category, cents, millis, "");
+                        continue;
+                    }
+                    // заметку декодируем в переиспользуемый буфер символов
+                    int pos = b.position();
+                    noteBytes.limit(pos + len).position(pos);
+                    if (note.capacity() < len) {
+                        note = CharBuffer.allocate(len);
+                    }
+                    note.clear();
+                    decoder.reset();
+                    decoder.decode(noteBytes, note, true);
+                    decoder.flush(note);
+                    note.flip();
+                    b.position(pos + len);
+                    visitor.visit(type, category, cents, millis, note);
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private CentsMap[] sums() {
+        if (sums == null) {
+            CentsMap[] res = new CentsMap[TYPES.length];
+            for (int i = 0; i < res.length; i++) {
+                res[i] = new CentsMap();
+            }
+            // в суммах только категории, по которым были транзакции, как у Wallet
+            forEachTransaction((type, category, cents, created, note) -> res[type.ordinal()].add(category, cents));
+            sums = res;
+        }
+        return sums;
+    }
+
+    @Override
+    public long totalCents(Transaction.Type type) {
+        long[] sum = new long[1];
+        sums()[type.ordinal()].forEach((category, cents) -> sum[0] += cents);
+        return sum[0];
+    }
+
+    @Override
+    public CentsMap totalsByCategoryCents(Transaction.Type type) {
+        return sums()[type.ordinal()].copy();
+    }
+
+    @Override
+    public long spentCentsInCategory(String category) {
+        long[] sum = new long[1];
+        sums()[Transaction.Type.EXPENSE.ordinal()].forEach((name, cents) -> {
+            if (name.equalsIgnoreCase(category)) {
+                sum[0] += cents;
+            }
+        });
+        return sum[0];
+    }
+
+    @Override
+    public CentsMap getBudgetsCents() {
+        return budgets.copy();
+    }
+
+    // файл только для чтения не меняется: номер постоянный. Новый файл кошелька - новый объект MappedWallet,
+    // изменения идут уже в загруженный Wallet - тоже другой объект, поэтому нулевой номер не путает кеш отчетов
+    @Override
+    public long getVersion() {
+        return 0;
+    }
+}
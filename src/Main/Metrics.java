@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// встроенные метрики: задержка и выделенная память на каждую команду консоли, время сохранений и загрузок
+// хранилища и записанные байты. Замер - два вызова nanoTime и два чтения счетчика памяти потока,
+// запись - атомарные счетчики без блокировок, поэтому метрики включены всегда
+public class Metrics {
+    private final long startedNanos = System.nanoTime();
+    private final Map<String, Command> commands = new ConcurrentHashMap<>();
+    private final LatencyHistogram saves = new LatencyHistogram();
+    private final LatencyHistogram loads = new LatencyHistogram();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    // счетчик выделенной потоком памяти есть не во всех JVM; без него память команд не считается
+    private final com.sun.management.ThreadMXBean threads = allocationCounter();
+
+    private static final class Command {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong allocated = new AtomicLong();
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+                if (mx.isThreadAllocatedMemorySupported() && mx.isThreadAllocatedMemoryEnabled()) {
+                    return mx;
+                }
+            }
+        } catch (LinkageError e) {
+            // модуля jdk.management нет
+        }
+        return null;
+    }
+
+    // байты, выделенные текущим потоком с его старта; -1 - счетчик недоступен
+    public long allocatedBytes() {
+        return threads == null ? -1 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // startNanos и startAllocated - значения System.nanoTime() и allocatedBytes() перед выполнением команды
+    public void recordCommand(String name, long startNanos, long startAllocated) {
+        long nanos = System.nanoTime() - startNanos;
+        long allocated = startAllocated < 0 ? 0 : allocatedBytes() - startAllocated;
+        Command c = commands.computeIfAbsent(name, n -> new Command());
+        c.latency.record(nanos);
+        c.allocated.addAndGet(allocated);
+    }
+
+    public void recordSave(long nanos, long bytes) {
+        saves.record(nanos);
+        bytesWritten.addAndGet(bytes);
+    }
+
+    public void recordLoad(long nanos) {
+        loads.record(nanos);
+    }
+
+    public long commandCount(String name) {
+        Command c = commands.get(name);
+        return c == null ? 0 : c.latency.count();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    // текст для команды stats
+    public String report() {
+        double uptime = (System.nanoTime() - startedNanos) / 1e9;
+        long total = 0;
+        for (Command c : commands.values()) {
+            total += c.latency.count();
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Работа: %.1f с, команд: %d (%.2f в секунду)%n", uptime, total, total / Math.max(uptime, 1e-9)));
+        if (total > 0) {
+            sb.append("Команды (время: p50 / p99 / max, память на команду):\n");
+        }
+        for (Map.Entry<String, Command> e : new TreeMap<>(commands).entrySet()) {
+            LatencyHistogram h = e.getValue().latency;
+            sb.append(String.format("  %s: %d раз, %s / %s / %s", e.getKey(), h.count(),
+                    millis(h.percentile(50)), millis(h.percentile(99)), millis(h.max())));
+            if (threads != null) {
+                sb.append(String.format(", %s", bytes(e.getValue().allocated.get() / h.count())));
+            }
+            sb.append('\n');
+        }
+        sb.append(String.format("Сохранения: %d, %s / %s / %s, записано %s%n", saves.count(),
+                millis(saves.percentile(50)), millis(saves.percentile(99)), millis(saves.max()), bytes(bytesWritten.get())));
+        sb.append(String.format("Загрузки: %d, %s / %s / %s", loads.count(),
+                millis(loads.percentile(50)), millis(loads.percentile(99)), millis(loads.max())));
+        return sb.toString();
+    }
+
+    // текстовый формат Prometheus (exposition format 0.0.4): числа всегда с точкой, время в секундах
+    public void writePrometheus(Writer out) throws IOException {
+        out.write("# HELP financeex_command_duration_seconds Время выполнения команды консоли.\n");
+        out.write("# TYPE financeex_command_duration_seconds summary\n");
+        Map<String, Command> sorted = new TreeMap<>(commands);
+        for (Map.Entry<String, Command> e : sorted.entrySet()) {
+            summary(out, "financeex_command_duration_seconds", "command=\"" + e.getKey() + "\"", e.getValue().latency);
+        }
+        out.write("# HELP financeex_command_allocated_bytes_total Память, выделенная потоком при выполнении команд.\n");
+        out.write("# TYPE financeex_command_allocated_bytes_total counter\n");
+        for (Map.Entry<String, Command> e : sorted.entrySet()) {
+            out.write("financeex_command_allocated_bytes_total{command=\"" + e.getKey() + "\"} " + e.getValue().allocated.get() + "\n");
+        }
+        out.write("# HELP financeex_storage_save_duration_seconds Время сохранения снимка.\n");
+        out.write("# TYPE financeex_storage_save_duration_seconds summary\n");
+        summary(out, "financeex_storage_save_duration_seconds", "", saves);
+        out.write("# HELP financeex_storage_load_duration_seconds Время загрузки каталога и кошельков.\n");
+        out.write("# TYPE financeex_storage_load_duration_seconds summary\n");
+        summary(out, "financeex_storage_load_duration_seconds", "", loads);
+        out.write("# HELP financeex_storage_written_bytes_total Байты, записанные при сохранениях.\n");
+        out.write("# TYPE financeex_storage_written_bytes_total counter\n");
+        out.write("financeex_storage_written_bytes_total " + bytesWritten.get() + "\n");
+        out.write("# HELP financeex_uptime_seconds Время с запуска.\n");
+        out.write("# TYPE financeex_uptime_seconds gauge\n");
+        out.write("financeex_uptime_seconds " + seconds(System.nanoTime() - startedNanos) + "\n");
+    }
+
+    private static void summary(Writer out, String name, String labels, LatencyHistogram h) throws IOException {
+        String sep = labels.isEmpty() ? "" : labels + ",";
+        out.write(name + "{" + sep + "quantile=\"0.5\"} " + seconds(h.percentile(50)) + "\n");
+        out.write(name + "{" + sep + "quantile=\"0.99\"} " + seconds(h.percentile(99)) + "\n");
+        out.write(name + "{" + sep + "quantile=\"1\"} " + seconds(h.max()) + "\n");
+        String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.write(name + "_sum" + suffix + " " + seconds(h.sum()) + "\n");
+        out.write(name + "_count" + suffix + " " + h.count() + "\n");
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f мс", nanos / 1e6);
+    }
+
+    private static String bytes(long n) {
+        if (n < 1024) {
+            return n + " Б";
+        }
+        return n < 1024 * 1024 ? String.format("%.1f КБ", n / 1024.0) : String.format("%.1f МБ", n / (1024.0 * 1024));
+    }
+}
@@ -0,0 +1,32 @@
+// суммы хранятся в копейках (long): сложение точное, без накопления ошибки округления и без упаковки в Double.
+// double остается только на входе (команды, старые файлы) и при выводе
+public final class Money {
+    public static final long MAX_CENTS = 1_000_000_000_000_000L; // 10^13 рублей - сумма многих таких операций не переполнит long
+
+    private Money() {
+    }
+
+    // можно ли хранить сумму: не NaN и не больше MAX_CENTS по модулю
+    public static boolean fits(double amount) {
+        return Math.abs(amount) * 100 <= MAX_CENTS; // для NaN сравнение ложно
+    }
+
+    // округление до копейки: для суммы с двумя знаками после точки дает ровно ее
+    public static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    public static double toAmount(long cents) {
+        return cents / 100.0;
+    }
+
+    // "123.45" без промежуточного double (CSV)
+    public static void append(StringBuilder sb, long cents) {
+        if (cents < 0) {
+            sb.append('-');
+            cents = -cents;
+        }
+        long fraction = cents % 100;
+        sb.append(cents / 100).append('.').append((char) ('0' + fraction / 10)).append((char) ('0' + fraction % 10));
+    }
+}
@@ -0,0 +1,84 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+// хеш пароля PBKDF2-HMAC-SHA256 со случайной солью: "pbkdf2-sha256$<итерации>$<соль>$<хеш>" (base64).
+// число итераций - стоимость проверки, оно хранится в самом хеше, поэтому стоимость можно менять без миграции:
+// хеш с меньшим числом итераций или старого вида (String.hashCode пароля) пересчитывается при следующем входе.
+// стоимость по умолчанию - системное свойство financeex.password.iterations (тесты запускаются с маленькой)
+final class PasswordHasher {
+    static final int DEFAULT_ITERATIONS = Integer.getInteger("financeex.password.iterations", 600_000);
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private PasswordHasher() {
+    }
+
+    static String hash(String password) {
+        return hash(password, DEFAULT_ITERATIONS);
+    }
+
+    static String hash(String password, int iterations) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder b64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + b64.encodeToString(salt) + "$" + b64.encodeToString(pbkdf2(password, salt, iterations));
+    }
+
+    static boolean verify(String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        if (!stored.startsWith(PREFIX)) {
+            // старый вид; сравнение без раннего выхода, как и для PBKDF2
+            return MessageDigest.isEqual(stored.getBytes(StandardCharsets.UTF_8), Integer.toString(password.hashCode()).getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.substring(PREFIX.length()).split("\\$");
+        int iterations = iterations(stored);
+        if (parts.length != 3 || iterations <= 0) {
+            return false;
+        }
+        try {
+            Base64.Decoder b64 = Base64.getDecoder();
+            byte[] expected = b64.decode(parts[2]);
+            return MessageDigest.isEqual(expected, pbkdf2(password, b64.decode(parts[1]), iterations));
+        } catch (IllegalArgumentException e) {
+            return false; // испорченный base64
+        }
+    }
+
+    // число итераций из хеша; 0 - хеш старого вида или не разобран
+    static int iterations(String stored) {
+        if (stored == null || !stored.startsWith(PREFIX)) {
+            return 0;
+        }
+        int end = stored.indexOf('$', PREFIX.length());
+        try {
+            return end < 0 ? 0 : Integer.parseInt(stored.substring(PREFIX.length(), end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // хеш дешевле заданной стоимости; более дорогой не понижаем
+    static boolean needsUpgrade(String stored, int iterations) {
+        return iterations(stored) < iterations;
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 недоступен", e); // есть в любой JDK 8+
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// готовые тексты отчетов (summary, list-categories, category-info) по ключу (пользователь, отчет, аргументы).
+// отчет годен, пока источник тот же объект (кошелек не перезагружали) и его версия не изменилась;
+// иначе он строится заново. Общий для всех пользователей предел записей, вытесняется давно не запрошенное.
+// версия читается до построения отчета: если кошелек изменился во время построения, запись сохранится со старой
+// версией и при следующем запросе просто не совпадет - устаревший текст не выдается
+final class ReportCache {
+
+    private static final class Entry {
+        final WeakReference<TransactionSource> source; // не держит в памяти выгруженный файл кошелька
+        final long version;
+        final String text;
+
+        Entry(TransactionSource source, long version, String text) {
+            this.source = new WeakReference<>(source);
+            this.version = version;
+            this.text = text;
+        }
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // порядок - по обращениям
+    private int capacity;
+    private long hits;
+    private long misses;
+
+    ReportCache(int capacity) {
+        setCapacity(capacity);
+    }
+
+    // 0 - кеш выключен
+    synchronized void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity < 0");
+        }
+        this.capacity = capacity;
+        trim();
+    }
+
+    // готовый отчет или render() с запоминанием; render вызывается без блокировки кеша
+    String get(String login, String report, String args, TransactionSource source, Supplier<String> render) {
+        String key = login + '\0' + report + '\0' + args;
+        long version = source.getVersion();
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null && e.version == version && e.source.get() == source) {
+                hits++;
+                return e.text;
+            }
+            misses++;
+        }
+        String text = render.get();
+        synchronized (this) {
+            if (capacity > 0) {
+                entries.put(key, new Entry(source, version, text));
+                trim();
+            }
+        }
+        return text;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    private void trim() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > capacity && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+// сессия клиента: случайный токен, выданный при входе, и пользователь, от имени которого идут команды
+public class Session {
+    private final String token;
+    private final User user;
+    private final long createdMillis;
+
+    Session(String token, User user) {
+        this.token = token;
+        this.user = user;
+        this.createdMillis = System.currentTimeMillis();
+    }
+
+    public String getToken() {
+        return token;
+    }
+    public User getUser() {
+        return user;
+    }
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+}
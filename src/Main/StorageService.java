@@ -1,12 +1,65 @@
 import java.io.*;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+// хранилище разбито по пользователям: основной файл - небольшой каталог (логин -> хеш пароля -> файл кошелька),
+// кошельки лежат отдельными файлами в <имя>.wallets и читаются только когда нужны пользователю.
+// измененный кошелек пишется в новый файл u<номер>.<поколение>.wallet, старый удаляется после записи каталога:
+// так файл, открытый через MappedWallet, никогда не перезаписывается на месте.
+// с хранилищем одновременно работают несколько сессий: каталог и пользователи в ConcurrentHashMap, снимки по одному.
+// каталог и кошельки состоят из сжатых блоков с контрольными суммами (BlockFile): поврежденный блок пропускается
+// с сообщением, остальное загружается. Файл, не прошедший проверку, не перезаписывается: перед следующим
+// сохранением его копия остается рядом с суффиксом .damaged. Поврежденный каталог не перезаписывается совсем:
+// по файлам кошельков его не восстановить (в них нет логина и хеша пароля), а новый каталог без потерянных
+// пользователей оставил бы их кошельки без ссылок. Сохранение отключается до ручного восстановления каталога,
+// изменения остаются в журнале и докатываются после него
+public class StorageService implements WalletStore {
+    private static final int DIRECTORY_MAGIC = 0x46585544; // "FXUD"
+    private static final int STREAM_MAGIC = 0xACED0005;    // старый формат - весь Map через ObjectOutputStream
+    private static final byte VERSION_PLAIN = 1;           // каталог без блоков
+    private static final byte VERSION = 2;
+    private static final byte USERS = 1;                   // виды блоков каталога
+    private static final byte END = 2;
+    private static final String DAMAGED = ".damaged";
 
-public class StorageService {
     private final File file;
+    private final File walletsDir;
+    private final Map<String, String> shards = new ConcurrentHashMap<>(); // логин -> имя файла кошелька
+    private final List<File> obsolete = new ArrayList<>();       // файлы прошлых поколений, удаляются после записи каталога
+    private int nextShard;
+    private Journal journal;      // null - журнал выключен, каждое сохранение пишет измененные кошельки
+    private int checkpointEvery;  // через сколько записей журнала делать новый снимок
+    private Metrics metrics;      // null - время сохранений и загрузок не замеряется
+    // фоновое автосохранение: null - сохраняет тот поток, который вызвал commit
+    private volatile ScheduledExecutorService autosave;
+    private int autosaveEvery;
+    private final AtomicInteger changesSinceSave = new AtomicInteger();
+    private final AtomicBoolean saveQueued = new AtomicBoolean();
+    private final List<String> problems = new CopyOnWriteArrayList<>(); // повреждения, найденные при загрузке
+    private volatile String saveRefusal; // не null - каталог загружен с повреждениями, сохранять нельзя
 
     public StorageService(String filename){
         this.file = new File(filename);
+        this.walletsDir = new File(file.getParentFile(), baseName() + ".wallets");
         ensureDirectoryExists();
     }
 
@@ -17,27 +70,528 @@ public class StorageService {
         }
     }
 
+    private String baseName() {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    // включает журнал рядом с файлом данных (data.ser -> data.journal), вызывать до loadAll
+    public Journal enableJournal(int checkpointEvery) {
+        File journalFile = new File(file.getParentFile(), baseName() + ".journal");
+        this.journal = new Journal(journalFile);
+        this.checkpointEvery = checkpointEvery;
+        return journal;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // сохранение в отдельном потоке: каждые intervalMillis (0 - без таймера) и после everyChanges вызовов commit.
+    // поток команд только снимает копии измененных кошельков (Wallet.snapshot), запись идет без блокировок
+    public void enableAutosave(Map<String, User> users, long intervalMillis, int everyChanges) {
+        autosaveEvery = Math.max(1, everyChanges);
+        autosave = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "autosave");
+            t.setDaemon(true);
+            return t;
+        });
+        if (intervalMillis > 0) {
+            autosave.scheduleWithFixedDelay(() -> saveIfChanged(users), intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    public File getWalletsDir() {
+        return walletsDir;
+    }
+
+    // описания поврежденных мест, пропущенных при загрузке каталога и кошельков
+    public List<String> getProblems() {
+        return new ArrayList<>(problems);
+    }
+
+    // почему сохранение отключено; null - сохранять можно
+    public String getSaveRefusal() {
+        return saveRefusal;
+    }
+
+    // читает только каталог пользователей; кошельки подгружаются лениво через loadWallet
     public Map<String, User> loadAll(){
-        if (!file.exists()) {
-            return new HashMap<>();
+        long start = System.nanoTime();
+        Map<String, User> users = new ConcurrentHashMap<>();
+        long snapshotLsn = 0;
+        shards.clear();
+        problems.clear();
+        saveRefusal = null;
+        nextShard = 0;
+        if (file.exists()) {
+            List<String> damage = new ArrayList<>();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                int magic = in.readInt();
+                if (magic == DIRECTORY_MAGIC) {
+                    snapshotLsn = readDirectory(in, users, damage);
+                } else if (magic == STREAM_MAGIC) {
+                    snapshotLsn = loadLegacy(users);
+                } else {
+                    throw new IOException("неизвестный формат файла");
+                }
+            } catch (Exception e){
+                damage.add(describe(e));
+                users = new ConcurrentHashMap<>();
+                shards.clear();
+            }
+            if (damage.isEmpty()) {
+                deleteUnreferencedWallets();
+            } else {
+                report(file, "Каталог пользователей", damage);
+                deleteTemporaryWallets(); // кошельки остаются на своих местах, на них ссылается поврежденный каталог
+                saveRefusal = "Сохранение отключено: каталог пользователей " + file.getPath() + " поврежден, "
+                        + "восстановите его вручную" + (journal != null ? " - изменения сохраняются в журнале" : "");
+                System.err.println(saveRefusal);
+            }
+        }
+        nextShard = Math.max(nextShard, highestShard() + 1); // номер не совпадет с файлом, сохраненным для восстановления
+        if (journal != null) {
+            try {
+                journal.replay(users, snapshotLsn); // докатываем изменения, сделанные после снимка
+            } catch (IOException e) {
+                System.err.println("Не удалось прочитать журнал: " + e.getMessage());
+            }
+        }
+        if (metrics != null) {
+            metrics.recordLoad(System.nanoTime() - start);
+        }
+        return users;
+    }
+
+    private long readDirectory(DataInputStream in, Map<String, User> users, List<String> damage) throws IOException {
+        byte version = in.readByte();
+        if (version != VERSION && version != VERSION_PLAIN) {
+            throw new IOException("неподдерживаемая версия каталога");
+        }
+        long lsn = in.readLong();
+        if (version == VERSION_PLAIN) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                addUser(users, in.readUTF(), in.readUTF(), in.readUTF());
+            }
+            return lsn;
+        }
+        BlockFile.Reader blocks = new BlockFile.Reader(Channels.newChannel(in), 4 + 1 + 8);
+        int expected = -1;
+        for (ByteBuffer b = blocks.next(); b != null; b = blocks.next()) {
+            byte kind = b.get();
+            if (kind == USERS) {
+                int count = BlockFile.getVarInt(b);
+                for (int i = 0; i < count; i++) {
+                    addUser(users, BlockFile.getString(b), BlockFile.getString(b), BlockFile.getString(b));
+                }
+            } else if (kind == END) {
+                expected = BlockFile.getVarInt(b);
+            }
+        }
+        if (expected < 0) {
+            damage.add("файл оборван");
         }
-        try(ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))){
+        damage.addAll(blocks.problems());
+        if (expected > users.size()) {
+            damage.add(String.format("потеряно пользователей: %d из %d", expected - users.size(), expected));
+        }
+        return lsn;
+    }
+
+    private void addUser(Map<String, User> users, String login, String hash, String shard) {
+        if (!shard.isEmpty()) {
+            shards.put(login, shard);
+        }
+        users.put(login, User.lazy(login, hash, this));
+        nextShard = Math.max(nextShard, shardNumber(shard) + 1);
+    }
+
+    // файл в старом формате читается целиком, при следующем сохранении он будет разложен по кошелькам
+    private long loadLegacy(Map<String, User> users) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
             Object o = ois.readObject();
             if (o instanceof Map) {
-                return (Map<String, User>) o;
+                for (Object u : ((Map<?, ?>) o).values()) {
+                    User user = (User) u;
+                    users.put(user.getLogin(), user);
+                }
+            }
+            try {
+                return ois.readLong(); // номер последней записи журнала, вошедшей в снимок
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+    }
+
+    // файлы, не попавшие в каталог: старые поколения, которые не удалось удалить, или запись, оборванная сбоем
+    private void deleteUnreferencedWallets() {
+        File[] files = walletsDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Set<String> referenced = new HashSet<>(shards.values());
+        for (File f : files) {
+            if (!referenced.contains(f.getName()) && !f.getName().endsWith(DAMAGED)) {
+                f.delete();
+            }
+        }
+    }
+
+    // каталог поврежден: удаляются только незаконченные временные файлы
+    private void deleteTemporaryWallets() {
+        File[] files = walletsDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.getName().endsWith(".tmp")) {
+                f.delete();
+            }
+        }
+    }
+
+    private static String describe(Exception e) {
+        return e instanceof EOFException ? "файл оборван" : e.getMessage();
+    }
+
+    private int highestShard() {
+        int highest = -1;
+        String[] names = walletsDir.list();
+        if (names != null) {
+            for (String name : names) {
+                highest = Math.max(highest, shardNumber(name));
+            }
+        }
+        return highest;
+    }
+
+    // копия поврежденного файла рядом с ним (<имя>.damaged, <имя>.damaged1, ...) и сообщение о повреждениях
+    private void report(File damaged, String what, List<String> damage) {
+        for (String d : damage) {
+            String message = what + " (" + damaged.getName() + "): " + d;
+            problems.add(message);
+            System.err.println("Повреждение: " + message);
+        }
+        try {
+            byte[] content = Files.readAllBytes(damaged.toPath());
+            File copy = new File(damaged.getPath() + DAMAGED);
+            for (int i = 1; copy.exists(); i++) {
+                if (Arrays.equals(content, Files.readAllBytes(copy.toPath()))) {
+                    return; // тот же файл уже сохранен при прошлой загрузке
+                }
+                copy = new File(damaged.getPath() + DAMAGED + i);
+            }
+            Files.write(copy.toPath(), content, StandardOpenOption.CREATE_NEW);
+            System.err.println("Копия поврежденного файла сохранена: " + copy.getPath());
+        } catch (IOException e) {
+            System.err.println("Не удалось сохранить копию поврежденного файла: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public TransactionSource openView(String login) {
+        String shard = shards.get(login);
+        if (shard == null) {
+            return null;
+        }
+        try {
+            return MappedWallet.open(new File(walletsDir, shard).toPath());
+        } catch (IOException e) {
+            return null; // не получилось отобразить файл - кошелек будет загружен обычным способом
+        }
+    }
+
+    @Override
+    public TransactionSource readView(String login) {
+        String shard = shards.get(login);
+        if (shard == null) {
+            return null;
+        }
+        try {
+            return MappedWallet.read(new File(walletsDir, shard).toPath());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Wallet loadWallet(String login) {
+        String shard = shards.get(login);
+        if (shard == null) {
+            return new Wallet();
+        }
+        long start = System.nanoTime();
+        File walletFile = new File(walletsDir, shard);
+        List<String> damage = new ArrayList<>();
+        try (FileChannel ch = FileChannel.open(walletFile.toPath(), StandardOpenOption.READ)) {
+            Wallet w = WalletCodec.read(ch, damage);
+            if (!damage.isEmpty()) {
+                // кошелек из уцелевших блоков отмечен измененным и будет записан в новый файл, старый остается копией
+                report(walletFile, "Кошелек " + login, damage);
+            }
+            if (metrics != null) {
+                metrics.recordLoad(System.nanoTime() - start);
+            }
+            return w;
+        } catch (Exception e) {
+            System.err.println("Не удалось загрузить кошелек " + login + ": " + e.getMessage());
+            if (walletFile.exists()) {
+                report(walletFile, "Кошелек " + login, List.of(describe(e)));
             }
-            return new HashMap<>();
-        } catch (Exception e){
-            System.err.println("Не удалось загрузить данные: " + e.getMessage());
-            return new HashMap<>();
+            Wallet empty = new Wallet();
+            empty.markSaved(0); // не перезаписываем файл пустым кошельком, пока пользователь ничего не изменил
+            return empty;
         }
     }
 
-    public void saveAll(Map<String, User> map){
-        try(ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))){
-            oos.writeObject(map);
+    // контрольная точка: пишем только измененные кошельки и каталог; с журналом после этого из журнала
+    // убираются записи, попавшие в снимок. Изменения приостанавливаются (Journal.checkpointLock) только на время
+    // снятия копий, сама запись идет параллельно с ними: изменение, сделанное во время записи,
+    // оставит кошелек измененным до следующего сохранения
+    public synchronized void saveAll(Map<String, User> map){
+        if (saveRefusal != null) {
+            System.err.println(saveRefusal);
+            return;
+        }
+        long start = System.nanoTime();
+        Lock checkpoint = journal != null ? journal.checkpointLock() : null;
+        if (checkpoint != null) {
+            checkpoint.lock();
+        }
+        Snapshot snapshot;
+        try {
+            snapshot = capture(new ArrayList<>(map.values()));
+        } finally {
+            if (checkpoint != null) {
+                checkpoint.unlock();
+            }
+        }
+        long written = write(snapshot);
+        if (metrics != null) {
+            metrics.recordSave(System.nanoTime() - start, written);
+        }
+    }
+
+    // состояние на момент контрольной точки: номер последней записи журнала, список пользователей для каталога,
+    // копии измененных кошельков и сами кошельки, которые после записи отмечаются сохраненными
+    private static final class Snapshot {
+        final long lsn;
+        final List<User> users;
+        final List<User> changed = new ArrayList<>();
+        final List<Wallet> live = new ArrayList<>();
+        final List<Wallet> copies = new ArrayList<>();
+
+        Snapshot(long lsn, List<User> users) {
+            this.lsn = lsn;
+            this.users = users;
+        }
+    }
+
+    private Snapshot capture(List<User> users) {
+        if (journal != null) {
+            try {
+                journal.commit();
+            } catch (UncheckedIOException e) {
+                System.err.println(e.getMessage()); // несброшенные записи все равно попадут в снимок
+            }
+        }
+        Snapshot s = new Snapshot(journal != null ? journal.getLastLsn() : 0, users);
+        for (User u : users) {
+            if (u.isWalletLoaded() && u.getWallet().isDirty()) {
+                Wallet w = u.getWallet();
+                if (w.needsCompaction()) {
+                    w.compact(); // удаленные строки в файл все равно не пишутся, освобождаем и память
+                }
+                s.changed.add(u);
+                s.live.add(w);
+                s.copies.add(w.snapshot());
+            }
+        }
+        changesSinceSave.set(0);
+        return s;
+    }
+
+    // возвращает количество записанных байт
+    private long write(Snapshot s) {
+        long written = 0;
+        try {
+            walletsDir.mkdirs();
+            for (int i = 0; i < s.changed.size(); i++) {
+                String login = s.changed.get(i).getLogin();
+                String old = shards.get(login);
+                String shard = old == null
+                        ? "u" + (nextShard++) + ".0.wallet"
+                        : "u" + shardNumber(old) + "." + (shardGeneration(old) + 1) + ".wallet";
+                Wallet copy = s.copies.get(i);
+                written += writeAtomically(new File(walletsDir, shard), ch -> WalletCodec.write(ch, copy, s.lsn));
+                shards.put(login, shard);
+                if (old != null) {
+                    obsolete.add(new File(walletsDir, old));
+                }
+            }
+            // каталог пишется последним: до этого момента старый каталог и старые файлы остаются целыми
+            written += writeDirectory(s.users, s.lsn);
+            for (int i = 0; i < s.live.size(); i++) {
+                s.live.get(i).markSaved(s.lsn, s.copies.get(i).getVersion());
+            }
+            for (File f : obsolete) {
+                f.delete(); // может не получиться, если файл еще отображен в память - уберем при следующей загрузке
+            }
+            obsolete.clear();
+            if (journal != null) {
+                journal.dropUpTo(s.lsn);
+            }
         } catch (IOException e){
             System.err.println("Ошибка при сохранении: " + e.getMessage());
         }
+        return written;
+    }
+
+    // для таймера автосохранения: без изменений каталог не переписываем
+    private void saveIfChanged(Map<String, User> map) {
+        if (saveRefusal != null) {
+            return; // о причине уже сообщили при загрузке
+        }
+        boolean changed = journal != null && journal.getRecordsSinceCheckpoint() > 0;
+        for (User u : map.values()) {
+            if (changed) {
+                break;
+            }
+            changed = u.isWalletLoaded() && u.getWallet().isDirty();
+        }
+        if (changed) {
+            saveAll(map);
+        }
+    }
+
+    // в очереди автосохранения не больше одной записи: запросы, пришедшие во время записи, объединяются
+    private void requestSave(Map<String, User> map) {
+        ScheduledExecutorService executor = autosave;
+        if (executor != null && saveQueued.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> {
+                    saveQueued.set(false);
+                    saveIfChanged(map);
+                });
+            } catch (RejectedExecutionException e) {
+                saveQueued.set(false); // хранилище закрывается, close сохранит сам или уже сохранил
+            }
+        }
+    }
+
+    private long writeDirectory(List<User> users, long lsn) throws IOException {
+        return writeAtomically(file, ch -> {
+            ByteBuffer header = ByteBuffer.allocate(4 + 1 + 8).putInt(DIRECTORY_MAGIC).put(VERSION).putLong(lsn);
+            header.flip();
+            while (header.hasRemaining()) {
+                ch.write(header);
+            }
+            BlockFile.Writer out = new BlockFile.Writer(ch);
+            try {
+                BlockFile.Bytes block = new BlockFile.Bytes();
+                BlockFile.Bytes entries = new BlockFile.Bytes();
+                int inBlock = 0;
+                for (int i = 0; i < users.size(); i++) {
+                    User u = users.get(i);
+                    entries.putString(u.getLogin());
+                    entries.putString(u.getPasswordHash());
+                    entries.putString(shards.getOrDefault(u.getLogin(), ""));
+                    inBlock++;
+                    if (entries.size() >= BlockFile.BLOCK_SIZE || i == users.size() - 1) {
+                        block.clear();
+                        block.put(USERS);
+                        block.putVarInt(inBlock);
+                        block.putBytes(entries);
+                        out.block(block);
+                        entries.clear();
+                        inBlock = 0;
+                    }
+                }
+                block.clear();
+                block.put(END);
+                block.putVarInt(users.size());
+                out.block(block);
+            } finally {
+                out.close();
+            }
+        });
+    }
+
+    private interface FileContent {
+        void write(FileChannel ch) throws IOException;
+    }
+
+    // пишем во временный файл и подменяем целиком, чтобы сбой посреди записи не испортил старые данные;
+    // возвращает размер записанного файла
+    private static long writeAtomically(File target, FileContent content) throws IOException {
+        File tmp = new File(target.getPath() + ".tmp");
+        long size;
+        try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            content.write(ch);
+            ch.force(true);
+            size = ch.size();
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return size;
+    }
+
+    // u<номер>.<поколение>.wallet
+    private static int shardNumber(String shard) {
+        try {
+            return Integer.parseInt(shard.substring(1, shard.indexOf('.')));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static int shardGeneration(String shard) {
+        String[] parts = shard.split("\\.");
+        try {
+            return parts.length == 3 ? Integer.parseInt(parts[1]) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // сохранение после команды: без журнала пишем все измененное, с журналом изменения уже записаны,
+    // снимок делаем только когда журнал вырос до checkpointEvery записей. С автосохранением команда не ждет записи:
+    // снимок делается в фоне после autosaveEvery изменений или по тому же размеру журнала
+    public void commit(Map<String, User> map) {
+        if (saveRefusal != null) {
+            return;
+        }
+        boolean journalFull = journal != null && journal.getRecordsSinceCheckpoint() >= checkpointEvery;
+        if (autosave != null) {
+            if (changesSinceSave.incrementAndGet() >= autosaveEvery || journalFull) {
+                requestSave(map);
+            }
+        } else if (journal == null || journalFull) {
+            saveAll(map);
+        }
+    }
+
+    // дожидается начатой фоновой записи; запросы, еще стоящие в очереди, тоже выполняются
+    public void close() {
+        ScheduledExecutorService executor = autosave;
+        autosave = null;
+        if (executor != null) {
+            executor.shutdown(); // таймер отменяется, уже поставленные записи выполняются
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (journal != null) {
+            journal.close();
+        }
     }
 }
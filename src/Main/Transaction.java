@@ -1,26 +1,56 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 
 public class Transaction implements Serializable {
     private static final long serialVersionUID = 1L;
+    static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"); // форматтер неизменяемый, создаем один раз
     public enum Type {
         INCOME, 
         EXPENSE 
     }
 
-    private final Type type;
-    private final String category;
-    private final double amount;
-    private final String note;
-    private final LocalDateTime created;
+    // в потоке сериализации сумма остается полем amount (double), как в старых файлах; в памяти - копейки.
+    // поэтому поля не final: при чтении они заполняются в readObject
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("type", Type.class),
+            new ObjectStreamField("category", String.class),
+            new ObjectStreamField("amount", double.class),
+            new ObjectStreamField("note", String.class),
+            new ObjectStreamField("created", LocalDateTime.class)
+    };
+
+    private Type type;
+    private String category;
+    private long cents;
+    private String note;
+    private LocalDateTime created;
 
     public Transaction(Type type, String category, double amount, String note) {
+        this(type, category, amount, note, LocalDateTime.now());
+    }
+
+    public Transaction(Type type, String category, double amount, String note, LocalDateTime created) {
+        this(type, category, Money.toCents(amount), note, created);
+    }
+
+    // закрытый: снаружи вызов с целой суммой (new Transaction(..., 100, ...)) должен попадать в рубли, а не в копейки
+    private Transaction(Type type, String category, long cents, String note, LocalDateTime created) {
         this.type = type;
         this.category = category;
-        this.amount = amount;
+        this.cents = cents;
         this.note = note == null ? "" : note;
-        this.created = LocalDateTime.now();
+        this.created = created;
+    }
+
+    // сумма сразу в копейках (файлы, журнал, импорт) - без перевода через double
+    public static Transaction ofCents(Type type, String category, long cents, String note, LocalDateTime created) {
+        return new Transaction(type, category, cents, note, created);
     }
 
     public Type getType() {
@@ -30,17 +60,54 @@ public class Transaction implements Serializable {
         return category; 
     }
     public double getAmount() {
-        return amount; 
+        return Money.toAmount(cents);
+    }
+    public long getCents() {
+        return cents;
     }
     public String getNote() {
         return note; 
     }
+    public LocalDateTime getCreated() {
+        return created;
+    }
+    public long getCreatedMillis() { // время без часового пояса, поэтому считаем от эпохи как UTC
+        return created.toEpochSecond(ZoneOffset.UTC) * 1000 + created.getNano() / 1_000_000; // без промежуточного Instant
+    }
+    public static LocalDateTime fromMillis(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), Math.floorMod(millis, 1000) * 1_000_000, ZoneOffset.UTC);
+    }
     public String getCreatedStr() {
-        return created.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")); 
+        return created.format(TIME_FORMAT);
     }
 
     @Override
     public String toString() {
-        return String.format("[%s] %s | %s: %.2f %s", getCreatedStr(), type, category, amount, note);
+        return format(type, category, cents, getCreatedMillis(), note);
+    }
+
+    // то же представление, что и toString, но без объекта транзакции
+    public static String format(Type type, String category, long cents, long createdMillis, CharSequence note) {
+        String created = fromMillis(createdMillis).format(TIME_FORMAT);
+        return String.format("[%s] %s | %s: %.2f %s", created, type, category, Money.toAmount(cents), note);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField f = out.putFields();
+        f.put("type", type);
+        f.put("category", category);
+        f.put("amount", getAmount());
+        f.put("note", note);
+        f.put("created", created);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField f = in.readFields();
+        type = (Type) f.get("type", null);
+        category = (String) f.get("category", null);
+        cents = Money.toCents(f.get("amount", 0.0));
+        note = (String) f.get("note", "");
+        created = (LocalDateTime) f.get("created", null);
     }
 }
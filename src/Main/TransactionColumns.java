@@ -0,0 +1,326 @@
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// транзакции кошелька по столбцам: вместо объекта на запись (Transaction + LocalDateTime + LocalDate + LocalTime
+// + строка заметки - 150-200 байт и несколько переходов по ссылкам) параллельные массивы примитивов, около 25 байт.
+// тип - бит, категория - номер в словаре, сумма - копейки, время - мс от эпохи (как UTC), заметки лежат подряд
+// в общем массиве символов. Объект Transaction собирается только по запросу (get).
+// удаление только помечает строки (deleted), позиции остальных не сдвигаются; место освобождает compact()
+// снимок (snapshot) делит со столбцами массивы строк: добавление пишет только за границу снимка, а то, что меняет
+// уже записанные строки (удаление, сжатие), сначала копирует общие массивы
+// не потокобезопасен: Wallet обращается к столбцам под своей блокировкой
+final class TransactionColumns {
+    private static final Transaction.Type[] TYPES = Transaction.Type.values(); // типов два - хватает одного бита
+
+    private long[] expense = new long[1];   // бит i - транзакция i является расходом
+    private int[] categoryIds = new int[16];
+    private long[] cents = new long[16];
+    private long[] millis = new long[16];
+    private int[] noteEnd = new int[16];    // заметка i - notes[noteEnd[i - 1], noteEnd[i])
+    private char[] notes = new char[64];
+    private int size;                       // вместе с удаленными строками
+    private long[] deleted = new long[1];   // бит i - транзакция i удалена
+    private int deletedCount;
+
+    // словарь категорий: номер -> имя и обратно. Номер не меняется никогда, в том числе при переименовании,
+    // поэтому транзакции хранят только его; освободившийся номер (null в names) не переиспользуется
+    private String[] names = new String[8];
+    private int nameCount;
+    private final Map<String, Integer> ids = new HashMap<>();
+    // номер категории -> позиции ее транзакций по возрастанию
+    private int[][] positions = new int[8][];
+    private int[] counts = new int[8];
+    // [тип][номер категории] -> сумма в копейках и количество транзакций
+    private long[][] sums = new long[TYPES.length][8];
+    private int[][] rows = new int[TYPES.length][8];
+    // массивы строк и пометки удаления читает снимок - менять записанное на месте нельзя
+    private boolean rowsShared;
+    private boolean deletedShared;
+    private boolean frozen; // это снимок: добавление писало бы в строки живых столбцов
+
+    // граница позиций, включая удаленные строки
+    int size() {
+        return size;
+    }
+    int liveSize() {
+        return size - deletedCount;
+    }
+    int deletedCount() {
+        return deletedCount;
+    }
+    boolean isDeleted(int i) {
+        return (deleted[i >>> 6] & 1L << i) != 0;
+    }
+
+    // возвращает позицию добавленной транзакции
+    int add(Transaction.Type type, String category, long amountCents, long createdMillis, CharSequence note) {
+        if (frozen) {
+            throw new IllegalStateException("снимок только для чтения");
+        }
+        ensureCapacity(size + 1);
+        int i = size;
+        if (type == Transaction.Type.EXPENSE) {
+            expense[i >>> 6] |= 1L << i;
+        }
+        int id = idFor(category);
+        categoryIds[i] = id;
+        cents[i] = amountCents;
+        millis[i] = createdMillis;
+        int start = noteStart(i);
+        int len = note.length();
+        if (notes.length - start < len) {
+            notes = Arrays.copyOf(notes, Math.max(start + len, notes.length * 2));
+        }
+        for (int k = 0; k < len; k++) {
+            notes[start + k] = note.charAt(k);
+        }
+        noteEnd[i] = start + len;
+        addPosition(id, i);
+        sums[type.ordinal()][id] += amountCents;
+        rows[type.ordinal()][id]++;
+        size++;
+        return i;
+    }
+
+    int add(Transaction t) {
+        return add(t.getType(), t.getCategory(), t.getCents(), t.getCreatedMillis(), t.getNote());
+    }
+
+    void ensureCapacity(int n) {
+        if (n <= cents.length) {
+            return;
+        }
+        int cap = Math.max(n, cents.length * 2);
+        expense = Arrays.copyOf(expense, (cap + 63) >>> 6);
+        deleted = Arrays.copyOf(deleted, expense.length);
+        categoryIds = Arrays.copyOf(categoryIds, cap);
+        cents = Arrays.copyOf(cents, cap);
+        millis = Arrays.copyOf(millis, cap);
+        noteEnd = Arrays.copyOf(noteEnd, cap);
+    }
+
+    Transaction.Type type(int i) {
+        return TYPES[(int) (expense[i >>> 6] >>> i) & 1];
+    }
+    int categoryId(int i) {
+        return categoryIds[i];
+    }
+    String category(int i) {
+        return names[categoryIds[i]];
+    }
+    long cents(int i) {
+        return cents[i];
+    }
+    long millis(int i) {
+        return millis[i];
+    }
+    String note(int i) {
+        int start = noteStart(i);
+        return start == noteEnd[i] ? "" : new String(notes, start, noteEnd[i] - start);
+    }
+
+    // объект транзакции для кода, которому он нужен (страницы, списки)
+    Transaction get(int i) {
+        return Transaction.ofCents(type(i), category(i), cents[i], note(i), Transaction.fromMillis(millis[i]));
+    }
+
+    // обход без создания объектов: заметка передается одним переиспользуемым окном в общий массив символов
+    void forEach(TransactionVisitor visitor) {
+        CharBuffer note = CharBuffer.wrap(notes);
+        for (int i = 0; i < size; i++) {
+            if (isDeleted(i)) {
+                continue;
+            }
+            note.limit(noteEnd[i]).position(noteStart(i));
+            visitor.visit(type(i), names[categoryIds[i]], cents[i], millis[i], note);
+        }
+    }
+
+    // -1, если категории нет в словаре
+    int idOf(String category) {
+        Integer id = ids.get(category);
+        return id == null ? -1 : id;
+    }
+    // null - номер освобожден переименованием
+    String name(int id) {
+        return names[id];
+    }
+    // граница номеров: все номера категорий меньше
+    int categoryCount() {
+        return nameCount;
+    }
+
+    int count(int id) {
+        return id < 0 ? 0 : counts[id];
+    }
+    // позиции транзакций категории: первые count(id) элементов массива
+    int[] positions(int id) {
+        return positions[id];
+    }
+
+    long sum(Transaction.Type type, int id) {
+        return sums[type.ordinal()][id];
+    }
+    int rows(Transaction.Type type, int id) {
+        return rows[type.ordinal()][id];
+    }
+
+    // переименование - одна запись словаря, транзакции и суммы по номеру не трогаются.
+    // у новой категории не должно быть транзакций (слияние категорий не поддерживается)
+    void renameCategory(String from, String to) {
+        Integer id = ids.get(from);
+        if (id == null || from.equals(to)) {
+            return;
+        }
+        Integer stale = ids.get(to);
+        if (stale != null) {
+            if (counts[stale] > 0) {
+                throw new IllegalArgumentException("у категории уже есть транзакции: " + to);
+            }
+            names[stale] = null; // имя осталось от удаленной категории, номер больше не нужен
+        }
+        ids.remove(from);
+        ids.put(to, id);
+        names[id] = to;
+    }
+
+    // помечает удаленными все транзакции категории - O(количества удаленных), остальные строки не двигаются;
+    // возвращает количество удаленных
+    int removeCategory(String category) {
+        int id = idOf(category);
+        int removed = count(id);
+        if (removed == 0) {
+            return 0;
+        }
+        if (deletedShared) {
+            deleted = deleted.clone();
+            deletedShared = false;
+        }
+        int[] p = positions[id];
+        for (int k = 0; k < removed; k++) {
+            deleted[p[k] >>> 6] |= 1L << p[k];
+        }
+        deletedCount += removed;
+        positions[id] = null;
+        counts[id] = 0;
+        for (int t = 0; t < TYPES.length; t++) {
+            sums[t][id] = 0;
+            rows[t][id] = 0;
+        }
+        return removed;
+    }
+
+    // убирает удаленные строки со сдвигом остальных; возвращает количество освобожденных.
+    // позиции транзакций меняются - индекс категорий пересобирается
+    int compact() {
+        int removed = deletedCount;
+        if (removed == 0) {
+            return 0;
+        }
+        if (rowsShared) {
+            categoryIds = categoryIds.clone();
+            cents = cents.clone();
+            millis = millis.clone();
+            noteEnd = noteEnd.clone();
+            notes = notes.clone();
+            positions = new int[positions.length][]; // внутренние массивы позиций тоже видит снимок
+            rowsShared = false;
+        }
+        long[] kept = new long[expense.length];
+        int d = 0;
+        int noteTo = 0;
+        for (int i = 0; i < size; i++) {
+            if (isDeleted(i)) {
+                continue;
+            }
+            int start = noteStart(i);
+            int len = noteEnd[i] - start;
+            System.arraycopy(notes, start, notes, noteTo, len); // сдвиг влево, источник не затирается раньше времени
+            noteTo += len;
+            if (type(i) == Transaction.Type.EXPENSE) {
+                kept[d >>> 6] |= 1L << d;
+            }
+            categoryIds[d] = categoryIds[i];
+            cents[d] = cents[i];
+            millis[d] = millis[i];
+            noteEnd[d] = noteTo;
+            d++;
+        }
+        expense = kept;
+        deleted = new long[kept.length];
+        deletedShared = false;
+        deletedCount = 0;
+        size = d;
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < size; i++) {
+            addPosition(categoryIds[i], i);
+        }
+        return removed;
+    }
+
+    // неизменяемая копия текущего состояния за O(категорий): массивы строк общие, словарь и индексы копируются.
+    // копию можно читать из другого потока, пока эти столбцы меняются под блокировкой кошелька
+    TransactionColumns snapshot() {
+        TransactionColumns s = new TransactionColumns();
+        s.expense = expense;
+        s.categoryIds = categoryIds;
+        s.cents = cents;
+        s.millis = millis;
+        s.noteEnd = noteEnd;
+        s.notes = notes;
+        s.size = size;
+        s.deleted = deleted;
+        s.deletedCount = deletedCount;
+        s.names = Arrays.copyOf(names, names.length);
+        s.nameCount = nameCount;
+        s.ids.putAll(ids);
+        s.positions = Arrays.copyOf(positions, positions.length);
+        s.counts = Arrays.copyOf(counts, counts.length);
+        for (int t = 0; t < TYPES.length; t++) {
+            s.sums[t] = Arrays.copyOf(sums[t], sums[t].length);
+            s.rows[t] = Arrays.copyOf(rows[t], rows[t].length);
+        }
+        s.rowsShared = true; // снимок тоже не должен менять общие массивы
+        s.deletedShared = true;
+        s.frozen = true;
+        rowsShared = true;
+        deletedShared = true;
+        return s;
+    }
+
+    private int noteStart(int i) {
+        return i == 0 ? 0 : noteEnd[i - 1];
+    }
+
+    private int idFor(String category) {
+        Integer id = ids.get(category);
+        if (id != null) {
+            return id;
+        }
+        int next = nameCount++;
+        if (next == names.length) {
+            names = Arrays.copyOf(names, next * 2);
+            positions = Arrays.copyOf(positions, next * 2);
+            counts = Arrays.copyOf(counts, next * 2);
+            for (int t = 0; t < TYPES.length; t++) {
+                sums[t] = Arrays.copyOf(sums[t], next * 2);
+                rows[t] = Arrays.copyOf(rows[t], next * 2);
+            }
+        }
+        names[next] = category;
+        ids.put(category, next);
+        return next;
+    }
+
+    private void addPosition(int id, int pos) {
+        int[] p = positions[id];
+        if (p == null) {
+            p = positions[id] = new int[8];
+        } else if (counts[id] == p.length) {
+            p = positions[id] = Arrays.copyOf(p, p.length * 2);
+        }
+        p[counts[id]++] = pos;
+    }
+}
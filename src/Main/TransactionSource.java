@@ -0,0 +1,31 @@
+import java.util.Map;
+
+// источник транзакций только для чтения: загруженный кошелек или файл кошелька, отображенный в память
+// суммы в копейках; методы в рублях - для вывода и старого кода
+public interface TransactionSource {
+    void forEachTransaction(TransactionVisitor visitor);
+    long totalCents(Transaction.Type type);
+    CentsMap totalsByCategoryCents(Transaction.Type type); // копия
+    long spentCentsInCategory(String category);
+    CentsMap getBudgetsCents(); // копия
+    // номер изменения содержимого этого объекта: растет при каждом изменении. Номера разных объектов
+    // не сравнимы (неизменяемый источник может всегда возвращать 0), поэтому готовый отчет действителен,
+    // только пока совпадают и номер, и сам объект (ReportCache сравнивает ссылки)
+    long getVersion();
+
+    default double totalIncome() {
+        return Money.toAmount(totalCents(Transaction.Type.INCOME));
+    }
+    default double totalExpense() {
+        return Money.toAmount(totalCents(Transaction.Type.EXPENSE));
+    }
+    default Map<String, Double> totalsByCategory(Transaction.Type type) {
+        return totalsByCategoryCents(type).toAmounts();
+    }
+    default double spentInCategory(String category) {
+        return Money.toAmount(spentCentsInCategory(category));
+    }
+    default Map<String, Double> getBudgets() {
+        return getBudgetsCents().toAmounts();
+    }
+}
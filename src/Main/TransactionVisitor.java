@@ -0,0 +1,5 @@
+// обход транзакций без создания объектов Transaction; сумма в копейках;
+// note может указывать на переиспользуемый буфер и действителен только во время вызова
+public interface TransactionVisitor {
+    void visit(Transaction.Type type, String category, long cents, long createdMillis, CharSequence note);
+}
@@ -4,25 +4,80 @@ import java.util.Objects;
 public class User implements Serializable {
     private static final long serialVersionUID = 1L;
     private final String login;
-    private final String passwordHash;
+    private volatile String passwordHash; // PasswordHasher; меняется при входе, если хеш устарел
     private Wallet wallet;
+    private transient WalletStore store; // откуда подгрузить кошелек при первом обращении
+    private transient TransactionSource view; // файл кошелька только для чтения, пока кошелек не загружен
 
     public User(String login, String password) {
         this.login = login;
-        this.passwordHash = Integer.toString(Objects.requireNonNull(password).hashCode());
+        this.passwordHash = PasswordHasher.hash(Objects.requireNonNull(password));
         this.wallet = new Wallet();
     }
 
+    private User(String login, String passwordHash, Wallet wallet) {
+        this.login = login;
+        this.passwordHash = passwordHash;
+        this.wallet = wallet;
+    }
+
+    // восстановление пользователя с уже посчитанным хешем пароля (например, из журнала)
+    public static User restore(String login, String passwordHash) {
+        return new User(login, passwordHash, new Wallet());
+    }
+
+    // пользователь из каталога хранилища: кошелек читается только когда понадобится
+    public static User lazy(String login, String passwordHash, WalletStore store) {
+        User u = new User(login, passwordHash, null);
+        u.store = store;
+        return u;
+    }
+
     public String getLogin() {
         return login;
     }
+    public String getPasswordHash() {
+        return passwordHash;
+    }
     public boolean checkPassword(String password) {
-        return this.passwordHash.equals(Integer.toString(password.hashCode()));
+        return PasswordHasher.verify(password, passwordHash);
+    }
+    void setPasswordHash(String passwordHash) {
+        this.passwordHash = passwordHash;
     }
-    public Wallet getWallet() {
+    public synchronized Wallet getWallet() {
+        if (wallet == null && store != null) {
+            wallet = store.loadWallet(login);
+            view = null;
+        }
         return wallet;
     }
-    public void setWallet(Wallet wallet) {
+    // для команд только на чтение: загруженный кошелек, иначе файл кошелька без загрузки в память
+    public synchronized TransactionSource readView() {
+        if (wallet != null || store == null) {
+            return getWallet();
+        }
+        if (view == null) {
+            view = store.openView(login);
+        }
+        return view != null ? view : getWallet();
+    }
+    // однократное чтение при обходе всех пользователей (Analytics): файл не отображается и не запоминается,
+    // поэтому обход не держит открытыми файлы всех кошельков
+    public synchronized TransactionSource scanView() {
+        if (wallet != null || store == null) {
+            return getWallet();
+        }
+        if (view != null) {
+            return view; // уже открыт для команд самого пользователя
+        }
+        TransactionSource v = store.readView(login);
+        return v != null ? v : getWallet();
+    }
+    public synchronized boolean isWalletLoaded() {
+        return wallet != null;
+    }
+    public synchronized void setWallet(Wallet wallet) {
         this.wallet = wallet;
     }
 }
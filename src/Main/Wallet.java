@@ -1,65 +1,534 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
-public class Wallet implements Serializable {
+// кошелек могут одновременно читать и менять несколько сессий: все обращения идут под блокировкой чтения/записи,
+// наружу отдаются копии коллекций. Транзакции хранятся по столбцам (TransactionColumns), а не объектами
+public class Wallet implements Serializable, TransactionSource {
     private static final long serialVersionUID = 1L;
-    private final List<Transaction> transactions = new ArrayList<>();
-    private final Map<String, Double> budgets = new HashMap<>(); // category -> budget
-    private final Set<String> categories = new HashSet<>();
+    // вид в потоке сериализации прежний (список Transaction, бюджеты - Map<String, Double>), в памяти - столбцы
+    // и копейки; поля не final, потому что при чтении заполняются в readObject
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("transactions", List.class),
+            new ObjectStreamField("budgets", Map.class),
+            new ObjectStreamField("categories", Set.class)
+    };
+    private transient TransactionColumns transactions = new TransactionColumns();
+    private CentsMap budgets = new CentsMap(); // category -> budget
+    private Set<String> categories = new HashSet<>();
+
+    // накопленные суммы в копейках, обновляются при каждом изменении, чтобы не пересчитывать всю историю
+    // не сериализуются - восстанавливаются из транзакций при загрузке; суммы по категориям ведут столбцы
+    private transient long[] totals; // индекс - Transaction.Type.ordinal()
+    // бюджеты с потраченным по каждому и тем, о каких порогах уже оповестили
+    private transient BudgetTracker budgetTracker = new BudgetTracker();
+    // индекс по времени: позиции транзакций, упорядоченные по (время, позиция) -
+    // диапазон дат находится двоичным поиском, без прохода по всей истории
+    private transient int[] timeOrder;
+
+    // состояние относительно хранилища: номер изменения, до которого кошелек сохранен, и до какой записи журнала
+    private transient long version;            // растет при каждом изменении
+    private transient long savedVersion = -1;  // -1 - кошелек еще ни разу не сохранялся
+    private transient long persistedLsn;
+    private transient ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // меняется, когда позиции транзакций сдвигаются (удаление), и при каждой загрузке -
+    // курсор постраничного просмотра с другой эпохой уже не указывает на ту же транзакцию
+    private transient int layoutEpoch = ThreadLocalRandom.current().nextInt(1 << 24);
+
+    public Wallet() {
+        rebuildTotals();
+        rebuildTimeIndex();
+    }
+
+    // снимок для записи в файл: без индекса времени, только чтение
+    private Wallet(TransactionColumns transactions, Set<String> categories, CentsMap budgets, long version) {
+        this.transactions = transactions;
+        this.categories = categories;
+        this.budgets = budgets;
+        this.version = version;
+        rebuildTotals();
+    }
+
+    // согласованная копия для фоновой записи: под блокировкой чтения копируются только словарь категорий
+    // и бюджеты, массивы транзакций общие с кошельком (TransactionColumns.snapshot) - O(категорий), не O(истории)
+    Wallet snapshot() {
+        lock.readLock().lock();
+        try {
+            return new Wallet(transactions.snapshot(), new HashSet<>(categories), budgets.copy(), version);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // несколько действий с кошельком как одно целое: другие сессии не увидят промежуточного состояния
+    public <T> T update(Supplier<T> change) {
+        lock.writeLock().lock();
+        try {
+            return change.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    public <T> T read(Supplier<T> query) {
+        lock.readLock().lock();
+        try {
+            return query.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    Lock readLock() {
+        return lock.readLock();
+    }
+    Lock writeLock() {
+        return lock.writeLock();
+    }
 
     public void addCategory(String category) {
-        categories.add(category);
+        lock.writeLock().lock();
+        try {
+            categories.add(category);
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
     public boolean hasCategory(String category) {
-        return categories.contains(category); 
+        lock.readLock().lock();
+        try {
+            return categories.contains(category);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
     public Set<String> getCategories() {
-        return Collections.unmodifiableSet(categories); 
+        lock.readLock().lock();
+        try {
+            return Collections.unmodifiableSet(new HashSet<>(categories));
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     public void setBudget(String category, double amount) {
-        budgets.put(category, amount);
-        categories.add(category);
+        setBudgetCents(category, Money.toCents(amount));
+    }
+    public void setBudgetCents(String category, long cents) {
+        lock.writeLock().lock();
+        try {
+            budgets.put(category, cents);
+            categories.add(category);
+            budgetTracker.put(category, cents, budgetTracker.has(category) ? budgetTracker.spent(category) : sumExpenses(category));
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
     public Double getBudget(String category) {
-        return budgets.get(category); 
+        long cents = getBudgetCents(category);
+        return cents < 0 ? null : Money.toAmount(cents);
+    }
+    // -1, если бюджет не задан
+    public long getBudgetCents(String category) {
+        lock.readLock().lock();
+        try {
+            return budgets.get(category, -1);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
-    public Map<String, Double> getBudgets() {
-        return Collections.unmodifiableMap(budgets); 
+    @Override
+    public CentsMap getBudgetsCents() {
+        lock.readLock().lock();
+        try {
+            return budgets.copy();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     public void addTransaction(Transaction tx) {
-        transactions.add(tx);
-        categories.add(tx.getCategory());
+        lock.writeLock().lock();
+        try {
+            addLocked(tx.getType(), tx.getCategory(), tx.getCents(), tx.getCreatedMillis(), tx.getNote());
+            indexTimes(transactions.size() - 1);
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    // пачка транзакций под одной блокировкой (импорт)
+    public void addTransactions(List<Transaction> batch) {
+        lock.writeLock().lock();
+        try {
+            transactions.ensureCapacity(transactions.size() + batch.size());
+            int first = transactions.size();
+            for (Transaction tx : batch) {
+                addLocked(tx.getType(), tx.getCategory(), tx.getCents(), tx.getCreatedMillis(), tx.getNote());
+            }
+            indexTimes(first);
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    // запись из файла (WalletCodec) - без промежуточного объекта Transaction
+    void addLoaded(Transaction.Type type, String category, long cents, long createdMillis, String note) {
+        lock.writeLock().lock();
+        try {
+            addLocked(type, category, cents, createdMillis, note);
+            indexTimes(transactions.size() - 1);
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addLocked(Transaction.Type type, String category, long cents, long createdMillis, CharSequence note) {
+        transactions.add(type, category, cents, createdMillis, note);
+        categories.add(category);
+        totals[type.ordinal()] += cents;
+        if (type == Transaction.Type.EXPENSE) {
+            budgetTracker.onExpense(category, cents);
+        }
     }
+
+    // список только для чтения без копирования: транзакция собирается из столбцов при обращении.
+    // размер - на момент вызова; если после этого транзакции удалялись или позиции сдвинулись (сжатие) -
+    // ConcurrentModificationException, как у коллекций, измененных во время обхода
     public List<Transaction> getTransactions() {
-        return Collections.unmodifiableList(transactions); 
+        lock.readLock().lock();
+        try {
+            int[] live = null; // позиции неудаленных строк; null - удаленных нет, номер в списке и есть позиция
+            if (transactions.deletedCount() > 0) {
+                live = new int[transactions.liveSize()];
+                for (int i = 0, k = 0; i < transactions.size(); i++) {
+                    if (!transactions.isDeleted(i)) {
+                        live[k++] = i;
+                    }
+                }
+            }
+            return new TransactionView(live, transactions.liveSize(), layoutEpoch, transactions.deletedCount());
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
-    public double totalIncome() {
-        return transactions.stream().filter(t->t.getType()==Transaction.Type.INCOME).mapToDouble(Transaction::getAmount).sum();
+    private final class TransactionView extends AbstractList<Transaction> implements RandomAccess {
+        private final int[] live;
+        private final int size;
+        private final int epoch;
+        private final int deleted;
+
+        TransactionView(int[] live, int size, int epoch, int deleted) {
+            this.live = live;
+            this.size = size;
+            this.epoch = epoch;
+            this.deleted = deleted;
+        }
+
+        @Override
+        public Transaction get(int index) {
+            Objects.checkIndex(index, size);
+            lock.readLock().lock();
+            try {
+                if (epoch != layoutEpoch || deleted != transactions.deletedCount()) {
+                    throw new ConcurrentModificationException();
+                }
+                return transactions.get(live == null ? index : live[index]);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
     }
-    public double totalExpense() {
-        return transactions.stream().filter(t->t.getType()==Transaction.Type.EXPENSE).mapToDouble(Transaction::getAmount).sum();
+    // страница транзакций после курсора (null - с начала, при reverse - с конца);
+    // стоимость зависит от размера страницы, а не от всей истории
+    public Page page(String after, int limit, boolean reverse) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("размер страницы должен быть > 0");
+        }
+        lock.readLock().lock();
+        try {
+            int size = transactions.size();
+            int step = reverse ? -1 : 1;
+            int i = reverse ? size - 1 : 0;
+            if (after != null) {
+                i = cursorPosition(after) + step;
+            }
+            List<Transaction> items = new ArrayList<>(Math.min(limit, size));
+            for (; items.size() < limit && i >= 0 && i < size; i += step) {
+                if (!transactions.isDeleted(i)) {
+                    items.add(transactions.get(i));
+                }
+            }
+            while (i >= 0 && i < size && transactions.isDeleted(i)) {
+                i += step; // чтобы не отдать курсор на пустую последнюю страницу
+            }
+            String next = i >= 0 && i < size ? layoutEpoch + ":" + (i - step) : null;
+            return new Page(items, next);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // то же по времени создания: транзакции из [from, to) от старых к новым (при reverse - от новых к старым);
+    // null - без границы. Курсор того же вида, что у page(), поэтому вставка более старой транзакции его не сбивает
+    public Page pageBetween(LocalDateTime from, LocalDateTime to, String after, int limit, boolean reverse) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("размер страницы должен быть > 0");
+        }
+        lock.readLock().lock();
+        try {
+            int lo = lowerBound(millis(from, Long.MIN_VALUE));
+            int hi = lowerBound(millis(to, Long.MAX_VALUE));
+            int step = reverse ? -1 : 1;
+            int i = reverse ? hi - 1 : lo;
+            if (after != null) {
+                int pos = cursorPosition(after);
+                int next = upperBound(transactions.millis(pos), pos); // первая запись после курсора
+                i = reverse ? Math.min(next - 2, hi - 1) : Math.max(next, lo);
+            }
+            List<Transaction> items = new ArrayList<>(Math.max(0, Math.min(limit, hi - lo)));
+            for (; items.size() < limit && i >= lo && i < hi; i += step) {
+                if (!transactions.isDeleted(timeOrder[i])) {
+                    items.add(transactions.get(timeOrder[i]));
+                }
+            }
+            while (i >= lo && i < hi && transactions.isDeleted(timeOrder[i])) {
+                i += step;
+            }
+            String next = i >= lo && i < hi ? layoutEpoch + ":" + timeOrder[i - step] : null;
+            return new Page(items, next);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // курсор: <эпоха>:<позиция последней показанной транзакции>
+    private int cursorPosition(String cursor) {
+        int colon = cursor.indexOf(':');
+        int epoch;
+        int pos;
+        try {
+            epoch = Integer.parseInt(cursor.substring(0, Math.max(colon, 0)));
+            pos = Integer.parseInt(cursor.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("неверный курсор: " + cursor);
+        }
+        if (epoch != layoutEpoch) {
+            throw new IllegalArgumentException("курсор устарел, список транзакций изменился - начните сначала");
+        }
+        if (pos < 0 || pos >= transactions.size()) {
+            throw new IllegalArgumentException("неверный курсор: " + cursor);
+        }
+        return pos;
+    }
+
+    public static final class Page {
+        private final List<Transaction> items;
+        private final String nextCursor;
+
+        Page(List<Transaction> items, String nextCursor) {
+            this.items = items;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<Transaction> getItems() {
+            return items;
+        }
+        // null - дальше транзакций нет
+        public String getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    // транзакции из [from, to) в порядке времени
+    public List<Transaction> transactionsBetween(LocalDateTime from, LocalDateTime to) {
+        lock.readLock().lock();
+        try {
+            int lo = lowerBound(millis(from, Long.MIN_VALUE));
+            int hi = lowerBound(millis(to, Long.MAX_VALUE));
+            List<Transaction> res = new ArrayList<>(Math.max(0, hi - lo));
+            for (int i = lo; i < hi; i++) {
+                if (!transactions.isDeleted(timeOrder[i])) {
+                    res.add(transactions.get(timeOrder[i]));
+                }
+            }
+            return res;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    public int countBetween(LocalDateTime from, LocalDateTime to) {
+        lock.readLock().lock();
+        try {
+            int lo = lowerBound(millis(from, Long.MIN_VALUE));
+            int hi = lowerBound(millis(to, Long.MAX_VALUE));
+            int count = Math.max(0, hi - lo);
+            if (transactions.deletedCount() > 0) { // удаленные строки остаются в индексе до сжатия
+                for (int i = lo; i < hi; i++) {
+                    if (transactions.isDeleted(timeOrder[i])) {
+                        count--;
+                    }
+                }
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    // суммы по категориям за [from, to): проходим только транзакции из диапазона,
+    // складываем в массив по номеру категории и только потом переводим в имена
+    public CentsMap totalsByCategoryCents(Transaction.Type type, LocalDateTime from, LocalDateTime to) {
+        lock.readLock().lock();
+        try {
+            long[] sums = new long[transactions.categoryCount()];
+            boolean[] seen = new boolean[sums.length];
+            int hi = lowerBound(millis(to, Long.MAX_VALUE));
+            for (int i = lowerBound(millis(from, Long.MIN_VALUE)); i < hi; i++) {
+                int pos = timeOrder[i];
+                if (transactions.type(pos) == type && !transactions.isDeleted(pos)) {
+                    int id = transactions.categoryId(pos);
+                    sums[id] += transactions.cents(pos);
+                    seen[id] = true;
+                }
+            }
+            CentsMap res = new CentsMap();
+            for (int id = 0; id < sums.length; id++) {
+                if (seen[id]) {
+                    res.put(transactions.name(id), sums[id]);
+                }
+            }
+            return res;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    public Map<String, Double> totalsByCategory(Transaction.Type type, LocalDateTime from, LocalDateTime to) {
+        return totalsByCategoryCents(type, from, to).toAmounts();
+    }
+
+    // без копирования, только под readLock() (для записи кошелька в файл)
+    TransactionColumns columns() {
+        return transactions;
+    }
+
+    // посетитель вызывается под блокировкой чтения, изменения кошелька ждут окончания обхода
+    @Override
+    public void forEachTransaction(TransactionVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            transactions.forEach(visitor);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long totalCents(Transaction.Type type) {
+        lock.readLock().lock();
+        try {
+            return totals[type.ordinal()];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    public long totalCentsByCategory(String category, Transaction.Type type) {
+        lock.readLock().lock();
+        try {
+            return sumLocked(category, type);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // сравнение без учета регистра, поэтому проходим по словарю категорий, а не по транзакциям
+    private long sumLocked(String category, Transaction.Type type) {
+        long sum = 0;
+        for (int id = 0; id < transactions.categoryCount(); id++) {
+            String name = transactions.name(id);
+            if (name != null && name.equalsIgnoreCase(category)) {
+                sum += transactions.sum(type, id);
+            }
+        }
+        return sum;
+    }
+
+    private long sumExpenses(String category) {
+        return sumLocked(category, Transaction.Type.EXPENSE);
     }
     public double totalByCategory(String category, Transaction.Type type) {
-        return transactions.stream()
-                .filter(t->t.getType()==type && t.getCategory().equalsIgnoreCase(category))
-                .mapToDouble(Transaction::getAmount).sum();
+        return Money.toAmount(totalCentsByCategory(category, type));
     }
-    public Map<String, Double> totalsByCategory(Transaction.Type type) {
-        Map<String, Double> res = new HashMap<>();
-        for(Transaction t: transactions) {
-            if(t.getType()==type) {
-                res.merge(t.getCategory(), t.getAmount(), Double::sum);
+    @Override
+    public CentsMap totalsByCategoryCents(Transaction.Type type) {
+        lock.readLock().lock();
+        try {
+            CentsMap res = new CentsMap(transactions.categoryCount());
+            for (int id = 0; id < transactions.categoryCount(); id++) {
+                if (transactions.rows(type, id) > 0) {
+                    res.put(transactions.name(id), transactions.sum(type, id));
+                }
             }
+            return res;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // для категории с бюджетом - готовое значение, без прохода по словарю
+    @Override
+    public long spentCentsInCategory(String category) {
+        lock.readLock().lock();
+        try {
+            return budgetTracker.has(category) ? budgetTracker.spent(category) : sumExpenses(category);
+        } finally {
+            lock.readLock().unlock();
         }
-        return res;
     }
 
-    public double spentInCategory(String category) {
-        return totalByCategory(category, Transaction.Type.EXPENSE);
+    // оповещение о пороге бюджета категории (проценты по возрастанию), пройденном с прошлой проверки;
+    // вызывается после изменения, под той же блокировкой записи
+    public void checkBudget(String category, int[] thresholds, BudgetTracker.Listener listener) {
+        lock.writeLock().lock();
+        try {
+            budgetTracker.check(category, thresholds, listener);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    // самый высокий порог, пройденный сейчас; 0 - ни одного или бюджета нет
+    public int budgetLevel(String category, int[] thresholds) {
+        lock.readLock().lock();
+        try {
+            long budget = budgets.get(category, -1);
+            return budget < 0 ? 0 : BudgetTracker.highestCrossed(thresholds, budgetTracker.spent(category), budget);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    // уже достигнутые пороги не объявляются повторно (после загрузки и повтора журнала)
+    public void settleBudgets() {
+        lock.writeLock().lock();
+        try {
+            budgetTracker.settle();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     public boolean renameCategory(String oldCategory, String newCategory) {
@@ -67,6 +536,15 @@ public class Wallet implements Serializable {
                 oldCategory.trim().isEmpty() || newCategory.trim().isEmpty()) {
             return false;
         }
+        lock.writeLock().lock();
+        try {
+            return renameLocked(oldCategory, newCategory);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean renameLocked(String oldCategory, String newCategory) {
 
         if (!categories.contains(oldCategory)) {
             return false; // Старая категория не существует
@@ -81,78 +559,332 @@ public class Wallet implements Serializable {
         categories.add(newCategory);
 
         // Обновляем бюджеты
-        Double budget = budgets.get(oldCategory);
-        if (budget != null) {
-            budgets.remove(oldCategory);
-            budgets.put(newCategory, budget);
-        }
-
-        // Обновляем транзакции (создаем новые с обновленной категорией)
-        List<Transaction> updatedTransactions = new ArrayList<>();
-        for (Transaction transaction : transactions) {
-            if (transaction.getCategory().equals(oldCategory)) {
-                // Создаем новую транзакцию с обновленной категорией
-                Transaction updatedTransaction = new Transaction(
-                        transaction.getType(),
-                        newCategory,
-                        transaction.getAmount(),
-                        transaction.getNote()
-                );
-                updatedTransactions.add(updatedTransaction);
-            } else {
-                updatedTransactions.add(transaction);
-            }
+        if (budgets.containsKey(oldCategory)) {
+            budgets.put(newCategory, budgets.remove(oldCategory));
         }
 
-        // Заменяем старый список транзакций на обновленный
-        transactions.clear();
-        transactions.addAll(updatedTransactions);
+        // Транзакции и суммы ссылаются на номер категории - меняется только имя в словаре, O(1)
+        transactions.renameCategory(oldCategory, newCategory);
+
+        // бюджет переходит к новому имени; потраченное пересчитывается у бюджетов, совпадающих без учета регистра
+        // со старым или новым именем - расходы переименованной категории теперь засчитываются им
+        budgetTracker.rename(oldCategory, newCategory, sumExpenses(newCategory));
+        refreshBudgets(oldCategory);
+        refreshBudgets(newCategory);
 
+        version++;
         return true;
     }
 
     public boolean deleteCategory(String category) {
+        lock.writeLock().lock();
+        try {
+            return deleteLocked(category);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean deleteLocked(String category) {
         if (category == null || category.trim().isEmpty() || !categories.contains(category)) {
             return false;
         }
 
         // Проверяем, есть ли транзакции с этой категорией
-        boolean hasTransactions = transactions.stream()
-                .anyMatch(t -> t.getCategory().equals(category));
-
-        if (hasTransactions) {
+        if (countLocked(category) > 0) {
             return false; // Нельзя удалить категорию с транзакциями
         }
 
         // Удаляем категорию из всех мест
         categories.remove(category);
         budgets.remove(category);
+        budgetTracker.remove(category);
 
+        version++;
         return true;
     }
     public int forceDeleteCategory(String category) {
+        lock.writeLock().lock();
+        try {
+            return forceDeleteLocked(category);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int forceDeleteLocked(String category) {
         if (category == null || category.trim().isEmpty() || !categories.contains(category)) {
             return -1;
         }
 
         // Подсчитываем и удаляем связанные транзакции
-        int removedTransactions = (int) transactions.stream()
-                .filter(t -> t.getCategory().equals(category))
-                .count();
-
-        transactions.removeIf(t -> t.getCategory().equals(category));
+        int removedTransactions = countLocked(category);
+        if (removedTransactions > 0) {
+            // Вычитаем суммы удаленной категории из общих итогов
+            int id = transactions.idOf(category);
+            for (Transaction.Type type : Transaction.Type.values()) {
+                totals[type.ordinal()] -= transactions.sum(type, id);
+            }
+            // строки только помечаются удаленными: O(удаленных), позиции и курсоры остаются в силе.
+            // место освобождается при сохранении (compact)
+            transactions.removeCategory(category);
+        }
 
         // Удаляем категорию
         categories.remove(category);
         budgets.remove(category);
+        budgetTracker.remove(category);
+        if (removedTransactions > 0) {
+            refreshBudgets(category);
+        }
 
+        version++;
         return removedTransactions;
     }
 
     // Добавляем геттер для удобства
     public List<Transaction> getTransactionsByCategory(String category) {
-        return transactions.stream()
-                .filter(t -> t.getCategory().equals(category))
-                .collect(Collectors.toList());
+        lock.readLock().lock();
+        try {
+            int id = transactions.idOf(category);
+            int n = transactions.count(id);
+            List<Transaction> res = new ArrayList<>(n);
+            for (int k = 0; k < n; k++) {
+                res.add(transactions.get(transactions.positions(id)[k]));
+            }
+            return res;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    public int countByCategory(String category) {
+        lock.readLock().lock();
+        try {
+            return countLocked(category);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int countLocked(String category) {
+        return transactions.count(transactions.idOf(category));
+    }
+
+    // удаленных строк не меньше четверти - стоит сжать (StorageService делает это перед записью кошелька)
+    public boolean needsCompaction() {
+        lock.readLock().lock();
+        try {
+            return transactions.deletedCount() > 0 && transactions.deletedCount() * 4 >= transactions.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    // убирает удаленные строки из памяти; позиции сдвигаются, поэтому старые курсоры перестают действовать.
+    // содержимое кошелька не меняется - версия тоже. Возвращает количество освобожденных строк
+    public int compact() {
+        lock.writeLock().lock();
+        try {
+            int removed = transactions.compact();
+            if (removed > 0) {
+                rebuildTimeIndex();
+                layoutEpoch++;
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isDirty() {
+        lock.readLock().lock();
+        try {
+            return version != savedVersion;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    @Override
+    public long getVersion() {
+        lock.readLock().lock();
+        try {
+            return version;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    public long getPersistedLsn() {
+        lock.readLock().lock();
+        try {
+            return persistedLsn;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    // кошелек записан в хранилище и содержит все записи журнала до lsn включительно
+    public void markSaved(long lsn) {
+        lock.writeLock().lock();
+        try {
+            markSaved(lsn, version);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    // в файл попало состояние savedVersion; изменения, сделанные во время записи, остаются несохраненными
+    public void markSaved(long lsn, long savedVersion) {
+        lock.writeLock().lock();
+        try {
+            this.savedVersion = savedVersion;
+            persistedLsn = lsn;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // потраченное заново для бюджетов с тем же именем без учета регистра
+    private void refreshBudgets(String category) {
+        budgets.forEach((name, limit) -> {
+            if (name.equalsIgnoreCase(category)) {
+                budgetTracker.put(name, limit, sumExpenses(name));
+            }
+        });
+    }
+
+    private void rebuildTotals() {
+        totals = new long[Transaction.Type.values().length];
+        for (Transaction.Type type : Transaction.Type.values()) {
+            for (int id = 0; id < transactions.categoryCount(); id++) {
+                totals[type.ordinal()] += transactions.sum(type, id);
+            }
+        }
+    }
+
+    private void rebuildTimeIndex() {
+        timeOrder = new int[Math.max(16, transactions.size())];
+        indexTimes(0);
+    }
+
+    // добавляет в индекс по времени транзакции с позиции first до конца списка.
+    // обычно они новее уже проиндексированных и просто дописываются в конец; иначе хвост сортируется
+    // и сливается с индексом с конца - сдвигаются только записи, которые оказались позже вставленных
+    private void indexTimes(int first) {
+        int n = transactions.size();
+        if (timeOrder.length < n) {
+            int cap = Math.max(n, timeOrder.length * 2);
+            timeOrder = Arrays.copyOf(timeOrder, cap);
+        }
+        boolean ordered = true;
+        for (int i = first; i < n; i++) {
+            timeOrder[i] = i;
+            ordered &= i == 0 || time(i - 1) <= time(i);
+        }
+        if (ordered) {
+            return;
+        }
+        int[] tmpOrder = new int[n - first];
+        for (int width = 1; width < n - first; width *= 2) { // сортировка слиянием снизу вверх, устойчивая
+            for (int lo = first; lo < n - width; lo += 2 * width) {
+                mergeTimes(lo, lo + width, Math.min(lo + 2 * width, n), tmpOrder);
+            }
+        }
+        mergeTimes(0, first, n, tmpOrder);
+    }
+
+    // время i-го элемента индекса; отдельный массив времен не храним - они уже есть в столбце
+    private long time(int i) {
+        return transactions.millis(timeOrder[i]);
+    }
+
+    // сливает упорядоченные [lo, mid) и [mid, hi); при равном времени левые (с меньшей позицией) остаются раньше
+    private void mergeTimes(int lo, int mid, int hi, int[] tmpOrder) {
+        if (mid <= lo || mid >= hi || time(mid - 1) <= time(mid)) {
+            return;
+        }
+        int k = hi - mid;
+        System.arraycopy(timeOrder, mid, tmpOrder, 0, k);
+        int i = mid - 1;
+        int j = k - 1;
+        for (int d = hi - 1; j >= 0; d--) {
+            if (i >= lo && time(i) > transactions.millis(tmpOrder[j])) {
+                timeOrder[d] = timeOrder[i--];
+            } else {
+                timeOrder[d] = tmpOrder[j--];
+            }
+        }
+    }
+
+    // первый элемент индекса со временем >= millis
+    private int lowerBound(long millis) {
+        int lo = 0;
+        int hi = transactions.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (time(mid) < millis) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // первый элемент индекса после транзакции (millis, pos)
+    private int upperBound(long millis, int pos) {
+        int lo = 0;
+        int hi = transactions.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            long t = time(mid);
+            if (t < millis || t == millis && timeOrder[mid] <= pos) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static long millis(LocalDateTime t, long unbounded) {
+        return t == null ? unbounded : t.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        lock.readLock().lock();
+        try {
+            ObjectOutputStream.PutField f = out.putFields();
+            List<Transaction> list = new ArrayList<>(transactions.liveSize());
+            for (int i = 0; i < transactions.size(); i++) {
+                if (!transactions.isDeleted(i)) {
+                    list.add(transactions.get(i));
+                }
+            }
+            f.put("transactions", list);
+            f.put("budgets", budgets.toAmounts());
+            f.put("categories", categories);
+            out.writeFields();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField f = in.readFields();
+        transactions = new TransactionColumns();
+        List<Transaction> list = (List<Transaction>) f.get("transactions", null);
+        transactions.ensureCapacity(list.size());
+        for (Transaction t : list) {
+            transactions.add(t);
+        }
+        categories = (Set<String>) f.get("categories", null);
+        budgets = new CentsMap();
+        ((Map<String, Double>) f.get("budgets", null)).forEach((category, amount) -> budgets.put(category, Money.toCents(amount)));
+        budgetTracker = new BudgetTracker();
+        budgets.forEach((category, limit) -> budgetTracker.put(category, limit, sumExpenses(category)));
+        budgetTracker.settle();
+        lock = new ReentrantReadWriteLock();
+        layoutEpoch = ThreadLocalRandom.current().nextInt(1 << 24);
+        rebuildTotals();
+        rebuildTimeIndex();
+        savedVersion = -1;
     }
 }
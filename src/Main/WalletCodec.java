@@ -0,0 +1,483 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32C;
+import java.util.zip.Inflater;
+
+// двоичный формат файла кошелька вместо Java-сериализации:
+//   заголовок: magic, версия, lsn
+//   блоки BlockFile (сжатые, с CRC32C), первый байт блока - его вид:
+//     META: категории кошелька (строки), бюджеты (строка + сумма), суммы транзакций по категориям для каждого
+//       типа (количество, строка + сумма) - по ним MappedWallet отвечает без распаковки блоков с транзакциями;
+//       в файлах, записанных до появления сумм, их нет, и суммы считаются обходом транзакций
+//     TRANSACTIONS: свой словарь категорий (количество, строки), количество транзакций и транзакции:
+//       тип (байт), номер категории в словаре блока, сумма, время (разница с предыдущей в блоке, мс), заметка
+//     END: количество блоков с транзакциями и транзакций - по нему видно, что файл не оборван
+// блок с транзакциями читается без остальных, поэтому поврежденный блок теряет только свои транзакции.
+// целые числа пишутся varint, чтобы маленькие значения занимали 1-2 байта; суммы - копейки (varint, zigzag).
+// версии 2 (суммы double) и 3 (тот же формат без блоков и сжатия) читаются и переписываются при следующем сохранении
+public final class WalletCodec {
+    static final int MAGIC = 0x46585757;         // "FXWW"
+    static final byte VERSION_SERIALIZED = 1;    // кошелек через ObjectOutputStream (старые файлы)
+    static final byte VERSION_DOUBLE = 2;        // суммы как double
+    static final byte VERSION_PLAIN = 3;         // один несжатый поток с общим словарем
+    static final byte VERSION = 4;
+    static final int HEADER_SIZE = 4 + 1 + 8;
+    static final byte META = 0;
+    static final byte TRANSACTIONS = 1;
+    static final byte END = 2;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private WalletCodec() {
+    }
+
+    // пишет состояние кошелька целиком под блокировкой чтения; возвращает номер записанного изменения
+    public static long write(WritableByteChannel ch, Wallet w, long lsn) throws IOException {
+        w.readLock().lock();
+        try {
+            writeBody(ch, w, lsn);
+            return w.getVersion();
+        } finally {
+            w.readLock().unlock();
+        }
+    }
+
+    private static void writeBody(WritableByteChannel ch, Wallet w, long lsn) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).put(VERSION).putLong(lsn);
+        header.flip();
+        while (header.hasRemaining()) {
+            ch.write(header);
+        }
+        BlockFile.Writer out = new BlockFile.Writer(ch);
+        try {
+            BlockFile.Bytes block = new BlockFile.Bytes();
+            block.put(META);
+            Set<String> categories = w.getCategories();
+            block.putVarInt(categories.size());
+            for (String c : categories) {
+                block.putString(c);
+            }
+            CentsMap budgets = w.getBudgetsCents();
+            block.putVarInt(budgets.size());
+            for (int i = 0; i < budgets.slots(); i++) {
+                if (budgets.keyAt(i) != null) {
+                    block.putString(budgets.keyAt(i));
+                    block.putVarLong(zigZag(budgets.valueAt(i)));
+                }
+            }
+            for (Transaction.Type type : Transaction.Type.values()) {
+                CentsMap sums = w.totalsByCategoryCents(type);
+                block.putVarInt(sums.size());
+                for (int i = 0; i < sums.slots(); i++) {
+                    if (sums.keyAt(i) != null) {
+                        block.putString(sums.keyAt(i));
+                        block.putVarLong(zigZag(sums.valueAt(i)));
+                    }
+                }
+            }
+            out.block(block);
+
+            TransactionColumns transactions = w.columns();
+            // номера категорий в столбцах кошелька -> номера в словаре текущего блока, -1 - еще не встречалась
+            int[] local = new int[transactions.categoryCount()];
+            Arrays.fill(local, -1);
+            List<String> dictionary = new ArrayList<>();
+            BlockFile.Bytes records = new BlockFile.Bytes();
+            int inBlock = 0;
+            int blocks = 0;
+            long prevMillis = 0;
+            for (int i = 0; i < transactions.size(); i++) {
+                if (transactions.isDeleted(i)) {
+                    continue;
+                }
+                int id = transactions.categoryId(i);
+                if (local[id] < 0) {
+                    local[id] = dictionary.size();
+                    dictionary.add(transactions.name(id));
+                }
+                long millis = transactions.millis(i);
+                records.put(transactions.type(i).ordinal());
+                records.putVarInt(local[id]);
+                records.putVarLong(zigZag(transactions.cents(i)));
+                records.putVarLong(zigZag(millis - prevMillis));
+                records.putString(transactions.note(i));
+                prevMillis = millis;
+                inBlock++;
+                if (records.size() >= BlockFile.BLOCK_SIZE) {
+                    writeTransactions(out, block, dictionary, inBlock, records);
+                    blocks++;
+                    Arrays.fill(local, -1);
+                    dictionary.clear();
+                    records.clear();
+                    inBlock = 0;
+                    prevMillis = 0;
+                }
+            }
+            if (inBlock > 0) {
+                writeTransactions(out, block, dictionary, inBlock, records);
+                blocks++;
+            }
+            block.clear();
+            block.put(END);
+            block.putVarInt(blocks);
+            block.putVarInt(transactions.liveSize());
+            out.block(block);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeTransactions(BlockFile.Writer out, BlockFile.Bytes block, List<String> dictionary,
+                                          int count, BlockFile.Bytes records) throws IOException {
+        block.clear();
+        block.put(TRANSACTIONS);
+        block.putVarInt(dictionary.size());
+        for (String name : dictionary) {
+            block.putString(name);
+        }
+        block.putVarInt(count);
+        block.putBytes(records);
+        out.block(block);
+    }
+
+    // любое повреждение - исключение (оборванный файл - EOFException)
+    public static Wallet read(ReadableByteChannel ch) throws IOException {
+        return read(ch, null);
+    }
+
+    // problems != null: поврежденные блоки пропускаются, их описания добавляются в problems, кошелек собирается
+    // из уцелевших блоков и остается несохраненным, чтобы следующее сохранение записало его без повреждений.
+    // испорченный заголовок файла - по-прежнему исключение
+    public static Wallet read(ReadableByteChannel ch, List<String> problems) throws IOException {
+        // заголовок читаем отдельно: за ним может идти поток ObjectInputStream старой версии
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(ch, header);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("неизвестный формат файла кошелька");
+        }
+        byte version = header.get();
+        long lsn = header.getLong();
+        Wallet w;
+        if (version == VERSION_SERIALIZED) {
+            try {
+                w = (Wallet) new ObjectInputStream(Channels.newInputStream(ch)).readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        } else if (version == VERSION) {
+            List<String> found = new ArrayList<>();
+            w = readBlocks(ch, found);
+            if (!found.isEmpty()) {
+                if (problems == null) {
+                    throw found.get(0).equals(TRUNCATED) ? new EOFException(TRUNCATED) : new IOException(found.get(0));
+                }
+                problems.addAll(found);
+                version = -1;
+            }
+        } else if (version == VERSION_PLAIN || version == VERSION_DOUBLE) {
+            w = readBody(new In(ch), version == VERSION_DOUBLE);
+        } else {
+            throw new IOException("неподдерживаемая версия файла кошелька: " + version);
+        }
+        w.settleBudgets(); // о порогах, пройденных до сохранения, уже сообщали
+        // кошелек старой версии остается несохраненным, чтобы следующее сохранение записало его в новом формате
+        w.markSaved(lsn, version == VERSION ? w.getVersion() : -1);
+        return w;
+    }
+
+    private static final String TRUNCATED = "файл кошелька оборван";
+
+    private static Wallet readBlocks(ReadableByteChannel ch, List<String> problems) throws IOException {
+        Wallet w = new Wallet();
+        BlockFile.Reader in = new BlockFile.Reader(ch, HEADER_SIZE);
+        Transaction.Type[] types = Transaction.Type.values();
+        boolean meta = false;
+        int blocks = 0;
+        long count = 0;
+        long expectedBlocks = -1;
+        long expectedCount = -1;
+        for (ByteBuffer b = in.next(); b != null; b = in.next()) {
+            byte kind = b.get();
+            if (kind == META) {
+                Meta m = readMeta(b);
+                for (String c : m.categories) {
+                    w.addCategory(c);
+                }
+                m.budgets.forEach(w::setBudgetCents);
+                meta = true;
+            } else if (kind == TRANSACTIONS) {
+                String[] dictionary = readDictionary(b);
+                int n = BlockFile.getVarInt(b);
+                long millis = 0;
+                for (int i = 0; i < n; i++) {
+                    Transaction.Type type = types[b.get()];
+                    String category = dictionary[BlockFile.getVarInt(b)];
+                    long cents = unZigZag(BlockFile.getVarLong(b));
+                    millis += unZigZag(BlockFile.getVarLong(b));
+                    w.addLoaded(type, category, cents, millis, BlockFile.getString(b));
+                }
+                blocks++;
+                count += n;
+            } else if (kind == END) {
+                expectedBlocks = BlockFile.getVarInt(b);
+                expectedCount = BlockFile.getVarInt(b);
+            }
+        }
+        // без завершающего блока файл оборван, и это главное, о чем надо сообщить
+        if (expectedCount < 0) {
+            problems.add(TRUNCATED);
+        }
+        problems.addAll(in.problems());
+        if (!meta) {
+            problems.add("потеряны категории и бюджеты");
+        }
+        if (expectedCount > count) {
+            problems.add(String.format("потеряно транзакций: %d из %d (блоков: %d из %d)",
+                    expectedCount - count, expectedCount, expectedBlocks - blocks, expectedBlocks));
+        }
+        return w;
+    }
+
+    private static Wallet readBody(In in, boolean doubles) throws IOException {
+        Wallet w = new Wallet();
+        String[] dictionary = new String[in.getVarInt()];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = in.getString();
+        }
+        int categoryCount = in.getVarInt();
+        for (int i = 0; i < categoryCount; i++) {
+            w.addCategory(dictionary[in.getVarInt()]);
+        }
+        int budgetCount = in.getVarInt();
+        for (int i = 0; i < budgetCount; i++) {
+            String category = dictionary[in.getVarInt()];
+            w.setBudgetCents(category, in.getAmount(doubles));
+        }
+        Transaction.Type[] types = Transaction.Type.values();
+        int txCount = in.getVarInt();
+        long millis = 0;
+        for (int i = 0; i < txCount; i++) {
+            in.ensure(1);
+            Transaction.Type type = types[in.buf.get()];
+            String category = dictionary[in.getVarInt()];
+            long cents = in.getAmount(doubles);
+            millis += unZigZag(in.getVarLong());
+            String note = in.getString();
+            w.addLoaded(type, category, cents, millis, note);
+        }
+        return w;
+    }
+
+    // содержимое блока META (после байта вида)
+    static final class Meta {
+        final List<String> categories = new ArrayList<>();
+        final CentsMap budgets = new CentsMap();
+        CentsMap[] sums; // [тип]: категория -> сумма; null - файл записан до появления сумм
+    }
+
+    static Meta readMeta(ByteBuffer b) {
+        Meta m = new Meta();
+        int categoryCount = BlockFile.getVarInt(b);
+        for (int i = 0; i < categoryCount; i++) {
+            m.categories.add(BlockFile.getString(b));
+        }
+        int budgetCount = BlockFile.getVarInt(b);
+        for (int i = 0; i < budgetCount; i++) {
+            String category = BlockFile.getString(b);
+            m.budgets.put(category, unZigZag(BlockFile.getVarLong(b)));
+        }
+        if (b.hasRemaining()) {
+            Transaction.Type[] types = Transaction.Type.values();
+            m.sums = new CentsMap[types.length];
+            for (int t = 0; t < types.length; t++) {
+                m.sums[t] = new CentsMap();
+                int n = BlockFile.getVarInt(b);
+                for (int i = 0; i < n; i++) {
+                    m.sums[t].add(BlockFile.getString(b), unZigZag(BlockFile.getVarLong(b)));
+                }
+            }
+        }
+        return m;
+    }
+
+    // словарь категорий в начале блока TRANSACTIONS (после байта вида); дальше - количество и транзакции
+    static String[] readDictionary(ByteBuffer b) {
+        String[] dictionary = new String[BlockFile.getVarInt(b)];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = BlockFile.getString(b);
+        }
+        return dictionary;
+    }
+
+    // расположение блоков целого файла версии 4 в памяти: блоки с транзакциями не распаковываются
+    // (проверяются только контрольные суммы и вид), META и END разбираются
+    static final class Layout {
+        final int[] blocks;  // смещения кадров с транзакциями
+        final int maxRaw;    // самый большой блок с транзакциями после распаковки
+        final int count;     // транзакций в файле
+        final Meta meta;
+
+        private Layout(int[] blocks, int maxRaw, int count, Meta meta) {
+            this.blocks = blocks;
+            this.maxRaw = maxRaw;
+            this.count = count;
+            this.meta = meta;
+        }
+    }
+
+    // null, если файл другой версии, поврежден или оборван: такой файл читает read, пропуская поврежденные блоки
+    static Layout layout(ByteBuffer data) {
+        int size = data.capacity();
+        if (size < HEADER_SIZE || data.getInt(0) != MAGIC || data.get(4) != VERSION) {
+            return null;
+        }
+        CRC32C crc = new CRC32C();
+        Inflater inflater = new Inflater();
+        try {
+            List<Integer> blocks = new ArrayList<>();
+            int maxRaw = 0;
+            Meta meta = null;
+            int p = HEADER_SIZE;
+            while (p < size) {
+                if (size - p < BlockFile.FRAME_SIZE) {
+                    return null;
+                }
+                int packed = BlockFile.packedLength(data, p, crc);
+                if (packed < 0 || size - p - BlockFile.FRAME_SIZE < packed) {
+                    return null;
+                }
+                int raw = BlockFile.rawLength(data, p);
+                // вид блока - первый байт после распаковки; целиком распаковываются только META и END
+                int kind = BlockFile.checksum(data, p, packed, crc) ? BlockFile.firstByte(data, p, packed, inflater) : -1;
+                if (kind == TRANSACTIONS) {
+                    blocks.add(p);
+                    maxRaw = Math.max(maxRaw, raw);
+                } else if (kind == META || kind == END) {
+                    byte[] bytes = new byte[raw];
+                    if (!BlockFile.unpack(data, p, packed, bytes, crc, inflater)) {
+                        return null;
+                    }
+                    ByteBuffer b = ByteBuffer.wrap(bytes, 1, raw - 1);
+                    if (kind == META) {
+                        meta = readMeta(b);
+                    } else {
+                        int expectedBlocks = BlockFile.getVarInt(b);
+                        int count = BlockFile.getVarInt(b);
+                        if (meta == null || expectedBlocks != blocks.size()) {
+                            return null;
+                        }
+                        int[] offsets = new int[blocks.size()];
+                        for (int i = 0; i < offsets.length; i++) {
+                            offsets[i] = blocks.get(i);
+                        }
+                        return new Layout(offsets, maxRaw, count, meta);
+                    }
+                } else {
+                    return null;
+                }
+                p += BlockFile.FRAME_SIZE + packed;
+            }
+            return null; // нет завершающего блока
+        } finally {
+            inflater.end();
+        }
+    }
+
+    static long zigZag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unZigZag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void readFully(ReadableByteChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) < 0) {
+                throw new EOFException("файл кошелька оборван");
+            }
+        }
+    }
+
+    // буфер чтения поверх канала для файлов версий 2 и 3: дочитывает данные по мере необходимости
+    private static final class In {
+        final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        final ReadableByteChannel ch;
+
+        In(ReadableByteChannel ch) {
+            this.ch = ch;
+            buf.flip();
+        }
+
+        void ensure(int n) throws IOException {
+            if (buf.remaining() >= n) {
+                return;
+            }
+            buf.compact();
+            while (buf.position() < n) {
+                if (ch.read(buf) < 0) {
+                    throw new EOFException("файл кошелька оборван");
+                }
+            }
+            buf.flip();
+        }
+
+        int getVarInt() throws IOException {
+            return (int) getVarLong();
+        }
+
+        // сумма в копейках: varint или double старой версии
+        long getAmount(boolean doubles) throws IOException {
+            if (!doubles) {
+                return unZigZag(getVarLong());
+            }
+            ensure(8);
+            return Money.toCents(buf.getDouble());
+        }
+
+        long getVarLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                ensure(1);
+                byte b = buf.get();
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return v;
+                }
+            }
+            throw new IOException("поврежденное число в файле кошелька");
+        }
+
+        String getString() throws IOException {
+            int len = getVarInt();
+            if (len == 0) {
+                return "";
+            }
+            if (len <= buf.capacity()) {
+                ensure(len);
+                String s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+                buf.position(buf.position() + len);
+                return s;
+            }
+            byte[] bytes = new byte[len];
+            int off = 0;
+            while (off < len) {
+                ensure(1);
+                int n = Math.min(buf.remaining(), len - off);
+                buf.get(bytes, off, n);
+                off += n;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+// откуда пользователь берет свой кошелек, если он еще не в памяти
+public interface WalletStore {
+    Wallet loadWallet(String login);
+
+    // представление файла кошелька только для чтения; null - если недоступно, тогда кошелек загружается целиком
+    TransactionSource openView(String login);
+
+    // то же без отображения: файл читается в память и освобождается вместе с возвращенным объектом
+    TransactionSource readView(String login);
+}
@@ -0,0 +1,132 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AnalyticsTest {
+
+    private static final String TEST_FILE = "analytics_test.ser";
+
+    @AfterEach
+    void tearDown() {
+        TestFiles.deleteStorage(TEST_FILE);
+    }
+
+    // пользователи со случайной историей; бюджет "c0" у каждого третьего, у каждого шестого он превышен
+    private static Map<String, User> users(int n) {
+        Random rnd = new Random(n);
+        Map<String, User> users = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            User u = User.restore("user" + i, "x");
+            Wallet w = u.getWallet();
+            for (int k = 0; k < 20; k++) {
+                Transaction.Type type = k % 4 == 0 ? Transaction.Type.INCOME : Transaction.Type.EXPENSE;
+                w.addTransaction(Transaction.ofCents(type, "c" + rnd.nextInt(30), 1 + rnd.nextInt(10_000), "", Transaction.fromMillis(k)));
+            }
+            if (i % 3 == 0) {
+                w.addTransaction(Transaction.ofCents(Transaction.Type.EXPENSE, "c0", 100, "", Transaction.fromMillis(20)));
+                long spent = w.spentCentsInCategory("c0");
+                w.setBudgetCents("c0", i % 6 == 0 ? spent - 1 : spent + 1);
+            }
+            users.put(u.getLogin(), u);
+        }
+        return users;
+    }
+
+    @Test
+    void testParallelSumsMatchSequential() {
+        Map<String, User> users = users(3000);
+        long income = 0;
+        long expense = 0;
+        CentsMap byCategory = new CentsMap();
+        int over = 0;
+        for (User u : users.values()) {
+            Wallet w = u.getWallet();
+            income += w.totalCents(Transaction.Type.INCOME);
+            expense += w.totalCents(Transaction.Type.EXPENSE);
+            w.totalsByCategoryCents(Transaction.Type.EXPENSE).forEach(byCategory::add);
+            if (w.getBudgetCents("c0") >= 0 && w.spentCentsInCategory("c0") > w.getBudgetCents("c0")) {
+                over++;
+            }
+        }
+
+        for (int threads : new int[]{1, 4}) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                Analytics a = Analytics.of(users.values(), pool);
+                assertEquals(3000, a.getUsers());
+                assertEquals(income, a.getIncomeCents());
+                assertEquals(expense, a.getExpenseCents());
+                assertEquals(byCategory, a.getExpenseByCategory());
+                assertEquals(over, a.getOverBudget().size());
+                assertEquals(500, over);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void testTopAndOverBudgetOrder() {
+        Map<String, User> users = new HashMap<>();
+        User alice = User.restore("alice", "x");
+        alice.getWallet().setBudgetCents("Еда", 1_000);
+        alice.getWallet().addTransaction(Transaction.ofCents(Transaction.Type.EXPENSE, "Еда", 1_500, "", Transaction.fromMillis(0)));
+        alice.getWallet().addTransaction(Transaction.ofCents(Transaction.Type.EXPENSE, "Такси", 300, "", Transaction.fromMillis(1)));
+        User bob = User.restore("bob", "x");
+        bob.getWallet().setBudgetCents("Кафе", 100);
+        bob.getWallet().addTransaction(Transaction.ofCents(Transaction.Type.EXPENSE, "Кафе", 2_000, "", Transaction.fromMillis(0)));
+        bob.getWallet().addTransaction(Transaction.ofCents(Transaction.Type.EXPENSE, "Такси", 300, "", Transaction.fromMillis(1)));
+        users.put("alice", alice);
+        users.put("bob", bob);
+
+        Analytics a = Analytics.of(users.values());
+        assertEquals(List.of("Кафе", "Еда"), Analytics.top(a.getExpenseByCategory(), 2));
+        assertEquals(List.of("Кафе", "Еда", "Такси"), Analytics.top(a.getExpenseByCategory(), 10));
+        assertEquals(600, a.getExpenseByCategory().get("Такси"));
+        List<Analytics.OverBudget> over = a.getOverBudget();
+        assertEquals("bob", over.get(0).getLogin()); // перерасход 1900 больше, чем 500
+        assertEquals("Еда", over.get(1).getCategory());
+    }
+
+    @Test
+    void testAdminOnlyAndUnloadedWallets() {
+        StorageService storage = new StorageService(TEST_FILE);
+        Map<String, User> saved = users(50);
+        storage.saveAll(saved);
+        long expense = 0;
+        for (User u : saved.values()) {
+            expense += u.getWallet().totalCents(Transaction.Type.EXPENSE);
+        }
+
+        Map<String, User> loaded = new StorageService(TEST_FILE).loadAll();
+        AuthService auth = new AuthService(loaded);
+        FinanceService finance = new FinanceService(auth);
+        auth.register("root", "pw");
+        auth.register("guest", "pw");
+        auth.setAdmins(List.of("root"));
+
+        assertEquals("Нужна авторизация", finance.analytics(5));
+        auth.login("guest", "pw");
+        assertTrue(finance.analytics(5).startsWith("Недостаточно прав"));
+        auth.login("root", "pw");
+        String report = finance.analytics(5);
+        assertTrue(report.startsWith("Пользователей: 52\n"), report);
+        assertTrue(report.contains(String.format("Общие расходы: %.2f\n", Money.toAmount(expense))), report);
+        assertTrue(report.contains("Категории расходов (топ 5 из 30):"), report);
+        assertTrue(report.contains("Превышенных бюджетов: 9\n"), report);
+        assertEquals(2, loaded.values().stream().filter(User::isWalletLoaded).count()); // остальные - из файлов
+
+        // обход читает файлы заново и не запоминает их; вид для команд пользователя по-прежнему один
+        User cold = loaded.get("user1");
+        assertNotSame(cold.scanView(), cold.scanView());
+        TransactionSource view = cold.readView();
+        assertSame(view, cold.readView());
+        assertSame(view, cold.scanView());
+        assertFalse(cold.isWalletLoaded());
+    }
+}
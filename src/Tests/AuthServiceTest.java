@@ -1,7 +1,13 @@
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 import static org.junit.jupiter.api.Assertions.*;
 public class AuthServiceTest {
 
@@ -26,6 +32,14 @@ public class AuthServiceTest {
         assertFalse(authService.register("user1", "pass2"));
     }
 
+    // занятый логин отклоняется до хеширования пароля: при огромной стоимости PBKDF2 ответ все равно мгновенный
+    @Test
+    void testDuplicateRegistrationSkipsHashing() {
+        authService.register("user1", "pass1");
+        authService.setPasswordCost(Integer.MAX_VALUE);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> assertFalse(authService.register("user1", "pass2")));
+    }
+
     @Test
     void testRegistrationWithInvalidData() {
         assertFalse(authService.register("", "pass"));
@@ -59,4 +73,115 @@ public class AuthServiceTest {
         assertFalse(authService.isAuthenticated());
         assertNull(authService.getCurrentUser());
     }
+
+    @Test
+    void testSessionsAreIndependent() {
+        authService.register("alice", "pass1");
+        authService.register("bob", "pass2");
+        Session a = authService.openSession("alice", "pass1");
+        Session b = authService.openSession("bob", "pass2");
+
+        assertNull(authService.openSession("alice", "wrong"));
+        assertNotEquals(a.getToken(), b.getToken());
+        assertSame(a, authService.getSession(a.getToken()));
+        assertEquals("bob", authService.getSession(b.getToken()).getUser().getLogin());
+
+        authService.closeSession(a);
+        assertFalse(authService.isActive(a));
+        assertTrue(authService.isActive(b));
+        assertNull(authService.getSession(a.getToken()));
+    }
+
+    @Test
+    void testLoginReplacesConsoleSession() {
+        authService.register("user", "pass");
+        authService.login("user", "pass");
+        Session first = authService.getCurrentSession();
+        authService.login("user", "pass");
+
+        assertFalse(authService.isActive(first));
+        assertTrue(authService.isAuthenticated());
+        assertEquals(1, authService.activeSessions());
+    }
+
+    @Test
+    void testSaltedHashAndLegacyUpgrade() {
+        authService.register("a", "same");
+        authService.register("b", "same");
+        String hash = users.get("a").getPasswordHash();
+        assertTrue(hash.startsWith("pbkdf2-sha256$"), hash);
+        assertNotEquals(hash, users.get("b").getPasswordHash()); // разная соль
+
+        // хеш старого вида проверяется и при первом успешном входе заменяется на PBKDF2
+        String legacy = Integer.toString("secret".hashCode());
+        users.put("old", User.restore("old", legacy));
+        assertFalse(authService.login("old", "wrong"));
+        assertEquals(legacy, users.get("old").getPasswordHash());
+        assertTrue(authService.login("old", "secret"));
+        assertEquals(authService.getPasswordCost(), PasswordHasher.iterations(users.get("old").getPasswordHash()));
+        assertTrue(authService.login("old", "secret"));
+        assertFalse(authService.login("old", "wrong"));
+    }
+
+    @Test
+    void testCostChangeUpgradesButNeverDowngrades() {
+        authService.setPasswordCost(3000);
+        authService.register("user", "pw");
+        authService.setPasswordCost(1500);
+        assertTrue(authService.login("user", "pw"));
+        assertEquals(3000, PasswordHasher.iterations(users.get("user").getPasswordHash()));
+        authService.setPasswordCost(5000);
+        assertTrue(authService.login("user", "pw"));
+        assertEquals(5000, PasswordHasher.iterations(users.get("user").getPasswordHash()));
+        assertThrows(IllegalArgumentException.class, () -> authService.setPasswordCost(0));
+    }
+
+    // неизвестный логин проверяется по фиктивному хешу той же стоимости, что и настоящие пароли
+    @Test
+    void testUnknownLoginRunsSameHashCost() {
+        authService.setPasswordCost(2000);
+        assertNull(authService.openSession("nobody", "pw"));
+        String dummy = authService.dummyHash();
+        assertEquals(2000, PasswordHasher.iterations(dummy));
+        assertNull(authService.openSession("nobody", "pw"));
+        assertSame(dummy, authService.dummyHash()); // не пересчитывается на каждый вход
+        authService.setPasswordCost(4000);
+        assertFalse(authService.login("nobody", "pw"));
+        assertEquals(4000, PasswordHasher.iterations(authService.dummyHash()));
+        assertNull(authService.openSession("nobody", null));
+    }
+
+    // входы сверх очереди пула отклоняются сразу, а не копятся и не занимают потоки команд
+    @Test
+    void testAsyncLoginPoolIsBounded() {
+        authService.setPasswordCost(300_000); // проверка занимает заметное время
+        authService.register("user", "pw");
+        authService.setLoginPool(1, 3);
+        List<CompletableFuture<Session>> logins = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            logins.add(authService.openSessionAsync("user", i % 2 == 0 ? "pw" : "bad"));
+        }
+        int opened = 0;
+        int failed = 0;
+        int rejected = 0;
+        for (CompletableFuture<Session> f : logins) {
+            try {
+                if (f.join() != null) {
+                    opened++;
+                } else {
+                    failed++;
+                }
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+                rejected++;
+            }
+        }
+        assertEquals(3, opened + failed);
+        assertEquals(17, rejected);
+        assertEquals(opened, authService.activeSessions());
+
+        assertTrue(authService.loginAsync("user", "pw").join());
+        assertEquals("user", authService.getCurrentUser().getLogin());
+        assertFalse(authService.loginAsync("user", "bad").join());
+    }
 }
@@ -0,0 +1,138 @@
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BudgetTrackerTest {
+
+    private static final int[] THRESHOLDS = {50, 80, 100};
+
+    private static List<Integer> check(BudgetTracker tracker, String category) {
+        List<Integer> fired = new ArrayList<>();
+        tracker.check(category, THRESHOLDS, (c, threshold, budget, spent) -> fired.add(threshold));
+        return fired;
+    }
+
+    @Test
+    void testEachCrossingReportedOnce() {
+        BudgetTracker tracker = new BudgetTracker();
+        tracker.put("Еда", 1000, 0);
+        assertEquals(List.of(), check(tracker, "Еда"));
+
+        tracker.onExpense("Еда", 500);
+        assertEquals(List.of(50), check(tracker, "Еда"));
+        assertEquals(List.of(), check(tracker, "Еда")); // повторная проверка без изменений молчит
+        tracker.onExpense("Еда", 100);
+        assertEquals(List.of(), check(tracker, "Еда"));
+        tracker.onExpense("Еда", 200);
+        assertEquals(List.of(80), check(tracker, "Еда"));
+        tracker.onExpense("Еда", 200);
+        assertEquals(List.of(), check(tracker, "Еда")); // ровно 100% - еще не превышение
+        tracker.onExpense("Еда", 1);
+        assertEquals(List.of(100), check(tracker, "Еда"));
+        tracker.onExpense("Еда", 1000);
+        assertEquals(List.of(), check(tracker, "Еда"));
+        assertEquals(2001, tracker.spent("Еда"));
+    }
+
+    @Test
+    void testJumpReportsHighestAndRaisedBudgetRearms() {
+        BudgetTracker tracker = new BudgetTracker();
+        tracker.put("Кафе", 100, 0);
+        tracker.onExpense("Кафе", 150);
+        assertEquals(List.of(100), check(tracker, "Кафе")); // 50 и 80 пройдены тем же расходом
+
+        tracker.put("Кафе", 1000, tracker.spent("Кафе"));
+        assertEquals(List.of(), check(tracker, "Кафе")); // 15% - ниже всех порогов
+        tracker.onExpense("Кафе", 400);
+        assertEquals(List.of(50), check(tracker, "Кафе")); // пересечение заново
+
+        tracker.put("Кафе", 500, tracker.spent("Кафе"));
+        assertEquals(List.of(100), check(tracker, "Кафе")); // бюджет урезали ниже потраченного
+    }
+
+    @Test
+    void testSpendingMatchesBudgetsIgnoringCase() {
+        BudgetTracker tracker = new BudgetTracker();
+        tracker.put("Food", 100, 0);
+        tracker.put("FOOD", 200, 0);
+        tracker.onExpense("food", 70);
+        tracker.onExpense("Такси", 70);
+        assertEquals(70, tracker.spent("Food"));
+        assertEquals(70, tracker.spent("FOOD"));
+
+        tracker.remove("Food");
+        tracker.onExpense("fOOd", 10);
+        assertFalse(tracker.has("Food"));
+        assertEquals(80, tracker.spent("FOOD"));
+
+        tracker.remove("FOOD");
+        tracker.put("fooD", 300, 0);
+        tracker.onExpense("FoOd", 5);
+        assertEquals(5, tracker.spent("fooD"));
+    }
+
+    @Test
+    void testWalletKeepsSpentAcrossRenameDeleteAndLoad() throws IOException {
+        Wallet w = new Wallet();
+        w.setBudgetCents("Еда", 10_000);
+        w.addTransaction(Transaction.ofCents(Transaction.Type.EXPENSE, "еда", 3_000, "", Transaction.fromMillis(0)));
+        w.addTransaction(Transaction.ofCents(Transaction.Type.EXPENSE, "Еда", 6_000, "", Transaction.fromMillis(1)));
+        assertEquals(9_000, w.spentCentsInCategory("Еда"));
+        assertEquals(80, w.budgetLevel("Еда", THRESHOLDS));
+
+        assertTrue(w.renameCategory("Еда", "Продукты"));
+        assertEquals(6_000, w.spentCentsInCategory("Продукты")); // "еда" осталась отдельной категорией
+        assertEquals(w.totalCentsByCategory("Продукты", Transaction.Type.EXPENSE), w.spentCentsInCategory("Продукты"));
+        assertEquals(1, w.forceDeleteCategory("Продукты"));
+        assertEquals(-1, w.getBudgetCents("Продукты"));
+
+        w.setBudgetCents("ЕДА", 3_500);
+        w.addTransaction(Transaction.ofCents(Transaction.Type.EXPENSE, "еда", 500, "", Transaction.fromMillis(2)));
+        assertEquals(3_500, w.spentCentsInCategory("ЕДА"));
+
+        // после загрузки о порогах, пройденных до сохранения, не сообщается повторно
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WalletCodec.write(Channels.newChannel(bytes), w, 0);
+        Wallet r = WalletCodec.read(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(3_500, r.spentCentsInCategory("ЕДА"));
+        List<Integer> fired = new ArrayList<>();
+        r.checkBudget("ЕДА", THRESHOLDS, (c, threshold, budget, spent) -> fired.add(threshold));
+        assertEquals(List.of(), fired);
+        r.addTransaction(Transaction.ofCents(Transaction.Type.EXPENSE, "еда", 1, "", Transaction.fromMillis(3)));
+        r.checkBudget("ЕДА", THRESHOLDS, (c, threshold, budget, spent) -> fired.add(threshold));
+        assertEquals(List.of(100), fired);
+    }
+
+    @Test
+    void testConfigurableThresholdsInFinanceService() {
+        AuthService auth = new AuthService(new HashMap<>());
+        FinanceService finance = new FinanceService(auth);
+        auth.register("alice", "pass");
+        auth.login("alice", "pass");
+        assertEquals("Пороги оповещений по бюджету: 50%, 80%, 100%", finance.setBudgetThresholds(100, 50, 80));
+        assertEquals("Порог должен быть > 0", finance.setBudgetThresholds(0, 50));
+        finance.createCategory("Еда");
+        finance.setBudget("Еда", 100.0);
+
+        String first = finance.addExpense("Еда", 60.0, "");
+        assertTrue(first.contains("Предупреждение: вы использовали >=50% бюджета категории 'Еда' (остаток 40,00)."), first);
+        String second = finance.addExpense("Еда", 5.0, "");
+        assertFalse(second.contains("Предупреждение"), second); // порог 50% уже объявлен
+        assertTrue(finance.listCategories().contains("[>50%]"));
+        String third = finance.addExpense("Еда", 40.0, "");
+        assertTrue(third.contains("Бюджет по категории 'Еда' превышен на 5,00"), third);
+        assertFalse(third.contains(">=80%"), third);
+        assertTrue(finance.listCategories().contains("[ПРЕВЫШЕНИЕ]"));
+
+        String lowered = finance.setBudget("Еда", 200.0);
+        assertEquals("Установлен бюджет Еда = 200,00", lowered);
+        String again = finance.addExpense("Еда", 60.0, "");
+        assertTrue(again.contains("Предупреждение: вы использовали >=80% бюджета категории 'Еда' (остаток 35,00)."), again);
+    }
+}
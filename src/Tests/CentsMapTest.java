@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.Test;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class CentsMapTest {
+
+    @Test
+    void testMatchesHashMap() {
+        Random rnd = new Random(3);
+        CentsMap map = new CentsMap();
+        Map<String, Long> expected = new HashMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            String key = "k" + rnd.nextInt(300);
+            long v = rnd.nextInt(1000);
+            switch (rnd.nextInt(4)) {
+                case 0:
+                    map.put(key, v);
+                    expected.put(key, v);
+                    break;
+                case 1:
+                    assertEquals(expected.getOrDefault(key, 0L).longValue(), map.remove(key));
+                    expected.remove(key);
+                    break;
+                default:
+                    map.add(key, v);
+                    expected.merge(key, v, Long::sum);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int k = 0; k < 300; k++) {
+            String key = "k" + k;
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+            assertEquals(expected.getOrDefault(key, -1L).longValue(), map.get(key, -1));
+        }
+        Map<String, Long> seen = new HashMap<>();
+        map.forEach(seen::put);
+        assertEquals(expected, seen);
+        assertEquals(map, map.copy());
+    }
+
+    @Test
+    void testSumsAreExact() {
+        Wallet w = new Wallet();
+        for (int i = 0; i < 1_000_000; i++) {
+            w.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Еда", 0.1, ""));
+        }
+        // в double миллион раз по 0.1 дает 100000.00000133288
+        assertEquals(10_000_000, w.totalCents(Transaction.Type.EXPENSE));
+        assertEquals(100_000.0, w.totalExpense(), 0.0);
+        assertEquals(12_345, Money.toCents(123.45));
+        StringBuilder sb = new StringBuilder();
+        Money.append(sb, 5);
+        sb.append(' ');
+        Money.append(sb, -123_456);
+        assertEquals("0.05 -1234.56", sb.toString());
+    }
+
+    @Test
+    void testAddingToExistingKeysDoesNotAllocate() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        String[] keys = new String[50];
+        CentsMap map = new CentsMap();
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "category" + i;
+            map.add(keys[i], 0);
+        }
+        for (int run = 0; run < 3; run++) { // прогрев, как в CsvExporterTest
+            for (int i = 0; i < 1_000_000; i++) {
+                map.add(keys[i % keys.length], i);
+            }
+        }
+        long before = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < 1_000_000; i++) {
+            map.add(keys[i % keys.length], i);
+        }
+        long allocated = mx.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        // с Map<String, Double> и merge(..., Double::sum) это было бы около 16 МБ объектов Double
+        assertTrue(allocated < 100_000, "выделено байт: " + allocated);
+    }
+}
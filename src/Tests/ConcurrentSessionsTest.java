@@ -0,0 +1,224 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.*;
+public class ConcurrentSessionsTest {
+
+    private static final String TEST_FILE = "concurrent_test.ser";
+    private static final int USERS = 10;
+    private static final int THREADS = 200;
+    private static final int OPS_PER_THREAD = 100;
+    // по умолчанию 400 тысяч переводов; для длинного прогона: -Dstress.transfers=10000 (2 миллиона)
+    private static final int TRANSFERS_PER_THREAD = Integer.getInteger("stress.transfers", 2000);
+
+    private StorageService storage;
+    private Map<String, User> users;
+    private AuthService auth;
+    private FinanceService finance;
+
+    @BeforeEach
+    void setUp() {
+        tearDown();
+        open();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (storage != null) {
+            storage.close();
+            storage = null;
+        }
+        TestFiles.deleteStorage(TEST_FILE);
+    }
+
+    private void open() {
+        open(2000);
+    }
+
+    private void open(int checkpointEvery) {
+        if (storage != null) {
+            storage.close();
+        }
+        storage = new StorageService(TEST_FILE);
+        Journal journal = storage.enableJournal(checkpointEvery);
+        users = storage.loadAll();
+        auth = new AuthService(users);
+        auth.setJournal(journal);
+        finance = new FinanceService(auth);
+        finance.setJournal(journal);
+    }
+
+    // запускает действие в THREADS потоках одновременно и ждет их завершения
+    private void runThreads(ThreadBody body) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            int n = i;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    body.run(n);
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (!errors.isEmpty()) {
+            fail(errors.peek());
+        }
+    }
+
+    private interface ThreadBody {
+        void run(int thread) throws Exception;
+    }
+
+    @Test
+    void testConcurrentRegistrationOfSameLogin() throws InterruptedException {
+        AtomicInteger registered = new AtomicInteger();
+        runThreads(n -> {
+            if (auth.register("same", "p" + n)) {
+                registered.incrementAndGet();
+            }
+        });
+        assertEquals(1, registered.get());
+        assertEquals(1, users.size());
+    }
+
+    @Test
+    void testManySessionsOnSharedUsers() throws InterruptedException {
+        for (int i = 0; i < USERS; i++) {
+            auth.register("user" + i, "pass");
+            Session s = auth.openSession("user" + i, "pass");
+            finance.createCategory(s, "Food");
+            auth.closeSession(s);
+        }
+        AtomicLong[] incomes = new AtomicLong[USERS];
+        AtomicLong[] expenses = new AtomicLong[USERS];
+        for (int i = 0; i < USERS; i++) {
+            incomes[i] = new AtomicLong();
+            expenses[i] = new AtomicLong();
+        }
+
+        runThreads(n -> {
+            int u = n % USERS;
+            Session s = auth.openSession("user" + u, "pass");
+            Random random = new Random(n);
+            for (int i = 0; i < OPS_PER_THREAD; i++) {
+                switch (random.nextInt(5)) {
+                    case 0:
+                    case 1:
+                        assertTrue(finance.addIncome(s, "Salary", 2.0, "").startsWith("Доход добавлен"));
+                        incomes[u].incrementAndGet();
+                        break;
+                    case 2:
+                    case 3:
+                        assertTrue(finance.addExpense(s, "Food", 1.0, "").startsWith("Расход добавлен"));
+                        expenses[u].incrementAndGet();
+                        break;
+                    default:
+                        assertTrue(finance.summary(s).startsWith("Пользователь: user" + u));
+                        assertTrue(finance.listCategories(s).contains("Food"));
+                }
+                storage.commit(users); // контрольные точки идут параллельно с изменениями
+            }
+            auth.closeSession(s);
+        });
+
+        assertEquals(0, auth.activeSessions());
+        for (int i = 0; i < USERS; i++) {
+            Wallet w = users.get("user" + i).getWallet();
+            assertEquals(2.0 * incomes[i].get(), w.totalIncome(), 0.001);
+            assertEquals(1.0 * expenses[i].get(), w.totalExpense(), 0.001);
+            assertEquals(incomes[i].get() + expenses[i].get(), w.getTransactions().size());
+            assertEquals(expenses[i].get(), w.countByCategory("Food"));
+        }
+
+        // после перезапуска снимок и журнал дают то же состояние
+        open();
+        for (int i = 0; i < USERS; i++) {
+            Wallet w = users.get("user" + i).getWallet();
+            assertEquals(2.0 * incomes[i].get(), w.totalIncome(), 0.001);
+            assertEquals(incomes[i].get() + expenses[i].get(), w.getTransactions().size());
+        }
+    }
+
+    @Test
+    void testClosedSessionIsRejected() {
+        auth.register("user", "pass");
+        Session s = auth.openSession("user", "pass");
+        auth.closeSession(s);
+        assertEquals("Нужна авторизация", finance.addIncome(s, "Salary", 1.0, ""));
+        assertEquals("Нужна авторизация", finance.summary(s));
+        assertEquals("Нужна авторизация", finance.addIncome(null, "Salary", 1.0, ""));
+    }
+
+    @Test
+    @Timeout(120) // взаимная блокировка на встречных переводах подвесила бы тест
+    void testTransfersConserveMoney() throws InterruptedException {
+        open(Integer.MAX_VALUE); // без контрольных точек: после перезапуска все проигрывается из журнала
+        Session[] sessions = new Session[USERS];
+        for (int i = 0; i < USERS; i++) {
+            auth.register("user" + i, "pass");
+            sessions[i] = auth.openSession("user" + i, "pass");
+            finance.addIncome(sessions[i], "Salary", 1000.0, "");
+        }
+        double total = USERS * 1000.0;
+
+        // проверяющий поток все время сверяет общую сумму: перевод не должен быть виден наполовину
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger checks = new AtomicInteger();
+        ConcurrentLinkedQueue<Double> mismatches = new ConcurrentLinkedQueue<>();
+        Thread checker = new Thread(() -> {
+            while (!done.get()) {
+                double balance = finance.totalBalance();
+                if (balance != total) {
+                    mismatches.add(balance);
+                }
+                checks.incrementAndGet();
+            }
+        });
+        checker.start();
+
+        // мало пользователей и много потоков: переводы A->B и B->A постоянно идут одновременно
+        runThreads(n -> {
+            Random random = new Random(n);
+            for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                int from = random.nextInt(USERS);
+                int to = (from + 1 + random.nextInt(USERS - 1)) % USERS;
+                String res = finance.transfer(sessions[from], "user" + to, 1 + random.nextInt(100), null);
+                assertTrue(res.startsWith("Перевод выполнен"), res);
+            }
+        });
+        done.set(true);
+        checker.join();
+
+        assertTrue(mismatches.isEmpty(), "несогласованные суммы: " + mismatches);
+        assertTrue(checks.get() > 0);
+        assertEquals(total, finance.totalBalance(), 0.0);
+        long count = 0;
+        for (int i = 0; i < USERS; i++) {
+            count += users.get("user" + i).getWallet().getTransactions().size();
+        }
+        assertEquals(USERS + 2L * THREADS * TRANSFERS_PER_THREAD, count);
+
+        open(Integer.MAX_VALUE);
+        assertEquals(total, finance.totalBalance(), 0.0);
+    }
+}
@@ -0,0 +1,114 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConsoleTest {
+
+    private static final String TEST_FILE = "console_test.ser";
+
+    @AfterEach
+    void tearDown() {
+        TestFiles.deleteStorage(TEST_FILE);
+    }
+
+    private static Console console(StorageService storage, Map<String, User> users, StringWriter out) {
+        AuthService auth = new AuthService(users);
+        return new Console(new Metrics(), storage, users, auth, new FinanceService(auth), new PrintWriter(out));
+    }
+
+    @Test
+    void testSplitWithoutRegex() {
+        assertArrayEquals(new String[0], Console.split("", 0));
+        assertArrayEquals(new String[0], Console.split(" \t ", 2));
+        assertArrayEquals(new String[]{"a", "b", "c"}, Console.split("  a\tb   c ", 0));
+        assertArrayEquals(new String[]{"add-expense", "Еда 10.5  обед в кафе"}, Console.split("add-expense  Еда 10.5  обед в кафе  ", 2));
+        assertArrayEquals(new String[]{"Еда", "10.5", "обед в кафе"}, Console.split("Еда 10.5 обед в кафе", 3));
+        assertArrayEquals(new String[]{"logout"}, Console.split("logout", 2));
+    }
+
+    @Test
+    void testScriptReportsErrorsWithLineNumbersAndSaves() throws Exception {
+        StorageService storage = new StorageService(TEST_FILE);
+        Map<String, User> users = storage.loadAll();
+        StringWriter out = new StringWriter();
+        String script = String.join("\n",
+                "# пример сценария",
+                "register alice pw",
+                "login alice pw",
+                "",
+                "add-income Зарплата 1000",
+                "create-category Еда",
+                "add-expense Еда сто",
+                "add-expense Еда 250 обед",
+                "add-expense Такси 100",
+                "unknown-command");
+        int errors = Main.runScript(console(storage, users, out), new BufferedReader(new StringReader(script)), new PrintWriter(out));
+        assertEquals(3, errors);
+        assertTrue(out.toString().contains("Неверный формат суммы."), out.toString());
+        assertTrue(out.toString().endsWith("Сохранено. Выход." + System.lineSeparator()), out.toString()); // exit в конце файла
+
+        Map<String, User> loaded = new StorageService(TEST_FILE).loadAll();
+        assertEquals(25_000, loaded.get("alice").getWallet().totalCents(Transaction.Type.EXPENSE));
+    }
+
+    @Test
+    void testExecuteResults() {
+        StorageService storage = new StorageService(TEST_FILE);
+        Map<String, User> users = storage.loadAll();
+        StringWriter out = new StringWriter();
+        Console c = console(storage, users, out);
+        assertEquals(Console.Result.OK, c.execute("   "));
+        assertEquals(Console.Result.ERROR, c.execute("export-csv"));
+        assertEquals("Нужна авторизация", c.getError());
+        assertEquals(Console.Result.ERROR, c.execute("register alice"));
+        assertEquals(Console.Result.OK, c.execute("register alice pw"));
+        assertNull(c.getError());
+        assertEquals(Console.Result.ERROR, c.execute("register alice pw")); // отказы сервисов - тоже ошибки
+        assertEquals(Console.Result.ERROR, c.execute("add-income Зарплата 100"));
+        assertEquals("Нужна авторизация", c.getError());
+        c.execute("login alice pw");
+        assertEquals(Console.Result.ERROR, c.execute("add-expense Такси 100"));
+        assertTrue(c.getError().startsWith("Категория не найдена"), c.getError());
+        assertEquals(Console.Result.OK, c.execute("create-category Такси"));
+        assertEquals(Console.Result.OK, c.execute("list-categories"));
+        assertEquals(Console.Result.EXIT, c.execute("EXIT"));
+    }
+
+    // каталог пользователей поврежден, сохранение отключено: exit выходит, но это ошибка - и явный, и в конце сценария
+    @Test
+    void testRefusedSaveOnExitIsAnError() throws IOException {
+        StorageService storage = new StorageService(TEST_FILE);
+        Map<String, User> users = new HashMap<>();
+        users.put("alice", new User("alice", "pw"));
+        storage.saveAll(users);
+        File directory = new File(TEST_FILE);
+        byte[] bytes = Files.readAllBytes(directory.toPath());
+        bytes[13 + 20 + 4] ^= 0x10; // сжатые данные первого блока пользователей
+        Files.write(directory.toPath(), bytes);
+
+        StorageService damaged = new StorageService(TEST_FILE);
+        Map<String, User> loaded = damaged.loadAll();
+        assertNotNull(damaged.getSaveRefusal());
+        StringWriter out = new StringWriter();
+        Console c = console(damaged, loaded, out);
+        assertEquals(Console.Result.EXIT_ERROR, c.execute("exit"));
+        assertEquals(damaged.getSaveRefusal(), c.getError());
+        assertTrue(out.toString().contains("Выход без сохранения."), out.toString());
+
+        damaged = new StorageService(TEST_FILE);
+        loaded = damaged.loadAll();
+        out = new StringWriter();
+        int errors = Main.runScript(console(damaged, loaded, out), new BufferedReader(new StringReader("help")), new PrintWriter(out));
+        assertEquals(1, errors); // exit в конце файла
+        assertTrue(out.toString().endsWith("Выход без сохранения." + System.lineSeparator()), out.toString());
+    }
+}
@@ -0,0 +1,123 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.GZIPInputStream;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+public class CsvExporterTest {
+
+    private AuthService auth;
+    private FinanceService finance;
+
+    @BeforeEach
+    void setUp() {
+        auth = new AuthService(new HashMap<>());
+        finance = new FinanceService(auth);
+        auth.register("alice", "pass1");
+        auth.register("bob", "pass2");
+        auth.login("alice", "pass1");
+    }
+
+    private static Wallet wallet(int n) {
+        Wallet w = new Wallet();
+        LocalDateTime t = LocalDateTime.of(2026, 1, 4, 17, 17);
+        for (int i = 0; i < n; i++) {
+            w.addTransaction(new Transaction(i % 3 == 0 ? Transaction.Type.INCOME : Transaction.Type.EXPENSE,
+                    "Cat" + (i % 10), 100.25 + i, i % 4 == 0 ? "note \"" + i + "\"" : "", t));
+        }
+        return w;
+    }
+
+    @Test
+    void testStreamMatchesStringExport() throws IOException {
+        finance.addIncome("Salary", 5000.5, "Monthly \"main\" job");
+        finance.createCategory("Food");
+        finance.addExpense("Food", 300.25, "");
+        finance.addIncome("Big", 12345678.0, "");
+
+        StringWriter out = new StringWriter();
+        assertEquals("Экспортировано транзакций: 3", finance.exportCsv(auth.getCurrentSession(), out));
+        assertEquals(finance.exportCsv(), out.toString());
+        assertTrue(out.toString().startsWith(CsvExporter.HEADER));
+        assertTrue(out.toString().contains(",\"Monthly 'main' job\","));
+        assertTrue(out.toString().contains(",12345678.00,")); // точная запись копеек, без экспоненты
+    }
+
+    @Test
+    void testGzipChannelRoundTrip() throws IOException {
+        auth.getCurrentUser().setWallet(wallet(10_000));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertEquals("Экспортировано транзакций: 10000", finance.exportCsv(Channels.newChannel(bytes), true));
+        String plain = finance.exportCsv();
+        assertTrue(bytes.size() * 5 < plain.getBytes(StandardCharsets.UTF_8).length);
+
+        auth.login("bob", "pass2");
+        Reader in = new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray())), StandardCharsets.UTF_8);
+        assertTrue(finance.importCsv(in).startsWith("Импортировано транзакций: 10000, пропущено строк: 0"));
+        assertEquals(plain, finance.exportCsv());
+    }
+
+    // пока получатель выгрузки стоит, другая сессия меняет кошелек: выгрузка не держит блокировку кошелька
+    @Test
+    void testSlowWriterDoesNotBlockWalletChanges() throws Exception {
+        auth.getCurrentUser().setWallet(wallet(20_000)); // больше буфера экспорта: получатель вызывается посреди обхода
+        Session session = auth.getCurrentSession();
+        boolean[] changed = new boolean[1];
+        Writer slow = new Writer() {
+            @Override public void write(char[] cbuf, int off, int len) throws IOException {
+                if (changed[0]) {
+                    return;
+                }
+                Thread t = new Thread(() -> finance.addIncome(session, "Salary", 1.0, ""));
+                t.start();
+                try {
+                    t.join(5_000);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                changed[0] = !t.isAlive();
+            }
+            @Override public void flush() { }
+            @Override public void close() { }
+        };
+        assertEquals("Экспортировано транзакций: 20000", finance.exportCsv(session, slow)); // выгружен снимок
+        assertTrue(changed[0]);
+        assertEquals(20_001, auth.getCurrentUser().getWallet().getTransactions().size());
+    }
+
+    @Test
+    void testNoteLongerThanBuffer() throws IOException {
+        char[] note = new char[300_000];
+        Arrays.fill(note, 'ж');
+        finance.addIncome("Salary", 1.0, new String(note));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        finance.exportCsv(Channels.newChannel(bytes), false);
+        assertEquals(finance.exportCsv(), bytes.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testAllocationDoesNotGrowWithWalletSize() throws IOException {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Writer sink = new Writer() {
+            @Override public void write(char[] cbuf, int off, int len) { }
+            @Override public void flush() { }
+            @Override public void close() { }
+        };
+        Wallet w = wallet(200_000);
+        for (int i = 0; i < 3; i++) {
+            new CsvExporter(sink).write(w); // прогрев: до JIT-компиляции интерпретатор выделяет временные объекты
+        }
+        long before = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+        new CsvExporter(sink).write(w);
+        long allocated = mx.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        // вывод 200 тысяч строк - около 10 МБ текста; выделяются только буферы экспорта
+        assertTrue(allocated < 2_000_000, "выделено байт: " + allocated);
+    }
+}
@@ -0,0 +1,166 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+public class CsvImporterTest {
+
+    private AuthService auth;
+    private FinanceService finance;
+
+    @BeforeEach
+    void setUp() {
+        auth = new AuthService(new HashMap<>());
+        finance = new FinanceService(auth);
+        auth.register("alice", "pass1");
+        auth.register("bob", "pass2");
+    }
+
+    private static List<Transaction> parse(String csv) throws IOException {
+        List<Transaction> res = new ArrayList<>();
+        new CsvImporter(new StringReader(csv)).run(res::addAll);
+        return res;
+    }
+
+    @Test
+    void testExportImportRoundTrip() {
+        auth.login("alice", "pass1");
+        finance.createCategory("Food");
+        finance.addIncome("Salary", 5000.5, "Monthly, \"main\" job");
+        finance.addExpense("Food", 300.25, "");
+        finance.addIncome("Big", 12345678.0, "");
+        String csv = finance.exportCsv();
+
+        auth.login("bob", "pass2");
+        String res = finance.importCsv(new StringReader(csv));
+
+        assertTrue(res.startsWith("Импортировано транзакций: 3, пропущено строк: 0"), res);
+        Wallet alice = auth.getUsersMap().get("alice").getWallet();
+        Wallet bob = auth.getUsersMap().get("bob").getWallet();
+        assertEquals(alice.totalIncome(), bob.totalIncome(), 0.0);
+        assertEquals(alice.totalExpense(), bob.totalExpense(), 0.0);
+        assertTrue(bob.hasCategory("Food"));
+        assertEquals(csv, finance.exportCsv()); // повторный экспорт дает тот же CSV
+    }
+
+    @Test
+    void testQuotingAndLineEndings() throws IOException {
+        String csv = "type,category,amount,note,created\r\n"
+                + "INCOME,\"Зарплата\",100.5,\"a, b\",2026-01-04 17:17\r\n"
+                + "\r\n"
+                + "EXPENSE,Еда,0.01,\"он сказал \"\"привет\"\"\",2026-01-05 08:00\n"
+                + "EXPENSE,\"Еда\",2,\"две\nстроки\",2026-01-05 08:00";
+        List<Transaction> txs = parse(csv);
+
+        assertEquals(3, txs.size());
+        assertEquals("Зарплата", txs.get(0).getCategory());
+        assertEquals("a, b", txs.get(0).getNote());
+        assertEquals(100.5, txs.get(0).getAmount());
+        assertEquals(LocalDateTime.of(2026, 1, 4, 17, 17), txs.get(0).getCreated());
+        assertEquals("он сказал \"привет\"", txs.get(1).getNote());
+        assertEquals(0.01, txs.get(1).getAmount());
+        assertEquals("две\nстроки", txs.get(2).getNote());
+        assertSame(txs.get(1).getCategory(), txs.get(2).getCategory());
+    }
+
+    @Test
+    void testAmountsAreExactCents() throws IOException {
+        String[] amounts = {"0.1", "123.45", "1.0E7", "99999999999.99", "3", "0.30000000000000004", "12.345", "1234567890123456789"};
+        long[] cents = {10, 12345, 1_000_000_000, 9_999_999_999_999L, 300, 30, 1235};
+        StringBuilder csv = new StringBuilder();
+        for (String a : amounts) {
+            csv.append("INCOME,x,").append(a).append(",,2026-01-01 00:00\n");
+        }
+        List<Transaction> txs = parse(csv.toString());
+        assertEquals(cents.length, txs.size()); // последняя сумма не помещается и пропускается
+        for (int i = 0; i < cents.length; i++) {
+            assertEquals(cents[i], txs.get(i).getCents(), amounts[i]);
+        }
+    }
+
+    @Test
+    void testInvalidRowsAreReportedAndSkipped() {
+        auth.login("alice", "pass1");
+        String csv = "type,category,amount,note,created\n"
+                + "INCOME,Salary,100,,2026-01-01 10:00\n"
+                + "REFUND,Salary,100,,2026-01-01 10:00\n"
+                + "INCOME,Salary,-5,,2026-01-01 10:00\n"
+                + "INCOME,Salary,abc,,2026-01-01 10:00\n"
+                + "INCOME,,1,,2026-01-01 10:00\n"
+                + "INCOME,Salary,1,,2026-13-01 10:00\n"
+                + "INCOME,Salary,1\n"
+                + "EXPENSE,Food,40,,2026-01-02 10:00\n";
+
+        String res = finance.importCsv(new StringReader(csv));
+
+        assertTrue(res.startsWith("Импортировано транзакций: 2, пропущено строк: 6"), res);
+        assertTrue(res.contains("строка 3: неизвестный тип операции"), res);
+        assertTrue(res.contains("строка 4: сумма должна быть > 0"), res);
+        assertTrue(res.contains("строка 5: сумма должна быть > 0"), res);
+        assertTrue(res.contains("строка 6: пустая категория"), res);
+        assertTrue(res.contains("строка 7: время должно быть"), res);
+        assertTrue(res.contains("строка 8: ожидается 5 полей"), res);
+        Wallet w = auth.getCurrentUser().getWallet();
+        assertEquals(100.0, w.totalIncome(), 0.001);
+        assertTrue(w.hasCategory("Food")); // категория создана импортом
+    }
+
+    @Test
+    void testBudgetAlertsOncePerImport() {
+        auth.login("alice", "pass1");
+        finance.addIncome("Salary", 100.0, "");
+        finance.setBudget("Food", 1000.0);
+        finance.setBudget("Cafe", 110.0);
+        StringBuilder csv = new StringBuilder("type,category,amount,note,created\n");
+        for (int i = 0; i < 10_000; i++) {
+            csv.append("EXPENSE,Food,1,,2026-01-01 10:00\n");
+            csv.append("EXPENSE,Cafe,0.01,,2026-01-01 10:00\n");
+        }
+
+        String res = finance.importCsv(new StringReader(csv.toString()));
+
+        assertTrue(res.startsWith("Импортировано транзакций: 20000"), res);
+        assertEquals(1, count(res, "Бюджет по категории 'Food' превышен на 9000,00"), res);
+        assertEquals(1, count(res, "Предупреждение: вы использовали >=80% бюджета категории 'Cafe' (остаток 10,00)."), res);
+        assertEquals(1, count(res, "Оповещение: общие расходы превысили доходы."), res);
+        assertEquals(20_001, auth.getCurrentUser().getWallet().getTransactions().size());
+    }
+
+    @Test
+    void testReaderLargerThanBuffer() throws IOException {
+        // запись длиннее буфера разбора и файл, который отдается маленькими кусками
+        char[] longNote = new char[200_000];
+        Arrays.fill(longNote, 'я');
+        String csv = "INCOME,a,1,,2026-01-01 00:00\nINCOME,b,2,\"" + new String(longNote) + "\",2026-01-01 00:00\nINCOME,c,3,,2026-01-01 00:00";
+        Reader slow = new StringReader(csv) {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                return super.read(cbuf, off, Math.min(len, 7));
+            }
+        };
+        List<Transaction> txs = new ArrayList<>();
+        new CsvImporter(slow).run(txs::addAll);
+        assertEquals(3, txs.size());
+        assertEquals(200_000, txs.get(1).getNote().length());
+        assertEquals("c", txs.get(2).getCategory());
+    }
+
+    @Test
+    void testRequiresAuthentication() {
+        assertEquals("Нужна авторизация", finance.importCsv(new StringReader("")));
+    }
+
+    private static int count(String s, String part) {
+        int n = 0;
+        for (int i = s.indexOf(part); i >= 0; i = s.indexOf(part, i + 1)) {
+            n++;
+        }
+        return n;
+    }
+}
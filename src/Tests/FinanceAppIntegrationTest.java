@@ -1,7 +1,8 @@
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import java.io.File;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.Map;
 import static org.junit.jupiter.api.Assertions.*;
 public class FinanceAppIntegrationTest {
@@ -14,7 +15,7 @@ public class FinanceAppIntegrationTest {
     @BeforeEach
     void setUp() {
         // Clean up any existing test file
-        new File(TEST_DATA_FILE).delete();
+        TestFiles.deleteStorage(TEST_DATA_FILE);
 
         storageService = new StorageService(TEST_DATA_FILE);
         Map<String, User> users = storageService.loadAll();
@@ -24,7 +25,7 @@ public class FinanceAppIntegrationTest {
 
     @AfterEach
     void tearDown() {
-        new File(TEST_DATA_FILE).delete();
+        TestFiles.deleteStorage(TEST_DATA_FILE);
     }
 
     @Test
@@ -65,6 +66,66 @@ public class FinanceAppIntegrationTest {
         assertEquals(6000.0, reloadedUser.getWallet().totalIncome(), 0.001);
     }
 
+    @Test
+    void testTransactionPages() {
+        authService.register("pager", "pass");
+        authService.login("pager", "pass");
+        for (int i = 1; i <= 5; i++) {
+            financeService.addIncome("Salary", i * 100.0, "p" + i);
+        }
+
+        String first = financeService.showTransactions(2, null, true);
+        assertTrue(first.contains("p5") && first.contains("p4"));
+        assertFalse(first.contains("p3"));
+        String hint = "Следующая страница: transactions --limit 2 --after ";
+        assertTrue(first.contains(hint));
+        String cursor = first.substring(first.indexOf(hint) + hint.length()).split(" ")[0];
+
+        String second = financeService.showTransactions(2, cursor, true);
+        assertTrue(second.contains("p3") && second.contains("p2"));
+        assertFalse(second.contains("p4"));
+
+        assertTrue(financeService.showTransactions(10, null, false).endsWith("Конец списка."));
+        assertTrue(financeService.showTransactions(2, "bad", false).startsWith("Ошибка: "));
+        assertEquals("Размер страницы должен быть > 0", financeService.showTransactions(0, null, false));
+    }
+
+    // отказ виден по признаку ответа, текст ответа тот же, что и при прямом вызове
+    @Test
+    void testCallMarksRefusals() throws Exception {
+        FinanceService.Reply reply = financeService.call(() -> financeService.addIncome("Salary", 100.0, ""));
+        assertTrue(reply.refused);
+        assertEquals("Нужна авторизация", reply.text);
+
+        authService.register("caller", "pass");
+        authService.login("caller", "pass");
+        reply = financeService.call(() -> financeService.addIncome("Salary", 100.0, ""));
+        assertFalse(reply.refused);
+        assertTrue(financeService.call(() -> financeService.addExpense("Нет такой", 1.0, "")).refused);
+        assertTrue(financeService.call(() -> financeService.showTransactions(2, "bad", false)).refused);
+        assertFalse(financeService.call(() -> financeService.summary()).refused);
+    }
+
+    @Test
+    void testRangeSummary() {
+        authService.register("ranger", "pass");
+        authService.login("ranger", "pass");
+        Wallet w = authService.getCurrentUser().getWallet();
+        w.addTransaction(new Transaction(Transaction.Type.INCOME, "Salary", 1000.0, "", LocalDateTime.of(2026, 1, 10, 9, 0)));
+        w.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Food", 200.0, "", LocalDateTime.of(2026, 1, 31, 23, 59)));
+        w.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Food", 50.0, "", LocalDateTime.of(2026, 2, 1, 0, 0)));
+
+        String january = financeService.summary(LocalDate.of(2026, 1, 1), LocalDate.of(2026, 1, 31));
+        assertTrue(january.contains("Транзакций за период: 2"));
+        assertTrue(january.contains("Доход за период: 1000,00"));
+        assertTrue(january.contains("Расходы за период: 200,00"));
+        assertTrue(financeService.summary(LocalDate.of(2026, 2, 1), null).contains("Расходы за период: 50,00"));
+
+        String page = financeService.showTransactions(1, null, false, LocalDate.of(2026, 1, 20), null);
+        assertTrue(page.contains("200,00"));
+        assertTrue(page.contains("--from 2026-01-20"));
+    }
+
     @Test
     void testMultiUserTransferScenario() {
         // Setup users
@@ -0,0 +1,326 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+import static org.junit.jupiter.api.Assertions.*;
+public class JournalTest {
+
+    private static final String TEST_FILE = "journal_test.ser";
+    private static final File JOURNAL_FILE = new File("journal_test.journal");
+
+    private StorageService storage;
+    private AuthService auth;
+    private FinanceService finance;
+
+    @BeforeEach
+    void setUp() {
+        tearDown();
+        open();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (storage != null) {
+            storage.close();
+        }
+        TestFiles.deleteStorage(TEST_FILE);
+    }
+
+    // имитирует перезапуск приложения: новое хранилище с тем же журналом
+    private Map<String, User> open() {
+        if (storage != null) {
+            storage.close();
+        }
+        storage = new StorageService(TEST_FILE);
+        Journal journal = storage.enableJournal(1000);
+        Map<String, User> users = storage.loadAll();
+        auth = new AuthService(users);
+        auth.setJournal(journal);
+        finance = new FinanceService(auth);
+        finance.setJournal(journal);
+        return users;
+    }
+
+    private void fillData() {
+        auth.register("alice", "pass1");
+        auth.register("bob", "pass2");
+        auth.login("alice", "pass1");
+        finance.createCategory("Food");
+        finance.setBudget("Food", 1000.0);
+        finance.addIncome("Salary", 5000.0, "Monthly");
+        finance.addExpense("Food", 300.0, "Groceries");
+        finance.createCategory("Cafe");
+        finance.addExpense("Cafe", 100.0, "");
+        finance.transfer("bob", 700.0, "Debt");
+        finance.renameCategory("Food", "Groceries");
+        finance.deleteCategory("Cafe", true);
+    }
+
+    private void assertDataRestored(Map<String, User> users) {
+        User alice = users.get("alice");
+        assertNotNull(alice);
+        assertTrue(alice.checkPassword("pass1"));
+        Wallet w = alice.getWallet();
+        assertEquals(5000.0, w.totalIncome(), 0.001);
+        assertEquals(1000.0, w.totalExpense(), 0.001);
+        assertEquals(300.0, w.spentInCategory("Groceries"), 0.001);
+        assertEquals(1000.0, w.getBudget("Groceries"), 0.001);
+        assertFalse(w.hasCategory("Food"));
+        assertFalse(w.hasCategory("Cafe"));
+        assertEquals(3, w.getTransactions().size());
+
+        User bob = users.get("bob");
+        assertTrue(bob.checkPassword("pass2"));
+        assertEquals(700.0, bob.getWallet().totalIncome(), 0.001);
+    }
+
+    @Test
+    void testReplayWithoutSnapshot() {
+        fillData();
+        storage.close(); // выход без save: данных нет в снимке, только в журнале
+
+        assertFalse(new File(TEST_FILE).exists());
+        Map<String, User> users = open();
+        assertDataRestored(users);
+
+        // после повторного открытия журнал продолжает дописываться
+        auth.login("bob", "pass2");
+        finance.addExpense("transfer-from:alice", 200.0, "");
+        assertEquals(200.0, open().get("bob").getWallet().totalExpense(), 0.001);
+    }
+
+    @Test
+    void testCheckpointCompactsJournal() {
+        fillData();
+        storage.saveAll(auth.getUsersMap());
+        assertEquals(0, JOURNAL_FILE.length());
+
+        auth.login("alice", "pass1");
+        finance.addIncome("Bonus", 50.0, "");
+        Map<String, User> users = open();
+        assertEquals(5050.0, users.get("alice").getWallet().totalIncome(), 0.001);
+    }
+
+    @Test
+    void testCrashBetweenSnapshotAndTruncateDoesNotDuplicate() throws IOException {
+        fillData();
+        storage.getJournal().commit();
+        File copy = new File("journal_test.copy");
+        Files.copy(JOURNAL_FILE.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        storage.saveAll(auth.getUsersMap());
+        storage.close();
+        // журнал не успели очистить: записи старше снимка должны быть пропущены
+        Files.move(copy.toPath(), JOURNAL_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        assertDataRestored(open());
+    }
+
+    @Test
+    void testTornTailIsIgnored() throws IOException {
+        fillData();
+        storage.close();
+        long validLength = JOURNAL_FILE.length();
+        try (FileOutputStream fos = new FileOutputStream(JOURNAL_FILE, true)) {
+            fos.write(new byte[]{0, 0, 0, 40, 1, 2, 3}); // оборванная запись
+        }
+
+        assertDataRestored(open());
+        auth.login("alice", "pass1");
+        finance.addIncome("Bonus", 50.0, "");
+        storage.getJournal().commit();
+        assertTrue(JOURNAL_FILE.length() > validLength);
+
+        assertEquals(5050.0, open().get("alice").getWallet().totalIncome(), 0.001);
+    }
+
+    @Test
+    void testCommitIsDrivenByCheckpointThreshold() {
+        storage.close();
+        storage = new StorageService(TEST_FILE);
+        storage.enableJournal(3);
+        Map<String, User> users = storage.loadAll();
+        auth = new AuthService(users);
+        auth.setJournal(storage.getJournal());
+
+        auth.register("u1", "p");
+        storage.commit(users);
+        assertFalse(new File(TEST_FILE).exists());
+        auth.register("u2", "p");
+        auth.register("u3", "p");
+        storage.commit(users);
+        assertTrue(new File(TEST_FILE).exists());
+        assertEquals(0, storage.getJournal().getRecordsSinceCheckpoint());
+    }
+
+    // снимок записан в фоне, а журнал тем временем дописывался: из журнала уходят только записи, вошедшие в снимок
+    @Test
+    void testDropUpToKeepsLaterRecords() throws IOException {
+        storage.close();
+        Journal journal = new Journal(JOURNAL_FILE);
+        for (int i = 1; i <= 3; i++) {
+            journal.logTransaction("alice", Transaction.ofCents(Transaction.Type.INCOME, "Salary", i * 100, "", Transaction.fromMillis(i)));
+        }
+        long full = JOURNAL_FILE.length();
+        journal.dropUpTo(1);
+        assertEquals(full * 2 / 3, JOURNAL_FILE.length());
+        assertEquals(2, journal.getRecordsSinceCheckpoint());
+        journal.logTransaction("alice", Transaction.ofCents(Transaction.Type.INCOME, "Salary", 400, "", Transaction.fromMillis(4)));
+        journal.close();
+
+        Map<String, User> users = new java.util.HashMap<>();
+        users.put("alice", User.restore("alice", "h"));
+        new Journal(JOURNAL_FILE).replay(users, 0);
+        assertEquals(900, users.get("alice").getWallet().totalCents(Transaction.Type.INCOME)); // 2 + 3 + 4
+    }
+
+    // фоновые контрольные точки во время непрерывных изменений: после перезапуска ничего не потеряно и не задвоено
+    @Test
+    void testBackgroundCheckpointsDuringChanges() {
+        fillData();
+        Map<String, User> users = auth.getUsersMap();
+        storage.enableAutosave(users, 1, 50);
+        auth.login("alice", "pass1");
+        for (int i = 0; i < 2_000; i++) {
+            finance.addIncome("Salary", 1.0, "");
+            storage.commit(users);
+        }
+        storage.close(); // дожидается фоновой записи, но сам не сохраняет
+        assertTrue(new File(TEST_FILE).exists());
+
+        Map<String, User> restored = open();
+        assertEquals(7000.0, restored.get("alice").getWallet().totalIncome(), 0.001);
+        assertEquals(700.0, restored.get("bob").getWallet().totalIncome(), 0.001);
+    }
+
+    @Test
+    void testImportBatchesAreReplayed() {
+        auth.register("alice", "pass1");
+        auth.login("alice", "pass1");
+        StringBuilder csv = new StringBuilder("type,category,amount,note,created\n");
+        for (int i = 0; i < CsvImporter.BATCH_SIZE + 10; i++) {
+            csv.append("EXPENSE,Food,1,,2026-01-01 10:00\n");
+        }
+        finance.importCsv(new StringReader(csv.toString()));
+        storage.close();
+
+        Wallet w = open().get("alice").getWallet();
+        assertEquals(CsvImporter.BATCH_SIZE + 10, w.getTransactions().size());
+        assertEquals(CsvImporter.BATCH_SIZE + 10, w.spentInCategory("Food"), 0.001);
+    }
+
+    // записи старой версии журнала (суммы double, без флага копеек) проигрываются с округлением до копейки
+    @Test
+    void testLegacyDoubleRecordsAreReplayed() throws IOException {
+        auth.register("alice", "pass1");
+        storage.close();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(JOURNAL_FILE, true))) {
+            legacyRecord(out, 2, 3, rec -> {
+                rec.writeUTF("Food");
+                rec.writeDouble(1000.1);
+            });
+            legacyRecord(out, 3, 4, rec -> {
+                rec.writeByte(Transaction.Type.EXPENSE.ordinal());
+                rec.writeUTF("Food");
+                rec.writeDouble(0.1 + 0.2);
+                rec.writeUTF("");
+                rec.writeLong(0);
+            });
+        }
+
+        Wallet w = open().get("alice").getWallet();
+        assertEquals(100_010, w.getBudgetCents("Food"));
+        assertEquals(30, w.spentCentsInCategory("Food"));
+        auth.login("alice", "pass1");
+        finance.addExpense("Food", 0.7, "");
+        assertEquals(100, open().get("alice").getWallet().spentCentsInCategory("Food"));
+    }
+
+    private interface RecordBody {
+        void write(DataOutputStream rec) throws IOException;
+    }
+
+    private static void legacyRecord(DataOutputStream out, long lsn, int op, RecordBody body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream rec = new DataOutputStream(bytes);
+        rec.writeLong(lsn);
+        rec.writeByte(op);
+        rec.writeUTF("alice");
+        body.write(rec);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt(bytes.size());
+        out.writeInt((int) crc.getValue());
+        bytes.writeTo(out);
+    }
+
+    // хеш, пересчитанный при входе с большей стоимостью, переживает перезапуск и без снимка, и со снимком
+    @Test
+    void testPasswordUpgradeIsJournaled() {
+        auth.register("alice", "pass1");
+        storage.saveAll(auth.getUsersMap());
+        auth.setPasswordCost(2000);
+        assertTrue(auth.login("alice", "pass1"));
+        String upgraded = auth.getUsersMap().get("alice").getPasswordHash();
+        assertEquals(2000, PasswordHasher.iterations(upgraded));
+        storage.close();
+
+        Map<String, User> users = open();
+        assertEquals(upgraded, users.get("alice").getPasswordHash());
+        assertFalse(users.get("alice").isWalletLoaded());
+        storage.saveAll(users);
+        assertEquals(upgraded, open().get("alice").getPasswordHash());
+    }
+
+    // заметка длиннее 64 КБ (предел writeUTF) записывается и проигрывается; запись длиннее предела журнала
+    // отвергается исключением до изменения кошелька, следующие записи не страдают
+    @Test
+    void testLongStringsAndRejectedRecord() {
+        auth.register("alice", "pass1");
+        auth.login("alice", "pass1");
+        String longNote = "заметка ".repeat(20_000);
+        finance.addIncome("Salary", 100.0, longNote);
+        String hugeNote = "x".repeat((1 << 24) + 1);
+        assertThrows(UncheckedIOException.class, () -> finance.addIncome("Salary", 50.0, hugeNote));
+        assertEquals(100.0, auth.getCurrentUser().getWallet().totalIncome(), 0.001);
+        finance.addIncome("Bonus", 10.0, "");
+        storage.close();
+
+        Wallet w = open().get("alice").getWallet();
+        assertEquals(110.0, w.totalIncome(), 0.001);
+        assertEquals(longNote, w.getTransactions().get(0).getNote());
+    }
+
+    // запись подтверждается только после fsync: параллельные записи не теряются и без commit()
+    @Test
+    void testConcurrentRecordsAreDurableWhenLogReturns() throws Exception {
+        storage.close();
+        Journal journal = new Journal(JOURNAL_FILE);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 25; i++) {
+                    journal.logTransaction("alice", Transaction.ofCents(Transaction.Type.INCOME, "Salary", 100, "", Transaction.fromMillis(i)));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(100, journal.getRecordsSinceCheckpoint());
+
+        Map<String, User> users = new java.util.HashMap<>();
+        users.put("alice", User.restore("alice", "h"));
+        new Journal(JOURNAL_FILE).replay(users, 0);
+        assertEquals(10000, users.get("alice").getWallet().totalCents(Transaction.Type.INCOME));
+        journal.close();
+    }
+}
@@ -0,0 +1,134 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+public class MappedWalletTest {
+
+    private static final File TEST_FILE = new File("mapped_test.wallet");
+
+    private Wallet wallet;
+
+    @BeforeEach
+    void setUp() {
+        wallet = new Wallet();
+        wallet.setBudget("Еда", 4000.0);
+        wallet.addTransaction(new Transaction(Transaction.Type.INCOME, "Зарплата", 60000.0, "за январь"));
+        wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Еда", 300.0, ""));
+        wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "еда", 200.0, "с \"кавычками\""));
+        wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Кафе", 1500.5, "ужин"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        TEST_FILE.delete();
+    }
+
+    private MappedWallet map() throws IOException {
+        try (FileChannel ch = FileChannel.open(TEST_FILE.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            WalletCodec.write(ch, wallet, 0);
+        }
+        return MappedWallet.open(TEST_FILE.toPath());
+    }
+
+    private static List<String> rows(TransactionSource source) {
+        List<String> rows = new ArrayList<>();
+        source.forEachTransaction((type, category, cents, created, note) ->
+                rows.add(Transaction.format(type, category, cents, created, note)));
+        return rows;
+    }
+
+    @Test
+    void testIterationMatchesWallet() throws IOException {
+        MappedWallet mapped = map();
+        assertEquals(4, mapped.size());
+        assertEquals(rows(wallet), rows(mapped));
+    }
+
+    @Test
+    void testAggregatesMatchWallet() throws IOException {
+        MappedWallet mapped = map();
+        assertEquals(wallet.totalIncome(), mapped.totalIncome(), 0.001);
+        assertEquals(wallet.totalExpense(), mapped.totalExpense(), 0.001);
+        assertEquals(wallet.totalsByCategory(Transaction.Type.INCOME), mapped.totalsByCategory(Transaction.Type.INCOME));
+        assertEquals(wallet.totalsByCategory(Transaction.Type.EXPENSE), mapped.totalsByCategory(Transaction.Type.EXPENSE));
+        assertEquals(wallet.spentInCategory("ЕДА"), mapped.spentInCategory("ЕДА"), 0.001);
+        assertEquals(wallet.getBudgets(), mapped.getBudgets());
+    }
+
+    @Test
+    void testEmptyWallet() throws IOException {
+        wallet = new Wallet();
+        MappedWallet mapped = map();
+        assertEquals(0, mapped.size());
+        assertTrue(rows(mapped).isEmpty());
+        assertEquals(0.0, mapped.totalExpense());
+        assertTrue(mapped.totalsByCategory(Transaction.Type.EXPENSE).isEmpty());
+    }
+
+    // файл, записанный до появления сумм в META: суммы считаются обходом транзакций
+    @Test
+    void testFileWithoutStoredSums() throws IOException {
+        try (FileChannel ch = FileChannel.open(TEST_FILE.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ch.write(ByteBuffer.allocate(WalletCodec.HEADER_SIZE).putInt(WalletCodec.MAGIC).put(WalletCodec.VERSION).putLong(0).flip());
+            BlockFile.Writer out = new BlockFile.Writer(ch);
+            BlockFile.Bytes block = new BlockFile.Bytes();
+            block.put(WalletCodec.META);
+            block.putVarInt(1);
+            block.putString("Еда");
+            block.putVarInt(0);
+            out.block(block);
+            block.clear();
+            block.put(WalletCodec.TRANSACTIONS);
+            block.putVarInt(1);
+            block.putString("Еда");
+            block.putVarInt(2);
+            for (int i = 0; i < 2; i++) {
+                block.put(Transaction.Type.EXPENSE.ordinal());
+                block.putVarInt(0);
+                block.putVarLong(500 << 1); // 500 копеек, zigzag
+                block.putVarLong(0);
+                block.putString("");
+            }
+            out.block(block);
+            block.clear();
+            block.put(WalletCodec.END);
+            block.putVarInt(1);
+            block.putVarInt(2);
+            out.block(block);
+            out.close();
+        }
+        MappedWallet mapped = MappedWallet.open(TEST_FILE.toPath());
+        assertEquals(1000, mapped.totalCents(Transaction.Type.EXPENSE));
+        assertEquals(1000, mapped.spentCentsInCategory("еда"));
+        assertTrue(mapped.totalsByCategoryCents(Transaction.Type.INCOME).isEmpty());
+    }
+
+    // транзакции в нескольких блоках со своими словарями; поврежденный файл не отображается - его загрузит WalletCodec
+    @Test
+    void testManyBlocksAndDamagedFile() throws IOException {
+        for (int i = 0; i < 20_000; i++) {
+            wallet.addTransaction(Transaction.ofCents(Transaction.Type.EXPENSE, "Cat" + (i % 50), i, "заметка " + i, Transaction.fromMillis(i)));
+        }
+        MappedWallet mapped = map();
+        assertEquals(20_004, mapped.size());
+        assertEquals(rows(wallet), rows(mapped));
+        assertEquals(wallet.totalsByCategory(Transaction.Type.EXPENSE), mapped.totalsByCategory(Transaction.Type.EXPENSE));
+        MappedWallet read = MappedWallet.read(TEST_FILE.toPath()); // тот же разбор без отображения
+        assertEquals(rows(wallet), rows(read));
+        assertEquals(wallet.totalsByCategory(Transaction.Type.EXPENSE), read.totalsByCategory(Transaction.Type.EXPENSE));
+
+        byte[] bytes = Files.readAllBytes(TEST_FILE.toPath());
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(TEST_FILE.toPath(), bytes);
+        assertNull(MappedWallet.open(TEST_FILE.toPath()));
+        assertNull(MappedWallet.read(TEST_FILE.toPath()));
+    }
+}
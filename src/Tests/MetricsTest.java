@@ -0,0 +1,93 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTest {
+
+    private static final String TEST_FILE = "metrics_test.ser";
+
+    @AfterEach
+    void tearDown() {
+        TestFiles.deleteStorage(TEST_FILE);
+    }
+
+    // перцентили гистограммы против точных по отсортированному массиву: ошибка не больше ширины корзины (1/32)
+    @Test
+    void testPercentilesWithinBucketPrecision() {
+        Random rnd = new Random(7);
+        LatencyHistogram h = new LatencyHistogram();
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(rnd.nextDouble() * 25); // от наносекунд до десятков секунд
+            h.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double p : new double[]{1, 50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            long approx = h.percentile(p);
+            assertTrue(approx >= exact && approx <= exact + exact / 32 + 1, p + ": " + exact + " vs " + approx);
+        }
+        assertEquals(values[values.length - 1], h.max());
+        assertEquals(values[values.length - 1], h.percentile(100));
+        assertEquals(values.length, h.count());
+    }
+
+    @Test
+    void testBucketBoundaries() {
+        for (long v = 0; v < 1_000_000; v += 1 + v / 100) {
+            int i = LatencyHistogram.index(v);
+            assertTrue(LatencyHistogram.highest(i) >= v);
+            assertEquals(i + 1, LatencyHistogram.index(LatencyHistogram.highest(i) + 1)); // корзины идут без пропусков
+        }
+        assertEquals(0, new LatencyHistogram().percentile(99));
+    }
+
+    @Test
+    void testPrometheusExport() throws Exception {
+        Metrics m = new Metrics();
+        for (int i = 0; i < 3; i++) {
+            m.recordCommand("add-expense", System.nanoTime(), m.allocatedBytes());
+        }
+        m.recordSave(2_000_000, 4096);
+        StringWriter out = new StringWriter();
+        m.writePrometheus(out);
+        String text = out.toString();
+
+        assertTrue(text.contains("# TYPE financeex_command_duration_seconds summary\n"));
+        assertTrue(text.contains("financeex_command_duration_seconds_count{command=\"add-expense\"} 3\n"));
+        assertTrue(text.contains("financeex_storage_save_duration_seconds_sum 0.002000000\n"));
+        assertTrue(text.contains("financeex_storage_written_bytes_total 4096\n"));
+        for (String line : text.split("\n")) {
+            if (!line.startsWith("#")) {
+                assertTrue(line.matches("[a-z_]+(\\{[^}]*\\})? [0-9.]+"), line); // числа с точкой, без запятой
+            }
+        }
+        assertTrue(m.report().contains("add-expense: 3 раз"));
+    }
+
+    @Test
+    void testStorageRecordsSavesLoadsAndBytes() {
+        Metrics m = new Metrics();
+        StorageService storage = new StorageService(TEST_FILE);
+        storage.setMetrics(m);
+        Map<String, User> users = new HashMap<>();
+        User u = new User("alice", "pw");
+        u.getWallet().addTransaction(new Transaction(Transaction.Type.INCOME, "Зарплата", 1000.0, ""));
+        users.put("alice", u);
+
+        storage.saveAll(users);
+        long files = new File(TEST_FILE).length() + new File("metrics_test.wallets").listFiles()[0].length();
+        assertEquals(files, m.getBytesWritten());
+
+        Map<String, User> loaded = storage.loadAll();
+        assertEquals(100_000, loaded.get("alice").getWallet().totalCents(Transaction.Type.INCOME)); // кошелек загружается лениво
+        assertTrue(m.report().contains("Сохранения: 1,"));
+        assertTrue(m.report().contains("Загрузки: 2,"));
+    }
+}
@@ -0,0 +1,87 @@
+import org.junit.jupiter.api.Test;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReportCacheTest {
+
+    @Test
+    void testVersionChangeAndNewSourceRebuild() {
+        ReportCache cache = new ReportCache(10);
+        Wallet w = new Wallet();
+        AtomicInteger renders = new AtomicInteger();
+        assertEquals("1", cache.get("alice", "summary", "", w, () -> "" + renders.incrementAndGet()));
+        assertEquals("1", cache.get("alice", "summary", "", w, () -> "" + renders.incrementAndGet()));
+        assertEquals("2", cache.get("alice", "summary", "x", w, () -> "" + renders.incrementAndGet())); // другие аргументы
+
+        w.addCategory("Еда");
+        assertEquals("3", cache.get("alice", "summary", "", w, () -> "" + renders.incrementAndGet()));
+        assertEquals("4", cache.get("alice", "summary", "", new Wallet(), () -> "" + renders.incrementAndGet())); // кошелек перезагрузили
+        assertEquals(1, cache.hits());
+        assertEquals(4, cache.misses());
+    }
+
+    // номера разных источников не сравнимы: тот же номер у другого объекта - другой отчет
+    @Test
+    void testSameVersionOfAnotherSourceRebuilds() {
+        ReportCache cache = new ReportCache(10);
+        Wallet first = new Wallet();
+        Wallet second = new Wallet();
+        assertEquals(first.getVersion(), second.getVersion());
+        AtomicInteger renders = new AtomicInteger();
+        assertEquals("1", cache.get("alice", "summary", "", first, () -> "" + renders.incrementAndGet()));
+        assertEquals("2", cache.get("alice", "summary", "", second, () -> "" + renders.incrementAndGet()));
+        assertEquals(0, cache.hits());
+    }
+
+    @Test
+    void testLeastRecentlyUsedEvictedAcrossUsers() {
+        ReportCache cache = new ReportCache(2);
+        Wallet a = new Wallet();
+        Wallet b = new Wallet();
+        Wallet c = new Wallet();
+        cache.get("a", "summary", "", a, () -> "a");
+        cache.get("b", "summary", "", b, () -> "b");
+        cache.get("a", "summary", "", a, () -> "a2"); // a снова самый свежий
+        cache.get("c", "summary", "", c, () -> "c"); // вытесняет b
+        assertEquals(2, cache.size());
+        assertEquals("a", cache.get("a", "summary", "", a, () -> "a3"));
+        assertEquals("b2", cache.get("b", "summary", "", b, () -> "b2"));
+
+        cache.setCapacity(0);
+        assertEquals(0, cache.size());
+        assertEquals("x", cache.get("a", "summary", "", a, () -> "x"));
+        assertEquals("y", cache.get("a", "summary", "", a, () -> "y"));
+    }
+
+    @Test
+    void testFinanceServiceReportsFollowChanges() {
+        AuthService auth = new AuthService(new HashMap<>());
+        FinanceService finance = new FinanceService(auth);
+        auth.register("alice", "pass");
+        auth.login("alice", "pass");
+        finance.createCategory("Еда");
+        finance.setBudget("Еда", 100.0);
+        finance.addExpense("Еда", 60.0, "");
+
+        String list = finance.listCategories();
+        assertSame(list, finance.listCategories()); // повтор без изменений - тот же текст
+        String info = finance.showCategoryInfo("Еда");
+        assertSame(info, finance.showCategoryInfo("Еда"));
+        String summary = finance.summary();
+        assertSame(summary, finance.summary());
+
+        finance.addExpense("Еда", 30.0, "");
+        assertTrue(finance.listCategories().contains("Потрачено: 90,00"), finance.listCategories());
+        assertTrue(finance.showCategoryInfo("Еда").contains("Потрачено: 90,00"));
+        assertTrue(finance.summary().contains("Общие расходы: 90,00"));
+
+        finance.setBudgetThresholds(50);
+        assertTrue(finance.listCategories().contains("[>50%]")); // пороги - часть ключа
+
+        auth.register("bob", "pass");
+        auth.login("bob", "pass");
+        assertEquals("Категории не созданы. Используйте create-category <name>", finance.listCategories()); // у каждого свой отчет
+        assertTrue(finance.reportCache().hits() >= 3);
+    }
+}
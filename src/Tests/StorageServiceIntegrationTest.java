@@ -1,16 +1,21 @@
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 import java.util.Map;
 import static org.junit.jupiter.api.Assertions.*;
 public class StorageServiceIntegrationTest {
 
     private static final String TEST_FILE = "storage_test.ser";
+    private static final String LEGACY_FILE = "storage_legacy_test.ser";
 
     @AfterEach
     void tearDown() {
-        new File(TEST_FILE).delete();
+        TestFiles.deleteStorage(TEST_FILE);
+        TestFiles.deleteStorage(LEGACY_FILE);
     }
 
     @Test
@@ -62,4 +67,158 @@ public class StorageServiceIntegrationTest {
         assertNotNull(users);
         assertTrue(users.isEmpty());
     }
+
+    @Test
+    void testWalletsAreLoadedLazily() {
+        StorageService storageService = new StorageService(TEST_FILE);
+        Map<String, User> originalUsers = new HashMap<>();
+        User user1 = new User("user1", "pass1");
+        user1.getWallet().addTransaction(new Transaction(Transaction.Type.INCOME, "Salary", 1000.0, ""));
+        originalUsers.put("user1", user1);
+        originalUsers.put("user2", new User("user2", "pass2"));
+        storageService.saveAll(originalUsers);
+
+        Map<String, User> loadedUsers = new StorageService(TEST_FILE).loadAll();
+        assertFalse(loadedUsers.get("user1").isWalletLoaded());
+        assertFalse(loadedUsers.get("user2").isWalletLoaded());
+
+        AuthService auth = new AuthService(loadedUsers);
+        FinanceService finance = new FinanceService(auth);
+        assertTrue(auth.login("user1", "pass1"));
+        // команды на чтение работают с файлом, отображенным в память
+        assertTrue(finance.summary().contains("1000,00"));
+        assertTrue(finance.showTransactions().contains("Salary"));
+        assertFalse(loadedUsers.get("user1").isWalletLoaded());
+
+        // первое изменение загружает кошелек
+        finance.addIncome("Bonus", 50.0, "");
+        assertTrue(loadedUsers.get("user1").isWalletLoaded());
+        assertFalse(loadedUsers.get("user2").isWalletLoaded());
+        assertEquals(1050.0, auth.getCurrentUser().getWallet().totalIncome(), 0.001);
+    }
+
+    @Test
+    void testOnlyDirtyWalletsAreWritten() {
+        StorageService storageService = new StorageService(TEST_FILE);
+        Map<String, User> users = new HashMap<>();
+        users.put("user1", new User("user1", "pass1"));
+        users.put("user2", new User("user2", "pass2"));
+        storageService.saveAll(users);
+
+        File[] shards = storageService.getWalletsDir().listFiles();
+        assertEquals(2, shards.length);
+        for (File shard : shards) {
+            assertTrue(shard.setLastModified(1000));
+        }
+
+        users.get("user1").getWallet().addTransaction(new Transaction(Transaction.Type.INCOME, "Salary", 10.0, ""));
+        storageService.saveAll(users);
+
+        int rewritten = 0;
+        for (File shard : storageService.getWalletsDir().listFiles()) {
+            if (shard.lastModified() != 1000) {
+                rewritten++;
+            }
+        }
+        assertEquals(1, rewritten);
+        assertEquals(10.0, new StorageService(TEST_FILE).loadAll().get("user1").getWallet().totalIncome(), 0.001);
+    }
+
+    @Test
+    void testLegacyFileIsMigrated() throws IOException {
+        // data/data.ser - пример данных в старом формате (весь Map через ObjectOutputStream)
+        Files.copy(new File("data/data.ser").toPath(), new File(LEGACY_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        StorageService storageService = new StorageService(LEGACY_FILE);
+        Map<String, User> users = storageService.loadAll();
+        User legacy = users.get("test1");
+        assertTrue(legacy.checkPassword("test1"));
+        assertEquals(63000.0, legacy.getWallet().totalIncome(), 0.001);
+        assertEquals(6800.0, legacy.getWallet().totalExpense(), 0.001);
+
+        storageService.saveAll(users);
+        Map<String, User> migrated = new StorageService(LEGACY_FILE).loadAll();
+        assertFalse(migrated.get("test1").isWalletLoaded());
+        assertEquals(63000.0, migrated.get("test1").getWallet().totalIncome(), 0.001);
+        assertEquals(4000.0, migrated.get("test1").getWallet().getBudget("еда"), 0.001);
+    }
+
+    // испорченный каталог не перезаписывается: копия остается рядом, кошельки без записи в каталоге не удаляются
+    @Test
+    void testDamagedDirectoryIsNotOverwritten() throws IOException {
+        StorageService storage = new StorageService(TEST_FILE);
+        Map<String, User> users = new HashMap<>();
+        User alice = new User("alice", "pw");
+        alice.getWallet().addTransaction(new Transaction(Transaction.Type.INCOME, "Salary", 1000.0, ""));
+        users.put("alice", alice);
+        storage.saveAll(users);
+
+        File directory = new File(TEST_FILE);
+        byte[] original = Files.readAllBytes(directory.toPath());
+        byte[] bytes = original.clone();
+        bytes[13 + 20 + 4] ^= 0x10; // сжатые данные первого блока пользователей
+        Files.write(directory.toPath(), bytes);
+        String[] wallets = storage.getWalletsDir().list();
+
+        StorageService reloaded = new StorageService(TEST_FILE);
+        Journal journal = reloaded.enableJournal(1);
+        Map<String, User> loaded = reloaded.loadAll();
+        assertTrue(loaded.isEmpty());
+        assertFalse(reloaded.getProblems().isEmpty());
+        assertNotNull(reloaded.getSaveRefusal());
+        assertArrayEquals(bytes, Files.readAllBytes(new File(TEST_FILE + ".damaged").toPath()));
+        assertArrayEquals(wallets, reloaded.getWalletsDir().list()); // кошельки не переименованы и не удалены
+
+        // изменения идут в журнал, но ни каталог, ни кошельки не перезаписываются
+        AuthService auth = new AuthService(loaded);
+        auth.setJournal(journal);
+        auth.register("bob", "pw");
+        reloaded.commit(loaded);
+        reloaded.saveAll(loaded);
+        reloaded.close();
+        assertArrayEquals(bytes, Files.readAllBytes(directory.toPath()));
+        assertArrayEquals(wallets, reloaded.getWalletsDir().list());
+
+        // после ручного восстановления каталога все на месте, изменения докатываются из журнала
+        Files.write(directory.toPath(), original);
+        StorageService again = new StorageService(TEST_FILE);
+        again.enableJournal(1);
+        Map<String, User> restored = again.loadAll();
+        assertNull(again.getSaveRefusal());
+        assertEquals(1000.0, restored.get("alice").getWallet().totalIncome(), 0.001);
+        assertTrue(restored.get("bob").checkPassword("pw"));
+        again.close();
+    }
+
+    @Test
+    void testDamagedWalletLoadsSurvivingBlocks() throws IOException {
+        StorageService storage = new StorageService(TEST_FILE);
+        Map<String, User> users = new HashMap<>();
+        User alice = new User("alice", "pw");
+        for (int i = 0; i < 20_000; i++) {
+            alice.getWallet().addTransaction(Transaction.ofCents(Transaction.Type.INCOME, "Salary", 100, "n" + i, Transaction.fromMillis(i)));
+        }
+        users.put("alice", alice);
+        storage.saveAll(users);
+
+        File walletFile = storage.getWalletsDir().listFiles()[0];
+        byte[] bytes = Files.readAllBytes(walletFile.toPath());
+        bytes[bytes.length / 3] ^= 0x01;
+        Files.write(walletFile.toPath(), bytes);
+
+        StorageService reloaded = new StorageService(TEST_FILE);
+        Map<String, User> loaded = reloaded.loadAll();
+        Wallet w = loaded.get("alice").getWallet();
+        long income = w.totalCents(Transaction.Type.INCOME);
+        assertTrue(income > 0 && income < 20_000 * 100L);
+        assertTrue(reloaded.getProblems().get(0).startsWith("Кошелек alice (" + walletFile.getName() + "): "));
+        File copy = new File(walletFile.getPath() + ".damaged");
+        assertArrayEquals(bytes, Files.readAllBytes(copy.toPath()));
+
+        // уцелевшее записывается в новый файл, копия поврежденного остается
+        reloaded.saveAll(loaded);
+        StorageService again = new StorageService(TEST_FILE);
+        assertEquals(income, again.loadAll().get("alice").getWallet().totalCents(Transaction.Type.INCOME));
+        assertTrue(again.getProblems().isEmpty());
+        assertTrue(copy.exists());
+    }
 }
@@ -0,0 +1,32 @@
+import java.io.File;
+
+// удаление всех файлов хранилища, созданных тестом
+public class TestFiles {
+
+    public static void deleteStorage(String filename) {
+        File file = new File(filename);
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        file.delete();
+        new File(filename + ".tmp").delete();
+        File[] copies = file.getAbsoluteFile().getParentFile().listFiles((dir, n) -> n.startsWith(name + ".damaged"));
+        if (copies != null) {
+            for (File c : copies) {
+                c.delete();
+            }
+        }
+        new File(file.getParentFile(), base + ".journal").delete();
+        deleteRecursively(new File(file.getParentFile(), base + ".wallets"));
+    }
+
+    public static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                deleteRecursively(c);
+            }
+        }
+        f.delete();
+    }
+}
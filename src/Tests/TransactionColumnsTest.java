@@ -0,0 +1,134 @@
+import org.junit.jupiter.api.Test;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransactionColumnsTest {
+
+    // столбцы против обычного списка объектов: после добавлений, переименований, удалений и сжатий записи совпадают
+    @Test
+    void testMatchesObjectList() {
+        Random rnd = new Random(5);
+        TransactionColumns columns = new TransactionColumns();
+        List<Transaction> expected = new ArrayList<>();
+        LocalDateTime t0 = LocalDateTime.of(2025, 1, 1, 0, 0);
+        for (int step = 0; step < 5_000; step++) {
+            int op = rnd.nextInt(100);
+            if (op < 2 && !expected.isEmpty()) {
+                String category = expected.get(rnd.nextInt(expected.size())).getCategory();
+                int count = (int) expected.stream().filter(t -> t.getCategory().equals(category)).count();
+                assertEquals(count, columns.removeCategory(category));
+                expected.removeIf(t -> t.getCategory().equals(category));
+                assertEquals(expected.size(), columns.liveSize());
+            } else if (op < 3) {
+                int deleted = columns.deletedCount();
+                assertEquals(deleted, columns.compact());
+                assertEquals(expected.size(), columns.size());
+            } else if (op < 4 && !expected.isEmpty()) {
+                String from = expected.get(rnd.nextInt(expected.size())).getCategory();
+                String to = "c" + step; // новое имя, транзакций под ним еще нет
+                columns.renameCategory(from, to);
+                expected.replaceAll(t -> t.getCategory().equals(from)
+                        ? Transaction.ofCents(t.getType(), to, t.getCents(), t.getNote(), t.getCreated()) : t);
+            } else {
+                Transaction t = Transaction.ofCents(rnd.nextBoolean() ? Transaction.Type.INCOME : Transaction.Type.EXPENSE,
+                        "c" + rnd.nextInt(30), rnd.nextInt(1_000_000) - 1000,
+                        rnd.nextInt(3) == 0 ? "" : "заметка " + step, t0.plusSeconds(rnd.nextInt(1_000_000)));
+                assertEquals(columns.size(), columns.add(t));
+                expected.add(t);
+            }
+        }
+
+        List<Transaction> live = new ArrayList<>();
+        for (int i = 0; i < columns.size(); i++) {
+            if (!columns.isDeleted(i)) {
+                live.add(columns.get(i));
+            }
+        }
+        assertEquals(expected.size(), live.size());
+        columns.compact();
+        assertEquals(expected.size(), columns.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Transaction e = expected.get(i);
+            Transaction a = columns.get(i);
+            assertEquals(e.getNote(), live.get(i).getNote());
+            assertEquals(e.getType(), a.getType());
+            assertEquals(e.getCategory(), a.getCategory());
+            assertEquals(e.getCents(), a.getCents());
+            assertEquals(e.getNote(), a.getNote());
+            assertEquals(e.getCreated(), a.getCreated());
+        }
+        for (int id = 0; id < columns.categoryCount(); id++) {
+            String name = columns.name(id);
+            int[] positions = columns.positions(id);
+            int k = 0;
+            for (int i = 0; i < expected.size(); i++) {
+                if (expected.get(i).getCategory().equals(name)) {
+                    assertEquals(i, positions[k++]);
+                }
+            }
+            assertEquals(k, columns.count(id));
+            for (Transaction.Type type : Transaction.Type.values()) {
+                long sum = 0;
+                int rows = 0;
+                for (Transaction t : expected) {
+                    if (t.getType() == type && t.getCategory().equals(name)) {
+                        sum += t.getCents();
+                        rows++;
+                    }
+                }
+                assertEquals(sum, columns.sum(type, id));
+                assertEquals(rows, columns.rows(type, id));
+            }
+        }
+    }
+
+    @Test
+    void testRenameKeepsIdsAndSums() {
+        TransactionColumns columns = new TransactionColumns();
+        columns.add(Transaction.Type.EXPENSE, "Кафе", 150, 1_000, "");
+        columns.add(Transaction.Type.EXPENSE, "Такси", 300, 2_000, "");
+        columns.add(Transaction.Type.EXPENSE, "Кафе", 50, 3_000, "");
+        int id = columns.idOf("Кафе");
+
+        columns.renameCategory("Кафе", "Рестораны");
+        assertEquals(-1, columns.idOf("Кафе"));
+        assertEquals(id, columns.idOf("Рестораны"));
+        assertEquals("Рестораны", columns.category(2));
+        assertEquals(200, columns.sum(Transaction.Type.EXPENSE, id));
+        assertThrows(IllegalArgumentException.class, () -> columns.renameCategory("Рестораны", "Такси"));
+
+        // имя удаленной категории остается в словаре без транзакций и может быть занято переименованием
+        columns.removeCategory("Такси");
+        columns.renameCategory("Рестораны", "Такси");
+        assertEquals(id, columns.idOf("Такси"));
+        assertEquals("Такси", columns.category(0));
+        columns.add(Transaction.Type.EXPENSE, "Такси", 1, 4_000, "");
+        assertEquals(3, columns.count(id));
+    }
+
+    @Test
+    void testVisitorSeesNotesInPlace() {
+        TransactionColumns columns = new TransactionColumns();
+        columns.add(Transaction.Type.EXPENSE, "Кафе", 150, 1_000, "кофе");
+        columns.add(Transaction.Type.INCOME, "Зарплата", 5_000_000, 2_000, "");
+        columns.add(Transaction.Type.EXPENSE, "Кафе", 99, 3_000, "обед \"с коллегами\"");
+
+        List<String> rows = new ArrayList<>();
+        columns.forEach((type, category, cents, created, note) ->
+                rows.add(type + "|" + category + "|" + cents + "|" + created + "|" + note));
+        assertEquals(List.of("EXPENSE|Кафе|150|1000|кофе", "INCOME|Зарплата|5000000|2000|",
+                "EXPENSE|Кафе|99|3000|обед \"с коллегами\""), rows);
+
+        assertEquals(1, columns.removeCategory("Зарплата"));
+        rows.clear();
+        columns.forEach((type, category, cents, created, note) -> rows.add(category + "|" + note));
+        assertEquals(List.of("Кафе|кофе", "Кафе|обед \"с коллегами\""), rows); // удаленные строки не видны
+
+        assertEquals(1, columns.compact());
+        assertEquals("обед \"с коллегами\"", columns.note(1));
+        assertEquals(Transaction.Type.EXPENSE, columns.type(1));
+    }
+}
@@ -0,0 +1,186 @@
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+public class WalletCodecTest {
+
+    private static byte[] encode(Wallet w, long lsn) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WalletCodec.write(Channels.newChannel(bytes), w, lsn);
+        return bytes.toByteArray();
+    }
+
+    private static Wallet decode(byte[] bytes) throws IOException {
+        return WalletCodec.read(Channels.newChannel(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        Wallet w = new Wallet();
+        w.addCategory("Пустая");
+        w.setBudget("Еда", 4000.0);
+        LocalDateTime t0 = LocalDateTime.of(2026, 1, 4, 17, 17, 5);
+        char[] longNote = new char[100_000];
+        Arrays.fill(longNote, 'ж');
+        w.addTransaction(new Transaction(Transaction.Type.INCOME, "Зарплата", 20000.5, "аванс", t0));
+        w.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Еда", 300.25, new String(longNote), t0.plusDays(1)));
+        w.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Еда", 0.01, "", t0.minusYears(3)));
+
+        Wallet r = decode(encode(w, 42));
+
+        assertEquals(42, r.getPersistedLsn());
+        assertFalse(r.isDirty());
+        assertEquals(w.getCategories(), r.getCategories());
+        assertEquals(w.getBudgets(), r.getBudgets());
+        List<Transaction> expected = w.getTransactions();
+        List<Transaction> actual = r.getTransactions();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getType(), actual.get(i).getType());
+            assertEquals(expected.get(i).getCategory(), actual.get(i).getCategory());
+            assertEquals(expected.get(i).getAmount(), actual.get(i).getAmount());
+            assertEquals(expected.get(i).getNote(), actual.get(i).getNote());
+            assertEquals(expected.get(i).getCreated(), actual.get(i).getCreated());
+        }
+        assertEquals(300.26, r.totalExpense(), 0.001);
+    }
+
+    @Test
+    void testDeletedRowsAreNotWritten() throws IOException {
+        Wallet w = new Wallet();
+        w.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Кино", 500.0, "билеты"));
+        w.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Еда", 300.0, "обед"));
+        assertEquals(1, w.forceDeleteCategory("Кино"));
+
+        Wallet r = decode(encode(w, 1));
+        assertEquals(1, r.getTransactions().size());
+        assertEquals("обед", r.getTransactions().get(0).getNote());
+        assertEquals(300.0, r.totalExpense(), 0.001);
+        assertFalse(r.needsCompaction());
+    }
+
+    @Test
+    void testReadsSerializedVersion() throws IOException {
+        Wallet w = new Wallet();
+        w.addTransaction(new Transaction(Transaction.Type.INCOME, "Salary", 1000.0, ""));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(WalletCodec.MAGIC);
+        out.writeByte(WalletCodec.VERSION_SERIALIZED);
+        out.writeLong(7);
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(w);
+        oos.flush();
+
+        Wallet r = decode(bytes.toByteArray());
+        assertEquals(7, r.getPersistedLsn());
+        assertEquals(1000.0, r.totalIncome(), 0.001);
+    }
+
+    @Test
+    void testReadsDoubleVersionAndMarksDirty() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        byte[] name = "Еда".getBytes(StandardCharsets.UTF_8);
+        out.writeInt(WalletCodec.MAGIC);
+        out.writeByte(WalletCodec.VERSION_DOUBLE);
+        out.writeLong(5);
+        out.writeByte(1); // словарь из одной категории
+        out.writeByte(name.length);
+        out.write(name);
+        out.writeByte(1); // категории кошелька
+        out.writeByte(0);
+        out.writeByte(1); // бюджеты
+        out.writeByte(0);
+        out.writeDouble(4000.5);
+        out.writeByte(2); // транзакции
+        for (int i = 0; i < 2; i++) {
+            out.writeByte(Transaction.Type.EXPENSE.ordinal());
+            out.writeByte(0);
+            out.writeDouble(i == 0 ? 0.1 : 0.2);
+            out.writeByte(0); // время
+            out.writeByte(0); // заметка
+        }
+
+        Wallet r = decode(bytes.toByteArray());
+        assertEquals(5, r.getPersistedLsn());
+        assertEquals(400_050, r.getBudgetCents("Еда"));
+        assertEquals(30, r.spentCentsInCategory("Еда")); // 0.1 + 0.2 ровно 0.30
+        assertTrue(r.isDirty()); // при следующем сохранении перепишется в новом формате
+
+        Wallet again = decode(encode(r, 6));
+        assertFalse(again.isDirty());
+        assertEquals(30, again.spentCentsInCategory("Еда"));
+    }
+
+    @Test
+    void testTruncatedFileFails() throws IOException {
+        Wallet w = new Wallet();
+        for (int i = 0; i < 100; i++) {
+            w.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Cat" + (i % 7), i, "note " + i));
+        }
+        byte[] bytes = encode(w, 1);
+        assertThrows(EOFException.class, () -> decode(Arrays.copyOf(bytes, bytes.length - 3)));
+    }
+
+    @Test
+    void testSmallerThanJavaSerialization() throws IOException {
+        Wallet w = new Wallet();
+        for (int i = 0; i < 1000; i++) {
+            w.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Cat" + (i % 10), i * 1.5, ""));
+        }
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(serialized)) {
+            oos.writeObject(w);
+        }
+        assertTrue(encode(w, 0).length * 3 < serialized.size());
+    }
+
+    // блок посреди файла испорчен: строгое чтение - ошибка, чтение с отчетом теряет только транзакции этого блока
+    @Test
+    void testDamagedBlockIsSkippedAndReported() throws IOException {
+        Wallet w = new Wallet();
+        w.setBudget("Cat1", 100.0);
+        for (int i = 0; i < 30_000; i++) {
+            w.addTransaction(Transaction.ofCents(Transaction.Type.EXPENSE, "Cat" + (i % 7), i, "note " + i, Transaction.fromMillis(i * 1000L)));
+        }
+        byte[] bytes = encode(w, 3);
+        bytes[bytes.length / 2] ^= 0x40;
+        assertThrows(IOException.class, () -> decode(bytes));
+
+        List<String> problems = new ArrayList<>();
+        Wallet r = WalletCodec.read(Channels.newChannel(new ByteArrayInputStream(bytes)), problems);
+        int lost = 30_000 - r.getTransactions().size();
+        assertTrue(lost > 0 && lost < 10_000, "потеряно " + lost);
+        assertTrue(problems.get(0).startsWith("пропущен поврежденный участок: байты "), problems.toString());
+        assertTrue(problems.stream().anyMatch(p -> p.matches("потеряно транзакций: " + lost + " из 30000 \\(блоков: 1 из \\d+\\)")), problems.toString());
+        assertEquals(100_00, r.getBudgetCents("Cat1"));
+        assertEquals(3, r.getPersistedLsn());
+        assertTrue(r.isDirty()); // при следующем сохранении уцелевшее запишется в новый файл
+        for (Transaction t : r.getTransactions()) {
+            int i = Integer.parseInt(t.getNote().substring(5)); // транзакции уцелевших блоков не искажены
+            assertEquals(Transaction.fromMillis(i * 1000L), t.getCreated());
+            assertEquals("Cat" + (i % 7), t.getCategory());
+        }
+    }
+
+    @Test
+    void testRepetitiveHistoryCompresses() throws IOException {
+        Wallet w = new Wallet();
+        for (int i = 0; i < 10_000; i++) {
+            w.addTransaction(Transaction.ofCents(Transaction.Type.EXPENSE, "Cat" + (i % 10), 50_000, "обед", Transaction.fromMillis(i * 86_400_000L)));
+        }
+        assertTrue(encode(w, 0).length < 10_000, "сжатые одинаковые записи - меньше байта на транзакцию");
+    }
+}
@@ -1,6 +1,14 @@
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public class WalletTest {
 
@@ -71,10 +79,332 @@ public class WalletTest {
         assertFalse(wallet.hasCategory("Категория"));
     }
 
+    @Test
+    void testPagesCoverAllTransactions() {
+        for (int i = 0; i < 7; i++) {
+            wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Еда", i + 1, "n" + i));
+        }
+        for (boolean reverse : new boolean[]{false, true}) {
+            StringBuilder notes = new StringBuilder();
+            String cursor = null;
+            int pages = 0;
+            do {
+                Wallet.Page page = wallet.page(cursor, 3, reverse);
+                assertTrue(page.getItems().size() <= 3);
+                page.getItems().forEach(t -> notes.append(t.getNote()));
+                cursor = page.getNextCursor();
+                pages++;
+            } while (cursor != null);
+            assertEquals(3, pages);
+            assertEquals(reverse ? "n6n5n4n3n2n1n0" : "n0n1n2n3n4n5n6", notes.toString());
+        }
+        assertNull(wallet.page(null, 7, false).getNextCursor());
+        assertTrue(new Wallet().page(null, 5, true).getItems().isEmpty());
+    }
+
+    @Test
+    void testStaleAndInvalidCursors() {
+        wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Еда", 1.0, ""));
+        wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Кино", 2.0, ""));
+        wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Еда", 3.0, ""));
+        String cursor = wallet.page(null, 1, false).getNextCursor();
+        // добавление в конец позиции не сдвигает - курсор продолжает работать
+        wallet.addTransaction(new Transaction(Transaction.Type.INCOME, "Зарплата", 5.0, ""));
+        assertEquals(2.0, wallet.page(cursor, 1, false).getItems().get(0).getAmount());
+
+        // удаление только помечает строки - курсор действует, удаленные пропускаются
+        wallet.forceDeleteCategory("Кино");
+        assertEquals(3.0, wallet.page(cursor, 1, false).getItems().get(0).getAmount());
+        // сжатие сдвигает позиции
+        assertEquals(1, wallet.compact());
+        assertThrows(IllegalArgumentException.class, () -> wallet.page(cursor, 1, false));
+        assertThrows(IllegalArgumentException.class, () -> wallet.page("abc", 1, false));
+        assertThrows(IllegalArgumentException.class, () -> wallet.page(cursor.split(":")[0] + ":99", 1, false));
+        assertThrows(IllegalArgumentException.class, () -> wallet.page(null, 0, false));
+    }
+
+    @Test
+    void testTimeIndexMatchesFullScan() {
+        Random rnd = new Random(7);
+        LocalDateTime base = LocalDateTime.of(2024, 1, 1, 0, 0);
+        // по одной, пачкой и вперемешку по времени
+        for (int i = 0; i < 300; i++) {
+            wallet.addTransaction(new Transaction(Transaction.Type.values()[rnd.nextInt(2)], "C" + rnd.nextInt(5),
+                    rnd.nextInt(1000) + 1, "", base.plusHours(i % 50 == 0 ? -rnd.nextInt(5000) : i * 3L)));
+        }
+        List<Transaction> batch = new java.util.ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            batch.add(new Transaction(Transaction.Type.EXPENSE, "C" + rnd.nextInt(5), rnd.nextInt(1000) + 1, "",
+                    base.plusMinutes(rnd.nextInt(2_000_000))));
+        }
+        wallet.addTransactions(batch);
+        wallet.forceDeleteCategory("C4");
+
+        for (int k = 0; k < 50; k++) {
+            LocalDateTime from = base.plusMinutes(rnd.nextInt(2_000_000) - 300_000);
+            LocalDateTime to = from.plusDays(rnd.nextInt(60));
+            Map<String, Double> expected = new HashMap<>();
+            int count = 0;
+            for (Transaction t : wallet.getTransactions()) {
+                if (!t.getCreated().isBefore(from) && t.getCreated().isBefore(to)) {
+                    count++;
+                    if (t.getType() == Transaction.Type.EXPENSE) {
+                        expected.merge(t.getCategory(), t.getAmount(), Double::sum);
+                    }
+                }
+            }
+            assertEquals(count, wallet.countBetween(from, to));
+            Map<String, Double> actual = wallet.totalsByCategory(Transaction.Type.EXPENSE, from, to);
+            assertEquals(expected.keySet(), actual.keySet());
+            expected.forEach((c, v) -> assertEquals(v, actual.get(c), 0.001));
+
+            List<Transaction> range = wallet.transactionsBetween(from, to);
+            assertEquals(count, range.size());
+            for (int i = 1; i < range.size(); i++) {
+                assertFalse(range.get(i).getCreated().isBefore(range.get(i - 1).getCreated()));
+            }
+        }
+        assertEquals(wallet.getTransactions().size(), wallet.countBetween(null, null));
+    }
+
+    @Test
+    void testRangePagesSurviveOlderInserts() {
+        LocalDateTime base = LocalDateTime.of(2025, 3, 1, 12, 0);
+        for (int i = 0; i < 6; i++) {
+            wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Еда", 1.0, "n" + i, base.plusDays(i)));
+        }
+        Wallet.Page first = wallet.pageBetween(base.plusDays(1), base.plusDays(5), null, 2, false);
+        assertEquals("n1", first.getItems().get(0).getNote());
+        assertEquals("n2", first.getItems().get(1).getNote());
+        // более старая транзакция сдвигает индекс по времени, но курсор указывает на транзакцию, а не на место в индексе
+        wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Еда", 1.0, "old", base.minusDays(10)));
+        Wallet.Page second = wallet.pageBetween(base.plusDays(1), base.plusDays(5), first.getNextCursor(), 2, false);
+        assertEquals("n3", second.getItems().get(0).getNote());
+        assertEquals("n4", second.getItems().get(1).getNote());
+        assertNull(second.getNextCursor());
+
+        Wallet.Page back = wallet.pageBetween(null, null, null, 3, true);
+        assertEquals("n5", back.getItems().get(0).getNote());
+        Wallet.Page rest = wallet.pageBetween(null, null, back.getNextCursor(), 10, true);
+        assertEquals(4, rest.getItems().size());
+        assertEquals("old", rest.getItems().get(3).getNote());
+    }
+
     @Test
     void testCategoryAggregation() {
         wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Продукты", 5000.0, ""));
         wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Продукты", 3000.0, ""));
         assertEquals(8000.0, wallet.spentInCategory("Продукты"), 0.001);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testCachedTotalsAfterRenameAndForceDelete() {
+        wallet.addTransaction(new Transaction(Transaction.Type.INCOME, "Зарплата", 50000.0, ""));
+        wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Продукты", 5000.0, ""));
+        wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Кафе", 2000.0, ""));
+
+        assertTrue(wallet.renameCategory("Продукты", "Еда"));
+        assertEquals(5000.0, wallet.spentInCategory("Еда"), 0.001);
+        assertEquals(0.0, wallet.spentInCategory("Продукты"), 0.001);
+        assertFalse(wallet.totalsByCategory(Transaction.Type.EXPENSE).containsKey("Продукты"));
+
+        assertEquals(1, wallet.forceDeleteCategory("Кафе"));
+        assertEquals(5000.0, wallet.totalExpense(), 0.001);
+        assertFalse(wallet.totalsByCategory(Transaction.Type.EXPENSE).containsKey("Кафе"));
+        assertCachedTotalsMatchRecompute();
+    }
+
+    @Test
+    void testCachedTotalsMatchFullRecompute() {
+        Random random = new Random(42);
+        String[] names = {"Продукты", "продукты", "Кафе", "Транспорт", "Зарплата", "Бонус"};
+        for (int i = 0; i < 2000; i++) {
+            int op = random.nextInt(20);
+            String category = names[random.nextInt(names.length)];
+            if (op == 0) {
+                String renamed = category + "_" + i;
+                wallet.renameCategory(category, renamed);
+                wallet.renameCategory(renamed, category);
+            } else if (op == 1) {
+                wallet.forceDeleteCategory(category);
+            } else {
+                Transaction.Type type = random.nextBoolean() ? Transaction.Type.INCOME : Transaction.Type.EXPENSE;
+                wallet.addTransaction(new Transaction(type, category, 1 + random.nextInt(100000) / 100.0, ""));
+            }
+            if (i % 100 == 0) {
+                assertCachedTotalsMatchRecompute();
+            }
+        }
+        assertCachedTotalsMatchRecompute();
+    }
+
+    @Test
+    void testCategoryIndexFollowsDeleteAndRename() {
+        wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Кафе", 100.0, "1"));
+        wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Продукты", 200.0, "2"));
+        wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Кафе", 300.0, "3"));
+        wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Продукты", 400.0, "4"));
+
+        assertEquals(2, wallet.forceDeleteCategory("Продукты"));
+        List<Transaction> cafe = wallet.getTransactionsByCategory("Кафе");
+        assertEquals(2, cafe.size());
+        assertEquals("1", cafe.get(0).getNote());
+        assertEquals("3", cafe.get(1).getNote());
+
+        assertTrue(wallet.renameCategory("Кафе", "Рестораны"));
+        assertEquals(0, wallet.countByCategory("Кафе"));
+        assertTrue(wallet.getTransactionsByCategory("Кафе").isEmpty());
+        assertEquals(2, wallet.countByCategory("Рестораны"));
+        assertEquals("Рестораны", wallet.getTransactions().get(1).getCategory());
+        assertFalse(wallet.deleteCategory("Рестораны"));
+    }
+
+    @Test
+    void testRenameKeepsTransactionTime() {
+        LocalDateTime created = LocalDateTime.of(2025, 3, 1, 12, 30);
+        wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Старая", 100.0, "", created));
+
+        assertTrue(wallet.renameCategory("Старая", "Новая"));
+        assertEquals(created, wallet.getTransactionsByCategory("Новая").get(0).getCreated());
+    }
+
+    @Test
+    void testRenameDoesNotTouchTransactions() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        LocalDateTime t0 = LocalDateTime.of(2025, 1, 1, 0, 0);
+        for (int i = 0; i < 200_000; i++) {
+            wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, i % 2 == 0 ? "Кафе" : "Такси", 1.0, "", t0.plusMinutes(i)));
+        }
+        long before = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+        assertTrue(wallet.renameCategory("Кафе", "Рестораны"));
+        long allocated = mx.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        // раньше на каждую из 100 000 транзакций создавалась новая Transaction - мегабайты
+        assertTrue(allocated < 10_000, "выделено байт: " + allocated);
+
+        assertEquals(100_000, wallet.countByCategory("Рестораны"));
+        assertEquals(100_000.0, wallet.totalByCategory("рестораны", Transaction.Type.EXPENSE), 0.001);
+        assertEquals("Рестораны", wallet.getTransactions().get(0).getCategory());
+        assertEquals("Такси", wallet.getTransactions().get(1).getCategory());
+    }
+
+    @Test
+    void testReadersSkipDeletedRowsUntilCompaction() {
+        LocalDateTime t0 = LocalDateTime.of(2025, 3, 1, 12, 0);
+        for (int i = 0; i < 8; i++) {
+            wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, i % 4 == 0 ? "Кино" : "Еда", 10.0, "" + i, t0.plusDays(i)));
+        }
+        assertEquals(2, wallet.forceDeleteCategory("Кино"));
+
+        assertEquals(60.0, wallet.totalExpense(), 0.001);
+        assertEquals(6, wallet.getTransactions().size());
+        assertEquals("1", wallet.getTransactions().get(0).getNote());
+        assertEquals(6, wallet.countBetween(null, null));
+        assertEquals(6, wallet.transactionsBetween(t0, null).size());
+        assertEquals(Map.of("Еда", 60.0), wallet.totalsByCategory(Transaction.Type.EXPENSE, null, null));
+        assertEquals(6, wallet.page(null, 10, true).getItems().size());
+        int[] visited = new int[1];
+        wallet.forEachTransaction((type, category, cents, created, note) -> {
+            assertEquals("Еда", category);
+            visited[0]++;
+        });
+        assertEquals(6, visited[0]);
+
+        // последняя транзакция удалена: курсора на пустую страницу нет
+        wallet.forceDeleteCategory("Еда");
+        wallet.addTransaction(new Transaction(Transaction.Type.INCOME, "Зарплата", 1.0, "", t0));
+        wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Кино", 5.0, "", t0));
+        wallet.forceDeleteCategory("Кино");
+        assertNull(wallet.page(null, 1, false).getNextCursor());
+
+        assertTrue(wallet.needsCompaction());
+        long version = wallet.getVersion();
+        assertEquals(9, wallet.compact());
+        assertFalse(wallet.needsCompaction());
+        assertEquals(version, wallet.getVersion()); // содержимое не изменилось
+        assertEquals(1, wallet.getTransactions().size());
+        assertEquals(1.0, wallet.totalIncome(), 0.001);
+        assertEquals(0.0, wallet.totalExpense(), 0.001);
+    }
+
+    private static List<String> rows(Wallet w) {
+        List<String> res = new java.util.ArrayList<>();
+        w.forEachTransaction((type, category, cents, created, note) -> res.add(type + "|" + category + "|" + cents + "|" + note));
+        return res;
+    }
+
+    // снимок для фоновой записи не видит изменений, сделанных после него, и не портит сам кошелек
+    @Test
+    void testSnapshotIsNotAffectedByLaterChanges() {
+        for (int i = 0; i < 100; i++) {
+            wallet.addTransaction(Transaction.ofCents(i % 2 == 0 ? Transaction.Type.EXPENSE : Transaction.Type.INCOME,
+                    "c" + i % 3, i + 1, "заметка " + i, Transaction.fromMillis(i)));
+        }
+        wallet.setBudgetCents("c0", 1_000);
+        List<String> before = rows(wallet);
+        Wallet snapshot = wallet.snapshot();
+
+        wallet.addTransaction(Transaction.ofCents(Transaction.Type.EXPENSE, "c1", 7, "после снимка", Transaction.fromMillis(500)));
+        assertEquals(34, wallet.forceDeleteCategory("c0"));
+        wallet.renameCategory("c1", "Кафе");
+        assertEquals(34, wallet.compact());
+        wallet.addTransaction(Transaction.ofCents(Transaction.Type.INCOME, "c2", 9, "", Transaction.fromMillis(600)));
+
+        assertEquals(before, rows(snapshot));
+        assertEquals(1_000, snapshot.getBudgetCents("c0"));
+        assertEquals(before.size(), snapshot.columns().liveSize());
+        assertThrows(IllegalStateException.class, () -> snapshot.columns().add(Transaction.Type.INCOME, "x", 1, 0, ""));
+
+        List<String> after = rows(wallet);
+        assertEquals(68, after.size());
+        assertEquals("EXPENSE|Кафе|7|после снимка", after.get(66));
+        assertTrue(after.stream().noneMatch(r -> r.contains("|c0|") || r.contains("|c1|")));
+    }
+
+    @Test
+    void testTransactionsViewIsLive() {
+        wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Кафе", 100.0, "кофе"));
+        wallet.addTransaction(new Transaction(Transaction.Type.EXPENSE, "Такси", 300.0, ""));
+        List<Transaction> view = wallet.getTransactions();
+        wallet.addTransaction(new Transaction(Transaction.Type.INCOME, "Зарплата", 1000.0, ""));
+
+        assertEquals(2, view.size()); // размер - на момент вызова
+        assertTrue(wallet.renameCategory("Кафе", "Рестораны"));
+        assertEquals("Рестораны", view.get(0).getCategory());
+        assertEquals("кофе", view.get(0).getNote());
+        assertThrows(UnsupportedOperationException.class, () -> view.remove(0));
+
+        wallet.forceDeleteCategory("Рестораны");
+        assertThrows(ConcurrentModificationException.class, () -> view.get(0));
+        assertEquals("Такси", wallet.getTransactions().get(0).getCategory());
+    }
+
+    // сравниваем накопленные суммы с полным пересчетом по списку транзакций
+    private void assertCachedTotalsMatchRecompute() {
+        for (Transaction.Type type : Transaction.Type.values()) {
+            double total = 0;
+            Map<String, Double> byCategory = new HashMap<>();
+            for (Transaction t : wallet.getTransactions()) {
+                if (t.getType() == type) {
+                    total += t.getAmount();
+                    byCategory.merge(t.getCategory(), t.getAmount(), Double::sum);
+                }
+            }
+            double cachedTotal = type == Transaction.Type.INCOME ? wallet.totalIncome() : wallet.totalExpense();
+            assertEquals(total, cachedTotal, 0.001);
+
+            Map<String, Double> cached = wallet.totalsByCategory(type);
+            assertEquals(byCategory.keySet(), cached.keySet());
+            for (Map.Entry<String, Double> e : byCategory.entrySet()) {
+                assertEquals(e.getValue(), cached.get(e.getKey()), 0.001);
+                double ignoreCase = 0;
+                for (Transaction t : wallet.getTransactions()) {
+                    if (t.getType() == type && t.getCategory().equalsIgnoreCase(e.getKey())) {
+                        ignoreCase += t.getAmount();
+                    }
+                }
+                assertEquals(ignoreCase, wallet.totalByCategory(e.getKey(), type), 0.001);
+            }
+        }
+    }
+}